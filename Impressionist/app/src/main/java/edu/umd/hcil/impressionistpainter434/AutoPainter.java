@@ -0,0 +1,250 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.umd.hcil.impressionistpainter434.core.AutoPaintGrid;
+import edu.umd.hcil.impressionistpainter434.core.BrushDynamics;
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+import edu.umd.hcil.impressionistpainter434.core.DabBuffer;
+import edu.umd.hcil.impressionistpainter434.core.SourceSampler;
+import edu.umd.hcil.impressionistpainter434.core.SplitRandom;
+import edu.umd.hcil.impressionistpainter434.core.StrokeBuilder;
+
+/**
+ * Paints the whole painting automatically, one tile per task on a shared thread pool.
+ *
+ * Each tile renders its dabs into a private bitmap that is slightly bigger than the tile, so
+ * that dabs can spill over the edges. Finished tiles are composited into the target in tile
+ * order, whatever order they finish in. Every tile draws its randomness from its own
+ * {@link SplitRandom} stream, (seed, tile index), so the same seed gives the same painting on
+ * any number of threads. Src-over is associative, so compositing a tile's layer gives the same result as
+ * drawing its dabs straight into the target.
+ */
+public class AutoPainter {
+    private static final String TAG = "AutoPainter";
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * Distance between auto-paint dabs, in view pixels
+     */
+    public static final int GRID_STEP = AutoPaintGrid.GRID_STEP;
+
+    // The pool is shared with other CPU-bound work, e.g., encoding exports
+    static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static ExecutorService _executor = null;
+
+    /**
+     * Called on the compositing thread as tiles land in the target
+     */
+    public interface TileListener {
+        void onTileComposited(Rect bounds, int tilesDone, int tileCount);
+    }
+
+    private final SourceSampler _sampler;
+    private final BrushType _brushType;
+    private final int _minRadius;
+    private final int _baseAlpha;
+    private final float _brushScale;
+    private final float _gridStep;
+    private final long _seed;
+    private int _tileSize = DEFAULT_TILE_SIZE;
+    private volatile boolean _cancelled = false;
+
+    /**
+     * @param sampler source colors, must not change while painting, not even after
+     *                {@link #cancel()} until paint returns
+     * @param brushType
+     * @param minRadius see {@link BrushDynamics#setMinRadius(int)}
+     * @param baseAlpha see {@link BrushDynamics#setBaseAlpha(int)}
+     * @param brushScale see {@link BrushDynamics#setScale(float)}
+     * @param gridStep distance between dabs, in painting pixels
+     * @param seed
+     */
+    public AutoPainter(SourceSampler sampler, BrushType brushType, int minRadius, int baseAlpha,
+                       float brushScale, float gridStep, long seed) {
+        _sampler = sampler;
+        _brushType = brushType;
+        _minRadius = minRadius;
+        _baseAlpha = baseAlpha;
+        _brushScale = brushScale;
+        _gridStep = Math.max(1f, gridStep);
+        _seed = seed;
+    }
+
+    public void setTileSize(int tileSize) {
+        _tileSize = Math.max(16, tileSize);
+    }
+
+    /**
+     * Stops painting as soon as the tiles being rendered are done; tiles not started yet are
+     * skipped and nothing more is composited. May be called from any thread, before or during
+     * {@link #paint}.
+     */
+    public void cancel() {
+        _cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return _cancelled;
+    }
+
+    /**
+     * Paints all of target, blocking until every tile has been composited or the painter is
+     * cancelled
+     * @param target
+     * @param listener notified after each tile, may be null
+     * @return the time it took, in milliseconds
+     */
+    public long paint(TiledSurface target, TileListener listener) throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final int width = target.getWidth();
+        final int height = target.getHeight();
+        final int columns = (width + _tileSize - 1) / _tileSize;
+        final int rows = (height + _tileSize - 1) / _tileSize;
+        final int tileCount = columns * rows;
+        if (tileCount == 0) {
+            return 0;
+        }
+
+        // Jittered dabs, splatter included, can land this far outside their tile and still have to fit
+        final int margin = AutoPaintGrid.getMargin(newDynamics(), _gridStep);
+
+        // Keep a bounded number of tiles in flight, tiles that finish early hold on to their bitmaps
+        final int window = THREAD_COUNT * 2;
+        CompletionService<TileResult> completion = new ExecutorCompletionService<>(getExecutor());
+        TileResult[] finished = new TileResult[tileCount];
+        int submitted = 0;
+        int composited = 0;
+        Rect bounds = new Rect();
+
+        try {
+            while (composited < tileCount && !_cancelled) {
+                while (submitted < tileCount && submitted - composited < window) {
+                    int column = submitted % columns;
+                    int row = submitted / columns;
+                    Rect tile = new Rect(column * _tileSize, row * _tileSize,
+                            Math.min(width, (column + 1) * _tileSize), Math.min(height, (row + 1) * _tileSize));
+                    completion.submit(new TileTask(submitted, tile, margin));
+                    submitted++;
+                }
+
+                TileResult result = completion.take().get();
+                if (result.bitmap == null) {
+                    // Skipped, the painter was cancelled
+                    continue;
+                }
+                finished[result.index] = result;
+
+                // Composite in tile order so that overlapping margins always blend the same way
+                while (composited < tileCount && finished[composited] != null && !_cancelled) {
+                    TileResult next = finished[composited];
+                    finished[composited] = null;
+                    target.drawBitmap(next.bitmap, next.tile.left - margin, next.tile.top - margin);
+                    next.bitmap.recycle();
+                    composited++;
+                    if (listener != null) {
+                        bounds.set(next.tile.left - margin, next.tile.top - margin,
+                                next.tile.right + margin, next.tile.bottom + margin);
+                        listener.onTileComposited(bounds, composited, tileCount);
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            Log.e(TAG, "paint: tile failed", e.getCause());
+        } finally {
+            for (TileResult result : finished) {
+                if (result != null) {
+                    result.bitmap.recycle();
+                }
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        if (ImpressionistView.DEBUG) {
+            Log.d(TAG, "paint: " + composited + " of " + tileCount + " tiles on " + THREAD_COUNT + " threads in "
+                    + elapsed + "ms" + (_cancelled ? ", cancelled" : ""));
+        }
+        return elapsed;
+    }
+
+    private BrushDynamics newDynamics() {
+        BrushDynamics dynamics = new BrushDynamics();
+        dynamics.setMinRadius(_minRadius);
+        dynamics.setBaseAlpha(_baseAlpha);
+        dynamics.setScale(_brushScale);
+        return dynamics;
+    }
+
+    static synchronized ExecutorService getExecutor() {
+        if (_executor == null) {
+            _executor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+                private final AtomicInteger _count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG + "-" + _count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return _executor;
+    }
+
+    private static class TileResult {
+        final int index;
+        final Rect tile;
+        final Bitmap bitmap;
+
+        TileResult(int index, Rect tile, Bitmap bitmap) {
+            this.index = index;
+            this.tile = tile;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private class TileTask implements Callable<TileResult> {
+        private final int _index;
+        private final Rect _tile;
+        private final int _margin;
+
+        TileTask(int index, Rect tile, int margin) {
+            _index = index;
+            _tile = tile;
+            _margin = margin;
+        }
+
+        @Override
+        public TileResult call() throws Exception {
+            if (_cancelled) {
+                return new TileResult(_index, _tile, null);
+            }
+            SplitRandom random = new SplitRandom(_seed, _index);
+            AutoPaintGrid grid = new AutoPaintGrid(new StrokeBuilder(newDynamics(), _sampler), _gridStep);
+            DabRenderer renderer = new DabRenderer();
+
+            DabBuffer dabs = new DabBuffer();
+            grid.generate(_tile.left, _tile.top, _tile.right, _tile.bottom, random, dabs);
+
+            Bitmap bitmap = Bitmap.createBitmap(_tile.width() + 2 * _margin, _tile.height() + 2 * _margin,
+                    Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            canvas.translate(_margin - _tile.left, _margin - _tile.top);
+            renderer.drawDabs(canvas, _brushType, dabs);
+            return new TileResult(_index, _tile, bitmap);
+        }
+    }
+}
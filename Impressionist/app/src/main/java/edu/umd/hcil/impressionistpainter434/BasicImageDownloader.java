@@ -3,19 +3,15 @@ package edu.umd.hcil.impressionistpainter434;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.util.Log;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.HashSet;
-import java.util.Set;
+
+import edu.umd.hcil.impressionistpainter434.core.DownloadEngine;
 
 
 
@@ -26,8 +22,15 @@ import java.util.Set;
  */
 public class BasicImageDownloader {
 
+    /**
+     * Downloads that may run at once, across all downloaders
+     */
+    public static final int MAX_CONCURRENT_DOWNLOADS = 4;
+
+    private static DownloadEngine<Bitmap> sEngine = null;
+
     private OnImageLoaderListener mImageLoaderListener;
-    private Set<String> mUrlsInProgress = new HashSet<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
     private final String TAG = this.getClass().getSimpleName();
 
     public BasicImageDownloader(@NonNull OnImageLoaderListener listener) {
@@ -41,102 +44,87 @@ public class BasicImageDownloader {
     }
 
 
+    /**
+     * Downloads imageUrl, at most {@link #MAX_CONCURRENT_DOWNLOADS} at a time, and reports back on
+     * the UI thread. Asking for a URL that is still downloading joins that download.
+     * @param imageUrl
+     * @param displayProgress whether to report progress, when the server says how big the image is
+     */
     public void download(@NonNull final String imageUrl, final boolean displayProgress) {
-        if (mUrlsInProgress.contains(imageUrl)) {
-            Log.w(TAG, "a download for this url is already running, " +
-                    "no further download will be started");
-            return;
-        }
-
-        new AsyncTask<Void, Integer, Bitmap>() {
-
-            private ImageError error;
-
+        Log.d(TAG, "starting download");
+        getEngine().download(imageUrl, new DownloadEngine.Callback<Bitmap>() {
             @Override
-            protected void onPreExecute() {
-                mUrlsInProgress.add(imageUrl);
-                Log.d(TAG, "starting download");
-            }
-
-            @Override
-            protected void onCancelled() {
-                mUrlsInProgress.remove(imageUrl);
-                mImageLoaderListener.onError(imageUrl, error);
+            public void onProgress(final String url, long bytesRead, long contentLength) {
+                if (!displayProgress || contentLength <= 0) {
+                    return;
+                }
+                final int percent = (int) ((bytesRead * 100) / contentLength);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mImageLoaderListener.onProgressChange(url, percent);
+                    }
+                });
             }
 
             @Override
-            protected void onProgressUpdate(Integer... values) {
-                mImageLoaderListener.onProgressChange(imageUrl, values[0]);
+            public void onComplete(final String url, final Bitmap result) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result == null) {
+                            Log.e(TAG, "factory returned a null result");
+                            mImageLoaderListener.onError(url, new ImageError("downloaded file could not be decoded as bitmap")
+                                    .setErrorCode(ImageError.ERROR_DECODE_FAILED));
+                        } else {
+                            Log.d(TAG, "download complete, " + result.getByteCount() +
+                                    " bytes decoded");
+                            mImageLoaderListener.onComplete(url, result);
+                        }
+                    }
+                });
             }
 
             @Override
-            protected Bitmap doInBackground(Void... params) {
-                Bitmap bitmap = null;
-                HttpURLConnection connection = null;
-                InputStream is = null;
-                ByteArrayOutputStream out = null;
-                try {
-                    connection = (HttpURLConnection) new URL(imageUrl).openConnection();
-                    if (displayProgress) {
-                        connection.connect();
-                        final int length = connection.getContentLength();
-                        if (length <= 0) {
-                            error = new ImageError("Invalid content length. The URL is probably not pointing to a file")
-                                    .setErrorCode(ImageError.ERROR_INVALID_FILE);
-                            this.cancel(true);
-                        }
-                        is = new BufferedInputStream(connection.getInputStream(), 8192);
-                        out = new ByteArrayOutputStream();
-                        byte bytes[] = new byte[8192];
-                        int count;
-                        long read = 0;
-                        while ((count = is.read(bytes)) != -1) {
-                            read += count;
-                            out.write(bytes, 0, count);
-                            publishProgress((int) ((read * 100) / length));
-                        }
-                        bitmap = BitmapFactory.decodeByteArray(out.toByteArray(), 0, out.size());
-                    } else {
-                        is = connection.getInputStream();
-                        bitmap = BitmapFactory.decodeStream(is);
-                    }
-                } catch (Throwable e) {
-                    if (!this.isCancelled()) {
-                        error = new ImageError(e).setErrorCode(ImageError.ERROR_GENERAL_EXCEPTION);
-                        this.cancel(true);
+            public void onError(final String url, final Exception error) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mImageLoaderListener.onError(url,
+                                new ImageError(error).setErrorCode(ImageError.ERROR_GENERAL_EXCEPTION));
                     }
-                } finally {
-                    try {
-                        if (connection != null)
-                            connection.disconnect();
-                        if (out != null) {
-                            out.flush();
-                            out.close();
-                        }
-                        if (is != null)
-                            is.close();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-                return bitmap;
+                });
             }
+        });
+    }
 
-            @Override
-            protected void onPostExecute(Bitmap result) {
-                if (result == null) {
-                    Log.e(TAG, "factory returned a null result");
-                    mImageLoaderListener.onError(imageUrl, new ImageError("downloaded file could not be decoded as bitmap")
-                            .setErrorCode(ImageError.ERROR_DECODE_FAILED));
-                } else {
-                    Log.d(TAG, "download complete, " + result.getByteCount() +
-                            " bytes transferred");
-                    mImageLoaderListener.onComplete(imageUrl, result);
+    private static synchronized DownloadEngine<Bitmap> getEngine() {
+        if (sEngine == null) {
+            // The app's cache directory on Android
+            File directory = new File(System.getProperty("java.io.tmpdir"));
+            sEngine = new DownloadEngine<>(MAX_CONCURRENT_DOWNLOADS, directory, new DownloadEngine.Decoder<Bitmap>() {
+                @Override
+                public Bitmap decode(String url, File file) throws IOException {
+                    return decodeFile(file);
                 }
-                mUrlsInProgress.remove(imageUrl);
-                System.gc();
-            }
-        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            });
+        }
+        return sEngine;
+    }
+
+    /**
+     * Decodes file, downsampled to fit the same memory budget as images picked from the Gallery
+     */
+    private static Bitmap decodeFile(File file) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        ImageLoader.chooseDecodeOptions(bounds, 0, 0, Runtime.getRuntime().maxMemory() / 8, options);
+        return BitmapFactory.decodeFile(file.getPath(), options);
     }
 
     public interface OnBitmapSaveListener {
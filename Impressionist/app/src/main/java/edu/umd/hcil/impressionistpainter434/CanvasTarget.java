@@ -0,0 +1,55 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import edu.umd.hcil.impressionistpainter434.core.PaintTarget;
+
+/**
+ * Adapts a Canvas to {@link PaintTarget}, with one Paint that is reconfigured for every shape
+ */
+class CanvasTarget implements PaintTarget {
+    private final Paint _paint = new Paint();
+    private Canvas _canvas = null;
+
+    CanvasTarget() {
+        _paint.setAntiAlias(true);
+    }
+
+    void setCanvas(Canvas canvas) {
+        _canvas = canvas;
+    }
+
+    @Override
+    public void fillCircle(float cx, float cy, float radius, int color) {
+        _paint.setColor(color);
+        _paint.setStyle(Paint.Style.FILL);
+        _canvas.drawCircle(cx, cy, radius, _paint);
+    }
+
+    @Override
+    public void fillRect(float left, float top, float right, float bottom, int color) {
+        _paint.setColor(color);
+        _paint.setStyle(Paint.Style.FILL);
+        _canvas.drawRect(left, top, right, bottom, _paint);
+    }
+
+    @Override
+    public void drawLine(float x0, float y0, float x1, float y1, float width, int color) {
+        setLinePaint(width, color);
+        _canvas.drawLine(x0, y0, x1, y1, _paint);
+    }
+
+    @Override
+    public void drawLines(float[] points, int offset, int count, float width, int color) {
+        setLinePaint(width, color);
+        _canvas.drawLines(points, offset, count, _paint);
+    }
+
+    private void setLinePaint(float width, int color) {
+        _paint.setColor(color);
+        _paint.setStyle(Paint.Style.STROKE);
+        _paint.setStrokeCap(Paint.Cap.BUTT);
+        _paint.setStrokeWidth(width);
+    }
+}
@@ -0,0 +1,99 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import edu.umd.hcil.impressionistpainter434.core.BrushDynamics;
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+import edu.umd.hcil.impressionistpainter434.core.DabBuffer;
+import edu.umd.hcil.impressionistpainter434.core.DabPainter;
+import edu.umd.hcil.impressionistpainter434.core.Splatter;
+
+/**
+ * Draws brush dabs into a Canvas. The shapes come from {@link DabPainter}, the same code that
+ * paints off-device rasters, so drawing the same dab again (e.g., when replaying strokes for
+ * undo) always gives the same shapes. Each thread that rasterizes dabs needs its own instance
+ * because the Paint is reconfigured for every dab.
+ *
+ * Circle, Square and CircleSplatter dabs are drawn from the shared {@link StampCache}: one
+ * bitmap draw per dab, tinted by the paint color. Line brushes go through {@link DabPainter}.
+ */
+public class DabRenderer {
+    private static final BrushType[] BRUSH_TYPES = BrushType.values();
+
+    private final DabPainter _painter = new DabPainter();
+    private final CanvasTarget _target = new CanvasTarget();
+    private final float[] _bounds = new float[4];
+    private final StampCache _stamps = StampCache.getShared();
+    private final Paint _stampPaint = new Paint();
+    private final RectF _stampBounds = new RectF();
+
+    public DabRenderer() {
+        // An ALPHA_8 bitmap is drawn in the paint color; filtering places it between pixels
+        _stampPaint.setFilterBitmap(true);
+    }
+
+    public static BrushType brushType(int ordinal) {
+        return BRUSH_TYPES[ordinal];
+    }
+
+    /**
+     * Draws one dab
+     * @param canvas
+     * @param brushType
+     * @param x
+     * @param y
+     * @param radius brush radius, as computed by {@link BrushDynamics#radiusFor(float)}
+     * @param color ARGB color, alpha included
+     * @param angle direction for line brushes, in radians
+     */
+    public void drawDab(Canvas canvas, BrushType brushType, float x, float y, int radius, int color, float angle) {
+        if (StampCache.isStamped(brushType)) {
+            drawStamp(canvas, brushType, x, y, radius, color);
+            return;
+        }
+        _target.setCanvas(canvas);
+        _painter.drawDab(_target, brushType, x, y, radius, color, angle);
+    }
+
+    /**
+     * Draws every dab in dabs with the same brush, line segments batched into as few draw calls
+     * as their paint allows
+     */
+    public void drawDabs(Canvas canvas, BrushType brushType, DabBuffer dabs) {
+        if (StampCache.isStamped(brushType)) {
+            final int count = dabs.size();
+            for (int d = 0; d < count; d++) {
+                drawStamp(canvas, brushType, dabs.getX(d), dabs.getY(d), dabs.getRadius(d), dabs.getColor(d));
+            }
+            return;
+        }
+        _target.setCanvas(canvas);
+        _painter.drawDabs(_target, brushType, dabs);
+    }
+
+    /**
+     * Sets out to the area a dab may touch, splatter included
+     */
+    public void getBounds(BrushType brushType, float x, float y, int radius, RectF out) {
+        DabPainter.getBounds(brushType, x, y, radius, _bounds);
+        out.set(_bounds[0], _bounds[1], _bounds[2], _bounds[3]);
+    }
+
+    private void drawStamp(Canvas canvas, BrushType brushType, float x, float y, int radius, int color) {
+        int variant = brushType == BrushType.CircleSplatter ? Splatter.variantFor(x, y, radius, color) : 0;
+        StampCache.Stamp stamp = _stamps.get(brushType, radius, variant);
+        _stampPaint.setColor(color);
+        if (stamp.radius == radius || stamp.radius == 0) {
+            canvas.drawBitmap(stamp.mask, x + stamp.offsetX, y + stamp.offsetY, _stampPaint);
+        } else {
+            // Rasterized for a nearby radius, scaled around the dab center
+            float scale = (float) radius / stamp.radius;
+            float left = x + stamp.offsetX * scale;
+            float top = y + stamp.offsetY * scale;
+            _stampBounds.set(left, top, left + stamp.mask.getWidth() * scale, top + stamp.mask.getHeight() * scale);
+            canvas.drawBitmap(stamp.mask, null, _stampBounds, _stampPaint);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * Collects the parts of the painting that changed and invalidates the matching part of the
+ * view, at most once per frame.
+ *
+ * Dirty bounds come in from any thread in painting coordinates. They are unioned until the next
+ * vsync, then mapped through the painting to view matrix, which is what the view draws the
+ * painting with, so the invalidated rect is right at any zoom.
+ */
+public class DirtyRegion {
+    private static final String TAG = "DirtyRegion";
+
+    // Antialiased edges can bleed a pixel past the mapped bounds
+    private static final int OUTSET = 1;
+
+    private final View _view;
+    private final Object _lock = new Object();
+    private final RectF _dirty = new RectF();
+    private boolean _scheduled = false;
+
+    // UI thread only
+    private final Matrix _toView = new Matrix();
+    private final RectF _mapped = new RectF();
+    private final Rect _invalid = new Rect();
+
+    private final Runnable _flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public DirtyRegion(View view) {
+        _view = view;
+    }
+
+    /**
+     * UI thread: sets the painting to view transform
+     * @param toView null for identity
+     */
+    public void setMatrix(Matrix toView) {
+        if (toView == null) {
+            _toView.reset();
+        } else {
+            _toView.set(toView);
+        }
+    }
+
+    /**
+     * Any thread: marks bounds as changed. The view is invalidated on the next frame.
+     * @param bounds in painting coordinates
+     */
+    public void add(Rect bounds) {
+        synchronized (_lock) {
+            _dirty.union(bounds.left, bounds.top, bounds.right, bounds.bottom);
+            if (_scheduled) {
+                return;
+            }
+            _scheduled = true;
+        }
+        _view.postOnAnimation(_flush);
+    }
+
+    private void flush() {
+        synchronized (_lock) {
+            _mapped.set(_dirty);
+            _dirty.setEmpty();
+            _scheduled = false;
+        }
+        if (_mapped.isEmpty()) {
+            return;
+        }
+        _toView.mapRect(_mapped);
+        _mapped.roundOut(_invalid);
+        _invalid.inset(-OUTSET, -OUTSET);
+        _view.invalidate(_invalid);
+        if (ImpressionistView.DEBUG) {
+            Log.v(TAG, "flush: " + _invalid);
+        }
+    }
+}
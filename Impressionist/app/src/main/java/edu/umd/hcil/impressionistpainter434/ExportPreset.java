@@ -0,0 +1,49 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.zip.Deflater;
+
+/**
+ * How a painting is saved: file format, compression quality, and what shows through unpainted
+ * parts (JPEG has no alpha, so those are white instead of black).
+ */
+public enum ExportPreset {
+    Png("PNG (lossless)", Bitmap.CompressFormat.PNG, 100, Deflater.DEFAULT_COMPRESSION, "png", Color.TRANSPARENT),
+    JpegHigh("JPEG (high quality)", Bitmap.CompressFormat.JPEG, 95, Deflater.DEFAULT_COMPRESSION, "jpg", Color.WHITE),
+    JpegCompact("JPEG (small file)", Bitmap.CompressFormat.JPEG, 80, Deflater.DEFAULT_COMPRESSION, "jpg", Color.WHITE);
+
+    public final String label;
+    public final Bitmap.CompressFormat format;
+    public final int quality;
+    /**
+     * The {@link Deflater} level PNGs are compressed with by encoders that take one, see
+     * {@link ImageExporter#exportPng}; Bitmap.compress ignores the quality of PNGs
+     */
+    public final int deflateLevel;
+    public final String extension;
+    public final int background;
+
+    ExportPreset(String label, Bitmap.CompressFormat format, int quality, int deflateLevel, String extension,
+                 int background) {
+        this.label = label;
+        this.format = format;
+        this.quality = quality;
+        this.deflateLevel = deflateLevel;
+        this.extension = extension;
+        this.background = background;
+    }
+
+    /**
+     * The labels of all presets, in declaration order, e.g., for a chooser dialog
+     */
+    public static String[] labels() {
+        ExportPreset[] presets = values();
+        String[] labels = new String[presets.length];
+        for (int i = 0; i < presets.length; i++) {
+            labels[i] = presets[i].label;
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,187 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+import edu.umd.hcil.impressionistpainter434.core.ParallelPngEncoder;
+import edu.umd.hcil.impressionistpainter434.core.PixelRows;
+
+/**
+ * Saves a bitmap to a file. The encoder writes straight into a buffered stream over the file's
+ * channel, so the compressed image is never held in memory as a whole. The file is written under
+ * a temporary name and renamed when complete, so a failed export never leaves a partial image.
+ *
+ * PNGs can also be encoded from a {@link PixelRows} in parallel strips, see
+ * {@link #exportPng(PixelRows, ExportPreset, File)}, which never holds a full copy of the image.
+ *
+ * Each export reports its size, speed and the peak memory in use while it ran.
+ */
+public class ImageExporter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * What an export wrote and what it cost
+     */
+    public static class Result {
+        public final File file;
+        public final long bytes;
+        public final long elapsedMs;
+        /**
+         * The most Java plus native heap in use at any write during the export
+         */
+        public final long peakMemoryBytes;
+
+        Result(File file, long bytes, long elapsedMs, long peakMemoryBytes) {
+            this.file = file;
+            this.bytes = bytes;
+            this.elapsedMs = elapsedMs;
+            this.peakMemoryBytes = peakMemoryBytes;
+        }
+
+        public long getBytesPerSecond() {
+            return bytes * 1000 / Math.max(1, elapsedMs);
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + ": " + bytes + " bytes in " + elapsedMs + "ms ("
+                    + getBytesPerSecond() / 1024 + " KB/s), peak memory " + peakMemoryBytes / (1024 * 1024) + " MB";
+        }
+    }
+
+    /**
+     * Writes an image to a stream
+     */
+    private interface Encoder {
+        void encode(OutputStream out) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Whether {@link #exportPng(PixelRows, ExportPreset, File)} works on this device
+     */
+    public static boolean canEncodeInParallel() {
+        // Deflater sync flushes, which strips end on
+        return Build.VERSION.SDK_INT >= 19;
+    }
+
+    /**
+     * Compresses bitmap into file, replacing it if it exists
+     * @param bitmap
+     * @param preset format and quality
+     * @param file
+     * @throws IOException if the image could not be encoded or written; file is left untouched
+     */
+    public Result export(final Bitmap bitmap, final ExportPreset preset, File file) throws IOException {
+        return write(file, new Encoder() {
+            @Override
+            public void encode(OutputStream out) throws IOException {
+                if (!bitmap.compress(preset.format, preset.quality, out)) {
+                    throw new IOException("Could not encode image");
+                }
+            }
+        });
+    }
+
+    /**
+     * Encodes image into file as a PNG, in strips on the auto-paint thread pool, replacing file
+     * if it exists. Only a few strips of the image are in memory at a time.
+     * Needs {@link #canEncodeInParallel()}.
+     * @param image
+     * @param preset a PNG preset, for its deflate level
+     * @param file
+     * @throws IOException if the image could not be encoded or written; file is left untouched
+     */
+    public Result exportPng(final PixelRows image, final ExportPreset preset, File file) throws IOException {
+        if (preset.format != Bitmap.CompressFormat.PNG) {
+            throw new IllegalArgumentException("Not a PNG preset: " + preset);
+        }
+        return write(file, new Encoder() {
+            @Override
+            public void encode(OutputStream out) throws IOException, InterruptedException {
+                ParallelPngEncoder encoder = new ParallelPngEncoder(AutoPainter.getExecutor(), AutoPainter.THREAD_COUNT);
+                encoder.setLevel(preset.deflateLevel);
+                encoder.encode(image, out);
+            }
+        });
+    }
+
+    private Result write(File file, Encoder encoder) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileStream = new FileOutputStream(temp);
+        MeteredOutputStream out = new MeteredOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(fileStream.getChannel()), BUFFER_SIZE));
+        boolean written = false;
+        try {
+            encoder.encode(out);
+            out.flush();
+            written = true;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Export of " + file.getName() + " interrupted");
+        } finally {
+            out.close();
+            fileStream.close();
+            if (!written) {
+                temp.delete();
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+        return new Result(file, out.getCount(), SystemClock.elapsedRealtime() - start, out.getPeakMemory());
+    }
+
+    /**
+     * Counts the bytes going through, and samples memory use on every write. Writes arrive in
+     * encoder-sized chunks, so sampling costs next to nothing.
+     */
+    private static class MeteredOutputStream extends FilterOutputStream {
+        private final Runtime _runtime = Runtime.getRuntime();
+        private long _count = 0;
+        private long _peakMemory = 0;
+
+        MeteredOutputStream(OutputStream out) {
+            super(out);
+            sampleMemory();
+        }
+
+        long getCount() {
+            return _count;
+        }
+
+        long getPeakMemory() {
+            return _peakMemory;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _count++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            // FilterOutputStream would write byte by byte
+            out.write(buffer, offset, length);
+            _count += length;
+            sampleMemory();
+        }
+
+        private void sampleMemory() {
+            long used = _runtime.totalMemory() - _runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+            _peakMemory = Math.max(_peakMemory, used);
+        }
+    }
+}
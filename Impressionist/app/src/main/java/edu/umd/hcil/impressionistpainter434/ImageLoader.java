@@ -0,0 +1,223 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes images off the UI thread, downsampled to the size they are shown at and bounded by
+ * a memory budget, so that full-resolution camera photos don't run us out of memory.
+ *
+ * The image bounds are read first, then inSampleSize and inPreferredConfig are picked so that the
+ * decoded bitmap is no bigger than the target size needs and fits the budget. Opaque images
+ * (JPEG) fall back to RGB_565 before their resolution is halved again.
+ *
+ * An image can also be decoded with given options, e.g., the ones it was decoded with before,
+ * to get exactly the same pixels again.
+ */
+public class ImageLoader {
+    private static final String TAG = "ImageLoader";
+
+    public interface OnImageLoadedListener {
+        /**
+         * Called on the UI thread
+         * @param bitmap the decoded image, or null if it could not be decoded
+         * @param sampleSize the inSampleSize it was decoded with
+         */
+        void onImageLoaded(Uri uri, Bitmap bitmap, int sampleSize);
+    }
+
+    private final ContentResolver _contentResolver;
+    private long _memoryBudget = Runtime.getRuntime().maxMemory() / 8;
+    private LoadTask _task = null;
+
+    public ImageLoader(ContentResolver contentResolver) {
+        _contentResolver = contentResolver;
+    }
+
+    /**
+     * @param bytes the most memory a decoded image may take
+     */
+    public void setMemoryBudget(long bytes) {
+        _memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return _memoryBudget;
+    }
+
+    /**
+     * Starts decoding uri for a reqWidth x reqHeight view, cancelling the load in progress, if any
+     * @param uri
+     * @param reqWidth
+     * @param reqHeight
+     * @param listener
+     */
+    public void load(Uri uri, int reqWidth, int reqHeight, OnImageLoadedListener listener) {
+        cancel();
+        _task = new LoadTask(uri, reqWidth, reqHeight, _memoryBudget, 0, null, listener);
+        _task.execute();
+    }
+
+    /**
+     * Starts decoding uri with exactly the given options, whatever the memory budget, cancelling
+     * the load in progress, if any
+     * @param uri
+     * @param sampleSize inSampleSize
+     * @param config inPreferredConfig
+     * @param listener
+     */
+    public void load(Uri uri, int sampleSize, Bitmap.Config config, OnImageLoadedListener listener) {
+        cancel();
+        _task = new LoadTask(uri, 0, 0, _memoryBudget, Math.max(1, sampleSize), config, listener);
+        _task.execute();
+    }
+
+    public void cancel() {
+        if (_task != null) {
+            _task.cancel(false);
+            _task = null;
+        }
+    }
+
+    /**
+     * Returns the largest power of two to subsample a width x height image by, such that the result
+     * still covers reqWidth x reqHeight (if it did to begin with) and takes at most maxBytes
+     * @param width
+     * @param height
+     * @param reqWidth the size the image is shown at, 0 if unknown
+     * @param reqHeight
+     * @param bytesPerPixel
+     * @param maxBytes
+     * @return
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight,
+                                            int bytesPerPixel, long maxBytes) {
+        int sampleSize = 1;
+        if (reqWidth > 0 && reqHeight > 0) {
+            while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+                sampleSize *= 2;
+            }
+        }
+        while (sampleSize < Math.max(width, height)
+                && (long) (width / sampleSize) * (height / sampleSize) * bytesPerPixel > maxBytes) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Fills in inSampleSize and inPreferredConfig of options for an image of the given bounds
+     * @param bounds output of an inJustDecodeBounds decode
+     * @param reqWidth
+     * @param reqHeight
+     * @param maxBytes
+     * @param options
+     */
+    static void chooseDecodeOptions(BitmapFactory.Options bounds, int reqWidth, int reqHeight, long maxBytes,
+                                    BitmapFactory.Options options) {
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = calculateInSampleSize(width, height, reqWidth, reqHeight, 4, maxBytes);
+
+        boolean opaque = "image/jpeg".equals(bounds.outMimeType);
+        if (opaque) {
+            int sampleSize565 = calculateInSampleSize(width, height, reqWidth, reqHeight, 2, maxBytes);
+            if (sampleSize565 < options.inSampleSize) {
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                options.inSampleSize = sampleSize565;
+            }
+        }
+    }
+
+    /**
+     * @param options inSampleSize and inPreferredConfig are chosen if inSampleSize is 0, else used
+     *                as they are
+     */
+    private Bitmap decode(Uri uri, int reqWidth, int reqHeight, long maxBytes, BitmapFactory.Options options)
+            throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        decodeStream(uri, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+
+        if (options.inSampleSize == 0) {
+            chooseDecodeOptions(bounds, reqWidth, reqHeight, maxBytes, options);
+        }
+        // Mutable so that nobody has to make a copy to read or edit it
+        options.inMutable = true;
+        Bitmap bitmap = decodeStream(uri, options);
+        if (ImpressionistView.DEBUG && bitmap != null) {
+            Log.d(TAG, "decode: " + bounds.outWidth + "x" + bounds.outHeight + " -> " + bitmap.getWidth() + "x"
+                    + bitmap.getHeight() + " " + options.inPreferredConfig + ", inSampleSize = " + options.inSampleSize);
+        }
+        return bitmap;
+    }
+
+    private Bitmap decodeStream(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = _contentResolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    private class LoadTask extends AsyncTask<Void, Void, Bitmap> {
+        private final Uri _uri;
+        private final int _reqWidth;
+        private final int _reqHeight;
+        private final long _maxBytes;
+        private final BitmapFactory.Options _options = new BitmapFactory.Options();
+        private final OnImageLoadedListener _listener;
+
+        /**
+         * @param sampleSize 0 to choose the options from the size and budget
+         * @param config used along with sampleSize
+         */
+        LoadTask(Uri uri, int reqWidth, int reqHeight, long maxBytes, int sampleSize, Bitmap.Config config,
+                 OnImageLoadedListener listener) {
+            _uri = uri;
+            _reqWidth = reqWidth;
+            _reqHeight = reqHeight;
+            _maxBytes = maxBytes;
+            _options.inSampleSize = sampleSize;
+            if (config != null) {
+                _options.inPreferredConfig = config;
+            }
+            _listener = listener;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            try {
+                return decode(_uri, _reqWidth, _reqHeight, _maxBytes, _options);
+            } catch (IOException e) {
+                Log.e(TAG, "doInBackground: cannot decode " + _uri, e);
+            } catch (OutOfMemoryError e) {
+                Log.e(TAG, "doInBackground: out of memory decoding " + _uri, e);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            if (_task == this) {
+                _task = null;
+            }
+            _listener.onImageLoaded(_uri, bitmap, Math.max(1, _options.inSampleSize));
+        }
+    }
+}
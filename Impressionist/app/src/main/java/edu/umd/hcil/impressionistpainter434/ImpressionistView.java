@@ -6,9 +6,9 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -16,30 +16,79 @@ import android.view.View;
 import android.widget.ImageView;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+
+import edu.umd.hcil.impressionistpainter434.core.BrushDynamics;
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+import edu.umd.hcil.impressionistpainter434.core.DabBuffer;
+import edu.umd.hcil.impressionistpainter434.core.DabQueue;
+import edu.umd.hcil.impressionistpainter434.core.PixelRows;
+import edu.umd.hcil.impressionistpainter434.core.SessionFile;
+import edu.umd.hcil.impressionistpainter434.core.SourceSampler;
+import edu.umd.hcil.impressionistpainter434.core.StrokeBuilder;
+
+import it.sephiroth.android.library.imagezoom.ImageViewTouch;
+import it.sephiroth.android.library.imagezoom.MatrixSnapshot;
 
 
 public class ImpressionistView extends View {
     private final String TAG = getClass().getSimpleName();
 
     private ImageView _imageView;
-    private Bitmap _originalImage;
+    private Uri _imageUri = null;
+    // How the image was decoded, saved with the session so that it can be decoded the same again
+    private int _imageSampleSize = 0;
+    private Bitmap.Config _imageConfig = null;
+    // Replaced, never modified, when the image changes: auto-paint reads it on other threads
+    private SourceSampler _sampler = new SourceSampler();
+    private SourcePyramid _pyramid = null;
     private Rect _originalImageRect;
 
-    private Canvas _offScreenCanvas = null;
-    private Bitmap _offScreenBitmap = null;
-    private Paint _paint = new Paint();
+    // The off-screen painting is owned by the render thread, this view only enqueues dabs.
+    // While detached, this is the thread that quit, which the next one takes over from.
+    private final DabQueue _dabQueue = new DabQueue(16384);
+    private PaintingRenderThread _renderThread = null;
+    private final DirtyRegion _dirtyRegion = new DirtyRegion(this);
+    private int _droppedDabs = 0;
+
+    // A clear that didn't fit in the queue yet, retried until it does; -1 if none
+    private static final long CLEAR_RETRY_DELAY_MS = 16;
+    private int _pendingClearWidth = -1;
+    private int _pendingClearHeight = -1;
+    private final Runnable _retryClear = new Runnable() {
+        @Override
+        public void run() {
+            submitPendingClear();
+        }
+    };
+
+    static final boolean DEBUG = false;
 
     private int _alpha = 50;
-    private Point _lastPoint = new Point();
-    private long _lastPointTime = -1;
     private Paint _paintBorder = new Paint();
     private BrushType _brushType = BrushType.Square;
     private int _minBrushRadius = 5;
+    private BrushDynamics _dynamics = new BrushDynamics();
+    private StrokeBuilder _stroke = new StrokeBuilder(_dynamics, _sampler);
     private Matrix _dstMatrix = null;
-    private Matrix _srcMatrix = null;
-    private Point _currPoint = new Point();
+    private final Matrix _srcMatrix = new Matrix();
+
+    // Scratch objects for the touch -> paint path, which runs for every move event and must not allocate
+    private final DabBuffer _dabs = new DabBuffer();
+    private final float[] _matrixValues = new float[9];
 
     private boolean _ready = false;
+    private OnAutoPaintListener _autoPaintListener = null;
+    // Auto-paints enqueued or running, cancelled when the image changes
+    private final ArrayList<AutoPainter> _autoPainters = new ArrayList<>();
+
+    /**
+     * Notified on the UI thread while {@link #paintTheCanvas()} runs
+     */
+    public interface OnAutoPaintListener {
+        void onAutoPaintProgress(int tilesDone, int tileCount);
+        void onAutoPaintFinished(long elapsedMs);
+    }
 
     public ImpressionistView(Context context) {
         super(context);
@@ -66,20 +115,33 @@ public class ImpressionistView extends View {
      * @return
      */
     private static Rect getBitmapPositionInsideImageView(ImageView imageView) {
-        Rect rect = new Rect();
-
         if (imageView == null || imageView.getDrawable() == null) {
-            return rect;
+            return new Rect();
         }
 
-        // Get image dimensions
         // Get image matrix values and place them in an array
         float[] f = new float[9];
         imageView.getImageMatrix().getValues(f);
 
-        // Extract the scale values using the constants (if aspect ratio maintained, scaleX == scaleY)
-        final float scaleX = f[Matrix.MSCALE_X];
-        final float scaleY = f[Matrix.MSCALE_Y];
+        // Extract the scale value using the constants (aspect ratio is maintained, scaleX == scaleY)
+        return getBitmapPositionInsideImageView(imageView, f[Matrix.MSCALE_X], null);
+    }
+
+    /**
+     * @param imageView
+     * @param scale the image matrix scale
+     * @param rect reused if not null
+     * @return
+     */
+    private static Rect getBitmapPositionInsideImageView(ImageView imageView, float scale, Rect rect) {
+        if (rect == null) {
+            rect = new Rect();
+        }
+
+        if (imageView == null || imageView.getDrawable() == null) {
+            rect.setEmpty();
+            return rect;
+        }
 
         // Get the drawable (could also get the bitmap behind the drawable and getWidth/getHeight)
         final Drawable d = imageView.getDrawable();
@@ -87,8 +149,8 @@ public class ImpressionistView extends View {
         final int origH = d.getIntrinsicHeight();
 
         // Calculate the actual dimensions
-        final int widthActual = Math.round(origW * scaleX);
-        final int heightActual = Math.round(origH * scaleY);
+        final int widthActual = Math.round(origW * scale);
+        final int heightActual = Math.round(origH * scale);
 
         // Get image position
         // We assume that the image is centered into ImageView
@@ -111,56 +173,149 @@ public class ImpressionistView extends View {
      */
     private void init(AttributeSet attrs, int defStyle){
 
-        // Set setDrawingCacheEnabled to true to support generating a bitmap copy of the view (for saving)
-        // See: http://developer.android.com/reference/android/view/View.html#setDrawingCacheEnabled(boolean)
-        //      http://developer.android.com/reference/android/view/View.html#getDrawingCache()
-        this.setDrawingCacheEnabled(true);
-
-        _paint.setColor(Color.WHITE);
-        _paint.setAlpha(_alpha);
-        _paint.setAntiAlias(true);
-        _paint.setStyle(Paint.Style.FILL);
-        _paint.setStrokeWidth(_minBrushRadius);
-
         _paintBorder.setColor(Color.BLACK);
         _paintBorder.setStrokeWidth(3);
         _paintBorder.setStyle(Paint.Style.STROKE);
         _paintBorder.setAlpha(50);
 
+        _dynamics.setMinRadius(_minBrushRadius);
+        _dynamics.setBaseAlpha(_alpha);
+
         _ready = false;
 
         //_paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.MULTIPLY));
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        // Takes over the painting from the thread that quit on detach, if any, once it is done
+        _renderThread = new PaintingRenderThread(_dabQueue, _dirtyRegion, _renderThread);
+        _renderThread.start();
+        submitPendingClear();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        _renderThread.quit();
+        removeCallbacks(_retryClear);
+        releasePyramid();
+        super.onDetachedFromWindow();
+    }
+
+    private void releasePyramid() {
+        if (_pyramid != null) {
+            _pyramid.release();
+            _pyramid = null;
+            _stroke.setSource(_sampler);
+        }
+    }
+
     @Override
     protected void onSizeChanged (int w, int h, int oldw, int oldh){
 
-        Bitmap bitmap = getDrawingCache();
-        Log.v("onSizeChanged", MessageFormat.format("bitmap={0}, w={1}, h={2}, oldw={3}, oldh={4}", bitmap, w, h, oldw, oldh));
-        if(bitmap != null) {
-            _offScreenBitmap = getDrawingCache().copy(Bitmap.Config.ARGB_8888, true);
-            _offScreenCanvas = new Canvas(_offScreenBitmap);
+        Log.v("onSizeChanged", MessageFormat.format("w={0}, h={1}, oldw={2}, oldh={3}", w, h, oldw, oldh));
+        if (!_ready) {
+            submitClear(w, h);
         }
     }
 
+    /**
+     * Returns a copy of the painting
+     * @return the copy, or null if there is nothing painted yet
+     */
     public Bitmap getBitmap() {
-        return Bitmap.createBitmap(_offScreenBitmap, 0, 0, _originalImageRect.width() + 40, _originalImageRect.height() + 40);
+        if (_renderThread == null) {
+            return null;
+        }
+        return _renderThread.getSurface().copyFront();
+    }
+
+    /**
+     * Returns a copy of the painting over the image only, without the margin that brushes spill
+     * into, composited in one pass from the painted tiles
+     * @param background what shows through where nothing is painted
+     * @return the copy, or null if there is nothing painted yet
+     */
+    public Bitmap getImageBitmap(int background) {
+        Rect crop = getImageBounds();
+        return crop == null ? null : _renderThread.getSurface().copyFront(crop, background);
+    }
+
+    /**
+     * Returns the same part of the painting as {@link #getImageBitmap}, but read from the live
+     * painting a band of rows at a time instead of copied. Strokes made while it is being read
+     * may show up in part.
+     * @return the rows, or null if there is nothing painted yet
+     */
+    public PixelRows getImageRows() {
+        Rect crop = getImageBounds();
+        return crop == null ? null : new SurfaceRows(_renderThread.getSurface(), crop);
+    }
+
+    /**
+     * The image's area of the painting, or null if there is no painting
+     */
+    private Rect getImageBounds() {
+        if (_renderThread == null) {
+            return null;
+        }
+        TiledSurface surface = _renderThread.getSurface();
+        Rect bounds = new Rect(0, 0, surface.getWidth(), surface.getHeight());
+        if (_ready) {
+            Rect image = new Rect(0, 0, _sampler.getWidth(), _sampler.getHeight());
+            image.offset(StrokeBuilder.SOURCE_OFFSET, StrokeBuilder.SOURCE_OFFSET);
+            if (!bounds.intersect(image)) {
+                return null;
+            }
+        }
+        return bounds.isEmpty() ? null : bounds;
     }
 
     /**
-     * Sets the ImageView, which hosts the image that we will paint in this view
+     * Sets the image to paint, and the ImageView it is shown in. The ImageView must display the
+     * same bitmap; it is shared, not copied.
      * @param imageView
+     * @param image
      */
-    public void setImageView(ImageView imageView){
-        clearPainting();
+    public void setImage(ImageView imageView, Bitmap image){
+        setImage(imageView, image, null, 0);
+    }
+
+    /**
+     * Sets the image to paint, and the ImageView it is shown in. The ImageView must display the
+     * same bitmap; it is shared, not copied.
+     * @param imageView
+     * @param image downsampled copy of the image at uri
+     * @param uri the full resolution image, sampled from when zoomed in. May be null.
+     * @param sampleSize the inSampleSize image was decoded from uri with, 0 if unknown
+     */
+    public void setImage(ImageView imageView, Bitmap image, Uri uri, int sampleSize){
         _imageView = imageView;
-        _originalImage = imageView.getDrawingCache();
-        if (_originalImage != null) {
-            _ready = true;
-            _originalImageRect = getBitmapPositionInsideImageView(_imageView);
-            _originalImage = Bitmap.createBitmap(_originalImage, 0, 0,
-                    _originalImageRect.width(), _originalImageRect.height());
+        _imageUri = uri;
+        _imageSampleSize = sampleSize;
+        _imageConfig = image == null ? null : image.getConfig();
+        cancelAutoPaint();
+        releasePyramid();
+        _sampler = new SourceSampler();
+        _stroke.setSource(_sampler);
+        _ready = image != null;
+        if (_ready) {
+            // Copy the source pixels once so that painting never has to call Bitmap.getPixel.
+            // Painting coordinates are image coordinates offset by SOURCE_OFFSET
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int[] pixels = _sampler.obtainBuffer(width, height);
+            image.getPixels(pixels, 0, width, 0, 0, width, height);
+
+            if (uri != null) {
+                _pyramid = new SourcePyramid(_sampler, getContext().getContentResolver(), uri,
+                        SourcePyramid.DEFAULT_MEMORY_BUDGET);
+                _stroke.setSource(_pyramid);
+            }
         }
+        _originalImageRect = getBitmapPositionInsideImageView(_imageView);
+        clearPainting();
     }
 
     /**
@@ -171,41 +326,139 @@ public class ImpressionistView extends View {
         _brushType = brushType;
     }
 
+    public BrushType getBrushType() {
+        return _brushType;
+    }
+
+    /**
+     * Sets the alpha of the slowest, most opaque dabs, see {@link BrushDynamics#setBaseAlpha(int)}
+     * @param alpha 0 to 255
+     */
+    public void setBrushAlpha(int alpha) {
+        _alpha = alpha;
+        _dynamics.setBaseAlpha(alpha);
+    }
+
+    /**
+     * Saves the painting, brush and view into session in the background. Only tiles that changed
+     * since the last save are written. Does nothing until an image from a Uri is set.
+     * @param session
+     * @param displayMatrix the image view's zoom and pan, restored along with the painting
+     */
+    public void saveSession(PaintingSession session, Matrix displayMatrix) {
+        if (!_ready || _imageUri == null || _renderThread == null) {
+            return;
+        }
+        SessionFile.State state = new SessionFile.State();
+        state.imageUri = _imageUri.toString();
+        state.sourceWidth = _sampler.getWidth();
+        state.sourceHeight = _sampler.getHeight();
+        state.sampleSize = _imageSampleSize;
+        state.decodeConfig = _imageConfig == null ? "" : _imageConfig.name();
+        state.width = _sampler.getWidth() + 2 * StrokeBuilder.SOURCE_OFFSET;
+        state.height = _sampler.getHeight() + 2 * StrokeBuilder.SOURCE_OFFSET;
+        state.tileSize = TiledSurface.TILE_SIZE;
+        state.brushType = _brushType;
+        state.alpha = _alpha;
+        displayMatrix.getValues(state.matrix);
+        session.save(_renderThread.getSurface(), state);
+    }
+
+    /**
+     * Restores the painting saved in session, on the render thread. Call after setting the
+     * session's image; the brush and view are up to the caller.
+     * @param session
+     */
+    public void restoreSession(final PaintingSession session) {
+        if (_renderThread == null) {
+            return;
+        }
+        _renderThread.enqueueTask(new PaintingRenderThread.Task() {
+            @Override
+            public void run(PaintingRenderThread renderThread) {
+                renderThread.restoreSession(session);
+            }
+        });
+    }
+
+    /**
+     * Sets the image to view matrix of the ImageView
+     * @param matrix
+     */
     public void setMatrix(Matrix matrix) {
         if (matrix != null) {
-            _dstMatrix = matrix;
-            _dstMatrix.preTranslate(-20, -20);
-            _srcMatrix = new Matrix();
-            if (!_dstMatrix.invert(_srcMatrix)) {
-                Log.w(TAG, "setMatrix: Matrix is not invertible");
-            }
-            _originalImageRect = getBitmapPositionInsideImageView(_imageView);
-            invalidate();
+            setMatrix(new MatrixSnapshot(matrix, 0));
         }
     }
 
+    /**
+     * Sets the image to view matrix of the ImageView, along with its inverse and scale. Called
+     * at most once per frame while zooming or panning, see
+     * {@link ImageViewTouch#setMatrixSnapshotListener}.
+     * @param snapshot
+     */
+    public void setMatrix(MatrixSnapshot snapshot) {
+        if (_dstMatrix == null) {
+            _dstMatrix = new Matrix();
+        }
+        if (!snapshot.isInvertible()) {
+            Log.w(TAG, "setMatrix: Matrix is not invertible");
+        }
+        // Painting coordinates are image coordinates offset by SOURCE_OFFSET
+        snapshot.getMatrix(_dstMatrix);
+        _dstMatrix.preTranslate(-StrokeBuilder.SOURCE_OFFSET, -StrokeBuilder.SOURCE_OFFSET);
+        snapshot.getInverse(_srcMatrix);
+        _srcMatrix.postTranslate(StrokeBuilder.SOURCE_OFFSET, StrokeBuilder.SOURCE_OFFSET);
+        _dirtyRegion.setMatrix(_dstMatrix);
+
+        // Cached here so that painting doesn't have to read the matrix for every dab
+        float scale = snapshot.getScale();
+        _dynamics.setScale(scale / 2);
+        if (_pyramid != null) {
+            _pyramid.setScale(scale);
+        }
+        _srcMatrix.getValues(_matrixValues);
+        _stroke.setInverseMatrix(_matrixValues);
+        _originalImageRect = getBitmapPositionInsideImageView(_imageView, scale, _originalImageRect);
+        invalidate();
+    }
+
     /**
      * Clears the painting
      */
     public void clearPainting(){
-        if (_originalImageRect != null)
-        _offScreenBitmap = Bitmap.createBitmap(_originalImageRect.width(), _originalImageRect
-        .height(), Bitmap.Config.ARGB_8888);
-        else _offScreenBitmap = getDrawingCache().copy(Bitmap.Config.ARGB_8888, true);
-        _offScreenCanvas = new Canvas(_offScreenBitmap);
-        invalidate();
+        if (_ready) {
+            int margin = 2 * StrokeBuilder.SOURCE_OFFSET;
+            submitClear(_sampler.getWidth() + margin, _sampler.getHeight() + margin);
+        } else {
+            submitClear(getWidth(), getHeight());
+        }
+    }
+
+    /**
+     * Undoes the last stroke (or auto-paint). Does nothing if the history doesn't go back that far.
+     */
+    public void undo() {
+        submitCommand(DabQueue.TYPE_UNDO);
+    }
+
+    /**
+     * Redoes the last undone stroke
+     */
+    public void redo() {
+        submitCommand(DabQueue.TYPE_REDO);
     }
 
     @Override
     public void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        if(_offScreenBitmap != null) {
-//            canvas.drawBitmap(_offScreenBitmap, 0, 0, _paint);
+        if (_renderThread != null) {
+            // Only the painted tiles that are visible get drawn
             if (_dstMatrix == null) {
-                canvas.drawBitmap(_offScreenBitmap, 0, 0, null);
+                _renderThread.getSurface().draw(canvas, null, null);
             } else {
-                canvas.drawBitmap(_offScreenBitmap, _dstMatrix, null);
+                _renderThread.getSurface().draw(canvas, _dstMatrix, _srcMatrix);
             }
         }
 
@@ -217,22 +470,30 @@ public class ImpressionistView extends View {
     public boolean onTouchEvent(MotionEvent motionEvent){
 
         if (_ready) {
-            _currPoint.x = (int) motionEvent.getX();
-            _currPoint.y = (int) motionEvent.getY();
-
+            float x = motionEvent.getX();
+            float y = motionEvent.getY();
             long time = motionEvent.getEventTime();
 
             switch (motionEvent.getActionMasked()) {
                 case MotionEvent.ACTION_DOWN:
-                    updateLastTouchEvent(motionEvent);
+                    _stroke.begin(x, y, time);
                     break;
                 case MotionEvent.ACTION_MOVE:
                     if (motionEvent.getPointerCount() < 2) {
-                        paintCanvas(mapXY(_currPoint, _srcMatrix), getSpeed(_currPoint, _lastPoint, time, _lastPointTime));
-                        updateLastTouchEvent(motionEvent);
+                        // Fast strokes deliver several samples per event, consume all of them
+                        _dabs.clear();
+                        final int historySize = motionEvent.getHistorySize();
+                        for (int h = 0; h < historySize; h++) {
+                            _stroke.addSample(motionEvent.getHistoricalX(h), motionEvent.getHistoricalY(h),
+                                    motionEvent.getHistoricalEventTime(h), _dabs);
+                        }
+                        _stroke.addSample(x, y, time, _dabs);
+                        submitDabs(_dabs);
                     }
                     break;
                 case MotionEvent.ACTION_UP:
+                case MotionEvent.ACTION_CANCEL:
+                    submitCommand(DabQueue.TYPE_END_STROKE);
                     break;
                 case MotionEvent.ACTION_POINTER_DOWN:
                     break;
@@ -242,81 +503,156 @@ public class ImpressionistView extends View {
         return true;
     }
 
+    /**
+     * Paints the whole canvas automatically, with a random seed
+     */
     public void paintTheCanvas() {
-        for (int x = 0; x < getWidth(); x += 10) {
-            for (int y = 0; y < getHeight(); y += 10) {
-                paintCanvas(mapXY(new Point(x + rand(10), y + rand(10)),_srcMatrix), rand(10));
-            }
+        paintTheCanvas(System.nanoTime());
+    }
+
+    /**
+     * Paints the whole canvas automatically. Tiles are rendered in parallel and show up as
+     * they are done; the same seed always gives the same painting.
+     * @param seed
+     */
+    public void paintTheCanvas(long seed) {
+        if (_renderThread == null) {
+            return;
         }
-        postInvalidate();
-    }
-
-    private Point mapXY(Point p, Matrix m) {
-        float[] values = new float[2];
-        values[0] = p.x;
-        values[1] = p.y;
-        m.mapPoints(values);
-        return new Point((int) values[0], (int) values[1]);
-    }
-
-    private void updateLastTouchEvent(MotionEvent motionEvent) {
-        _lastPointTime = motionEvent.getEventTime();
-        _lastPoint = new Point((int) motionEvent.getX(), (int) motionEvent.getY());
-    }
-
-    private void paintCanvas(Point p, int speed) {
-        int outX = p.x;
-        int outY = p.y;
-        int inX = p.x-20;
-        int inY = p.y-20;
-        int radius = _minBrushRadius + speed;
-        if (inX > 0 && inY > 0 && inX < _originalImage.getWidth() && inY < _originalImage.getHeight()) {
-            // Extract the scale values using the constants (if aspect ratio maintained, scaleX == scaleY)
-            float[] f = new float[9];
-            _dstMatrix.getValues(f);
-            final float scale = f[Matrix.MSCALE_X] / 2;
-            radius /= scale;
-            radius = Math.max(_minBrushRadius, radius);
-            Log.i(TAG, "paintCanvas: radius = " + radius + ", speed = " + speed);
-            _paint.setColor(_originalImage.getPixel(inX, inY));
-            _paint.setAlpha(_alpha + (100 - (speed*2)));
-            switch (_brushType) {
-                case Circle:
-                    _offScreenCanvas.drawCircle(outX, outY, radius / 2, _paint);
-                    break;
-                case Square:
-                    _offScreenCanvas.drawRect(makeRect(outX, outY, radius / 2), _paint);
-                    break;
-                case CircleSplatter:
-                    for (int i = 0; i < 5; i++) {
-                        _offScreenCanvas.drawCircle(outX + rand(radius),
-                                outY + rand(radius), radius / rand(1,radius), _paint);
+        // Snapshot everything the painter needs, the UI thread may keep changing it
+        _srcMatrix.getValues(_matrixValues);
+        final float gridStep = AutoPainter.GRID_STEP * Math.abs(_matrixValues[Matrix.MSCALE_X]);
+        final AutoPainter painter = new AutoPainter(_sampler, _brushType, _minBrushRadius, _alpha,
+                _dynamics.getScale(), gridStep, seed);
+        final OnAutoPaintListener listener = _autoPaintListener;
+        _autoPainters.add(painter);
+
+        _renderThread.enqueueTask(new PaintingRenderThread.Task() {
+            @Override
+            public void run(PaintingRenderThread renderThread) {
+                final long elapsed = renderThread.autoPaint(painter, listener == null ? null : new AutoPainter.TileListener() {
+                    @Override
+                    public void onTileComposited(Rect bounds, final int tilesDone, final int tileCount) {
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onAutoPaintProgress(tilesDone, tileCount);
+                            }
+                        });
                     }
+                });
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        _autoPainters.remove(painter);
+                        if (listener != null) {
+                            listener.onAutoPaintFinished(elapsed);
+                        }
+                    }
+                });
             }
-            invalidate(makeRect(inX, inY, radius));
+        });
+    }
+
+    /**
+     * Cancels the auto-paints enqueued or running. Tiles already composited stay.
+     */
+    private void cancelAutoPaint() {
+        for (int i = 0; i < _autoPainters.size(); i++) {
+            _autoPainters.get(i).cancel();
         }
+        _autoPainters.clear();
     }
 
-    private int rand(int max) {
-        return (int) (Math.random() * max);
+    public void setOnAutoPaintListener(OnAutoPaintListener listener) {
+        _autoPaintListener = listener;
     }
 
-    private int rand(int min, int max) {
-        return (int) (Math.random() * max) + 1;
+    /**
+     * Hands a batch of dabs to the render thread. Never blocks: if the render thread is that far
+     * behind, the dabs that don't fit are dropped.
+     * @param dabs
+     */
+    private void submitDabs(DabBuffer dabs) {
+        final int count = dabs.size();
+        if (count == 0) {
+            return;
+        }
+        if (!submitPendingClear()) {
+            // They would land on the painting that is about to be cleared
+            _droppedDabs += count;
+            return;
+        }
+        final int brush = _brushType.ordinal();
+        for (int d = 0; d < count; d++) {
+            if (!_dabQueue.offerDab(dabs.getX(d), dabs.getY(d), dabs.getRadius(d), dabs.getColor(d), dabs.getAngle(d),
+                    brush)) {
+                _droppedDabs += count - d;
+                if (DEBUG) {
+                    Log.w(TAG, "submitDabs: queue full, dropped = " + _droppedDabs);
+                }
+                break;
+            }
+        }
+        _dabQueue.commit();
+        if (_renderThread != null) {
+            _renderThread.wake();
+        }
     }
 
-    private int getSpeed(Point p1, Point p2, long t1, long t2) {
-        int c = (int) Math.sqrt(Math.pow(p1.x - p2.x, 2.0) + Math.pow(p1.y - p2.y, 2.0));
-        c = Math.abs(c) * 10;
-        if (t1 != t2) {
-            return c / (int) (t1 - t2);
-        } else {
-            return c;
+    /**
+     * Asks the render thread to start over with an empty width x height painting. If the queue
+     * is full, the clear is retried until it fits, and replaces any clear still waiting.
+     */
+    private void submitClear(int width, int height) {
+        removeCallbacks(_retryClear);
+        _pendingClearWidth = width;
+        _pendingClearHeight = height;
+        submitPendingClear();
+    }
+
+    /**
+     * Offers the clear waiting for room in the queue, if any
+     * @return true if no clear is left waiting
+     */
+    private boolean submitPendingClear() {
+        if (_pendingClearWidth < 0) {
+            return true;
         }
+        if (_dabQueue.offerClear(_pendingClearWidth, _pendingClearHeight)) {
+            _pendingClearWidth = -1;
+            _pendingClearHeight = -1;
+            _dabQueue.commit();
+            if (_renderThread != null) {
+                _renderThread.wake();
+            }
+            return true;
+        }
+        Log.w(TAG, "submitClear: queue full, retrying");
+        if (_renderThread != null) {
+            _renderThread.wake();
+        }
+        removeCallbacks(_retryClear);
+        postDelayed(_retryClear, CLEAR_RETRY_DELAY_MS);
+        return false;
     }
 
-    private Rect makeRect(int cx, int cy, int radius) {
-        return new Rect(cx - (radius), cy - (radius), cx + (radius), cy + (radius));
+    /**
+     * Hands a command (end of stroke, undo, redo) to the render thread, after the dabs before it
+     */
+    private void submitCommand(int type) {
+        if (!submitPendingClear()) {
+            Log.w(TAG, "submitCommand: waiting for a clear, dropped " + type);
+            return;
+        }
+        if (_dabQueue.offerCommand(type)) {
+            _dabQueue.commit();
+            if (_renderThread != null) {
+                _renderThread.wake();
+            }
+        } else {
+            Log.w(TAG, "submitCommand: queue full");
+        }
     }
 
 //    public class PaintStroke {
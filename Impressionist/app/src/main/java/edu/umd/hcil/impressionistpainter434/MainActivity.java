@@ -11,7 +11,6 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
-import android.provider.MediaStore;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
@@ -19,21 +18,27 @@ import android.util.Log;
 import android.view.MenuItem;
 import android.view.View;
 import android.webkit.URLUtil;
-import android.widget.ImageView;
 import android.widget.PopupMenu;
 import android.widget.PopupMenu.OnMenuItemClickListener;
+import android.widget.ProgressBar;
 import android.widget.Toast;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+import edu.umd.hcil.impressionistpainter434.core.PixelRows;
+import edu.umd.hcil.impressionistpainter434.core.SessionFile;
+
 import it.sephiroth.android.library.imagezoom.ImageViewTouch;
+import it.sephiroth.android.library.imagezoom.ImageViewTouchBase;
+import it.sephiroth.android.library.imagezoom.MatrixSnapshot;
 
 public class MainActivity extends AppCompatActivity implements OnMenuItemClickListener {
     private static final int REQUEST_WRITE_STORAGE = 112;
+    private static final String SESSION_FILE = "painting.session";
     private static int RESULT_LOAD_IMAGE = 1;
     // These images are downloaded and added to the Android Gallery when the 'Download Images' button is clicked.
     // This was super useful on the emulator where there are no images by default
@@ -59,6 +64,11 @@ public class MainActivity extends AppCompatActivity implements OnMenuItemClickLi
     };
     private String TAG = getClass().getSimpleName();
     private ImpressionistView _impressionistView;
+    private ProgressBar _autoPaintProgress;
+    private ImageLoader _imageLoader;
+    private PaintingSession _session;
+    // Set once an image is picked, so that a late session resume doesn't replace it
+    private boolean _imageChosen = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -66,14 +76,115 @@ public class MainActivity extends AppCompatActivity implements OnMenuItemClickLi
         setContentView(R.layout.activity_main);
 
         _impressionistView = (ImpressionistView)findViewById(R.id.viewImpressionist);
+        _autoPaintProgress = (ProgressBar)findViewById(R.id.progressAutoPaint);
+        _imageLoader = new ImageLoader(getContentResolver());
+        _impressionistView.setOnAutoPaintListener(new ImpressionistView.OnAutoPaintListener() {
+            @Override
+            public void onAutoPaintProgress(int tilesDone, int tileCount) {
+                _autoPaintProgress.setMax(tileCount);
+                _autoPaintProgress.setProgress(tilesDone);
+            }
+
+            @Override
+            public void onAutoPaintFinished(long elapsedMs) {
+                _autoPaintProgress.setVisibility(View.GONE);
+                Log.i(TAG, "onAutoPaintFinished: " + elapsedMs + "ms");
+                saveSession();
+            }
+        });
         final ImageViewTouch imageView = (ImageViewTouch) findViewById(R.id.viewImage);
 
-        imageView.setImageUpdateListener(new ImageViewTouch.OnImageUpdateListener() {
+        // Once per frame, however many times a pinch or fling step changes the matrix
+        imageView.setMatrixSnapshotListener(new ImageViewTouch.OnMatrixSnapshotListener() {
             @Override
-            public void onImageUpdated(Matrix matrix) {
-                _impressionistView.setMatrix(imageView.getImageMatrix());
+            public void onMatrixSnapshot(MatrixSnapshot snapshot) {
+                _impressionistView.setMatrix(snapshot);
             }
         });
+
+        _session = new PaintingSession(new File(getFilesDir(), SESSION_FILE));
+        _session.load(new PaintingSession.OnLoadedListener() {
+            @Override
+            public void onSessionLoaded(SessionFile.State state) {
+                if (state != null && !_imageChosen && !state.imageUri.isEmpty()) {
+                    resumeSession(state);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onPause() {
+        saveSession();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        _imageLoader.cancel();
+        _session.close();
+        super.onDestroy();
+    }
+
+    private void saveSession() {
+        ImageViewTouch imageView = (ImageViewTouch) findViewById(R.id.viewImage);
+        _impressionistView.saveSession(_session, imageView.getDisplayMatrix());
+    }
+
+    /**
+     * Reloads the image of a saved session with the options it was decoded with, then the
+     * painting, brush, zoom and pan. If the image doesn't come out the size it was painted at,
+     * the session is left alone rather than replaced by a blank painting.
+     */
+    private void resumeSession(final SessionFile.State state) {
+        final ImageViewTouch imageView = (ImageViewTouch) findViewById(R.id.viewImage);
+        ImageLoader.OnImageLoadedListener listener = new ImageLoader.OnImageLoadedListener() {
+            @Override
+            public void onImageLoaded(Uri uri, Bitmap bitmap, int sampleSize) {
+                if (bitmap == null || _imageChosen) {
+                    // E.g., the image is gone, or we lost permission to read it
+                    Log.w(TAG, "resumeSession: could not load " + uri);
+                    return;
+                }
+                if (bitmap.getWidth() != state.sourceWidth || bitmap.getHeight() != state.sourceHeight) {
+                    // E.g., the image was edited since. Its tiles wouldn't line up.
+                    Log.w(TAG, "resumeSession: " + uri + " is " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                            + ", painted at " + state.sourceWidth + "x" + state.sourceHeight);
+                    bitmap.recycle();
+                    return;
+                }
+                Matrix displayMatrix = new Matrix();
+                displayMatrix.setValues(state.matrix);
+                imageView.setImageBitmap(bitmap, displayMatrix, ImageViewTouchBase.ZOOM_INVALID,
+                        ImageViewTouchBase.ZOOM_INVALID);
+                _impressionistView.setImage(imageView, bitmap, uri, sampleSize);
+                _impressionistView.setBrushType(state.brushType);
+                _impressionistView.setBrushAlpha(state.alpha);
+                _impressionistView.setMatrix(imageView.getImageMatrix());
+                _impressionistView.restoreSession(_session);
+            }
+        };
+
+        Uri uri = Uri.parse(state.imageUri);
+        Bitmap.Config config = parseConfig(state.decodeConfig);
+        if (state.sampleSize > 0 && config != null) {
+            _imageLoader.load(uri, state.sampleSize, config, listener);
+        } else {
+            // Saved before the decode options were recorded, the best we can do is aim for the size
+            _imageLoader.load(uri, state.sourceWidth, state.sourceHeight, listener);
+        }
+    }
+
+    /**
+     * @return the Bitmap.Config called name, or null if there is none
+     */
+    private static Bitmap.Config parseConfig(String name) {
+        for (Bitmap.Config config : Bitmap.Config.values()) {
+            if (config.name().equals(name)) {
+                return config;
+            }
+        }
+        return null;
     }
 
     public void onButtonClickClear(View v) {
@@ -89,12 +200,45 @@ public class MainActivity extends AppCompatActivity implements OnMenuItemClickLi
                 .setNegativeButton(android.R.string.no, null).show();
     }
 
+    public void onButtonClickUndo(View v) {
+        _impressionistView.undo();
+    }
+
+    public void onButtonClickRedo(View v) {
+        _impressionistView.redo();
+    }
+
     public void onButtonClickAuto(View v) {
+        _autoPaintProgress.setProgress(0);
+        _autoPaintProgress.setVisibility(View.VISIBLE);
         _impressionistView.paintTheCanvas();
     }
 
     public void onButtonClickSave(View v) {
-        new SaveImageTask().execute(_impressionistView.getBitmap());
+        new AlertDialog.Builder(this)
+                .setTitle("Save As")
+                .setItems(ExportPreset.labels(), new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        save(ExportPreset.values()[which]);
+                    }})
+                .show();
+    }
+
+    private void save(ExportPreset preset) {
+        SaveImageTask task;
+        if (preset.format == Bitmap.CompressFormat.PNG && ImageExporter.canEncodeInParallel()) {
+            // Encoded in strips straight from the painting, never copied as a whole
+            PixelRows rows = _impressionistView.getImageRows();
+            task = rows == null ? null : new SaveImageTask(preset, null, rows);
+        } else {
+            Bitmap painting = _impressionistView.getImageBitmap(preset.background);
+            task = painting == null ? null : new SaveImageTask(preset, painting, null);
+        }
+        if (task == null) {
+            Toast.makeText(this, "Nothing to save yet", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        task.execute();
     }
 
     public void onButtonClickSetBrush(View v) {
@@ -118,6 +262,14 @@ public class MainActivity extends AppCompatActivity implements OnMenuItemClickLi
                 Toast.makeText(this, "Circle Splatter Brush", Toast.LENGTH_SHORT).show();
                 _impressionistView.setBrushType(BrushType.CircleSplatter);
                 return true;
+            case R.id.menuLine:
+                Toast.makeText(this, "Line Brush", Toast.LENGTH_SHORT).show();
+                _impressionistView.setBrushType(BrushType.Line);
+                return true;
+            case R.id.menuLineSplatter:
+                Toast.makeText(this, "Line Splatter Brush", Toast.LENGTH_SHORT).show();
+                _impressionistView.setBrushType(BrushType.LineSplatter);
+                return true;
         }
         return false;
     }
@@ -202,37 +354,45 @@ public class MainActivity extends AppCompatActivity implements OnMenuItemClickLi
 
         if (requestCode == RESULT_LOAD_IMAGE && resultCode == RESULT_OK && null != data) {
             Uri imageUri = data.getData();
-
-            try {
-                Bitmap bitmap = MediaStore.Images.Media.getBitmap(this.getContentResolver(), imageUri);
-                ImageView imageView = (ImageView) findViewById(R.id.viewImage);
-
-                // destroy the drawing cache to ensure that when a new image is loaded, its cached
-                imageView.destroyDrawingCache();
-                imageView.setImageBitmap(bitmap);
-                imageView.setDrawingCacheEnabled(true);
-                _impressionistView.setImageView(imageView);
-                _impressionistView.setMatrix(imageView.getImageMatrix());
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
+            _imageChosen = true;
+            final ImageViewTouch imageView = (ImageViewTouch) findViewById(R.id.viewImage);
+
+            // Decode off the UI thread, no bigger than the view needs
+            _imageLoader.load(imageUri, imageView.getWidth(), imageView.getHeight(), new ImageLoader.OnImageLoadedListener() {
+                @Override
+                public void onImageLoaded(Uri uri, Bitmap bitmap, int sampleSize) {
+                    if (bitmap == null) {
+                        Toast.makeText(MainActivity.this, "Could not load the image", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    // Both views share the one bitmap
+                    imageView.setImageBitmap(bitmap);
+                    _impressionistView.setImage(imageView, bitmap, uri, sampleSize);
+                    _impressionistView.setMatrix(imageView.getImageMatrix());
+                }
+            });
         }
     }
 
-    private class SaveImageTask extends AsyncTask<Bitmap, Void, Void> {
+    private class SaveImageTask extends AsyncTask<Void, Void, ImageExporter.Result> {
+        private final ExportPreset _preset;
+        private final Bitmap _painting;
+        private final PixelRows _rows;
+
+        /**
+         * @param preset
+         * @param painting a copy to save and then recycle, or null to encode rows instead
+         * @param rows the painting as PNG rows
+         */
+        SaveImageTask(ExportPreset preset, Bitmap painting, PixelRows rows) {
+            _preset = preset;
+            _painting = painting;
+            _rows = rows;
+        }
 
         @Override
-        protected Void doInBackground(Bitmap... data) {
-            FileOutputStream outStream = null;
-
+        protected ImageExporter.Result doInBackground(Void... params) {
             try {
-                ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                data[0].compress(Bitmap.CompressFormat.PNG, 95, stream);
-                byte[] byteArray = stream.toByteArray();
-
-                Log.i(TAG, "doInBackground: Saving image of size = " + byteArray.length);
-
                 boolean hasPermission = (ContextCompat.checkSelfPermission(MainActivity.this,
                         Manifest.permission.WRITE_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED);
                 if (!hasPermission) {
@@ -244,34 +404,37 @@ public class MainActivity extends AppCompatActivity implements OnMenuItemClickLi
                 if (Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
                     File sdCard = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
 
-                    String fileName = String.format("%d.png", System.currentTimeMillis());
+                    String fileName = String.format("%d.%s", System.currentTimeMillis(), _preset.extension);
                     File outFile = new File(sdCard, fileName);
-                    outStream = new FileOutputStream(outFile);
-                    outStream.write(byteArray);
-                    outStream.flush();
-                    outStream.close();
-//                    if (outFile.canWrite()) {
-//
-//                    } else {
-//                        Log.w(TAG, "doInBackground: Cannot write to file");
-//                    }
+                    ImageExporter exporter = new ImageExporter();
+                    ImageExporter.Result result = _painting != null
+                            ? exporter.export(_painting, _preset, outFile)
+                            : exporter.exportPng(_rows, _preset, outFile);
+                    Log.i(TAG, "doInBackground: Saved " + result);
 
                     refreshGallery(outFile);
+                    return result;
                 } else {
                     Log.w(TAG, "doInBackground: SD card not writable");
                 }
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
             } catch (IOException e) {
-                e.printStackTrace();
+                Log.e(TAG, "doInBackground: Could not save image", e);
             } finally {
+                if (_painting != null) {
+                    _painting.recycle();
+                }
             }
             return null;
         }
 
         @Override
-        protected void onPostExecute(Void aVoid) {
-            Toast.makeText(MainActivity.this, "Your masterpiece was saved", Toast.LENGTH_SHORT).show();
+        protected void onPostExecute(ImageExporter.Result result) {
+            if (result == null) {
+                Toast.makeText(MainActivity.this, "Could not save your masterpiece", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Toast.makeText(MainActivity.this, "Your masterpiece was saved ("
+                    + result.bytes / 1024 + " KB in " + result.elapsedMs + "ms)", Toast.LENGTH_SHORT).show();
         }
     }
 
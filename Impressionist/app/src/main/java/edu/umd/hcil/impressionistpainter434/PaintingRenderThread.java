@@ -0,0 +1,337 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.umd.hcil.impressionistpainter434.core.DabBuffer;
+import edu.umd.hcil.impressionistpainter434.core.DabQueue;
+import edu.umd.hcil.impressionistpainter434.core.StrokeLog;
+
+/**
+ * Owns the off-screen painting and rasterizes into it, so that the UI thread never waits on drawing.
+ *
+ * The UI thread hands over dabs through a {@link DabQueue} and heavier jobs (e.g., auto-paint)
+ * through {@link #enqueueTask(Task)}. Dabs are drawn into the back tiles of a
+ * {@link TiledSurface}, which only this thread touches. The dirty part is then published to the
+ * front tiles, which is what the view draws.
+ *
+ * Every dab drawn is also recorded in a {@link StrokeLog}, which undo and redo replay on this
+ * thread, in order with the rest of the queue.
+ *
+ * Consecutive dabs of the same brush are collected and drawn as one batch, so that line brushes
+ * reach the canvas as a few drawLines calls per tile rather than one call per segment. The batch
+ * is flushed before anything that reads or replaces the painting.
+ *
+ * A thread that quit can be replaced by a new one, e.g., when the view is detached and attached
+ * again. The new thread takes over the painting, its history and the tasks not run yet, and
+ * waits for the old one to finish before it consumes anything, so that the queue never has two
+ * consumers.
+ */
+public class PaintingRenderThread extends Thread implements DabQueue.Consumer, StrokeLog.Replayer<TiledSurface.Snapshot> {
+    private static final String TAG = "PaintingRenderThread";
+
+    // Records drained per pass, so that a long backlog still gets published regularly
+    private static final int MAX_BATCH = 1024;
+
+    private final DabQueue _queue;
+    private final DirtyRegion _dirtyRegion;
+    private final ConcurrentLinkedQueue<Task> _tasks;
+    private volatile boolean _running = true;
+    private PaintingRenderThread _previous;
+
+    private final TiledSurface _surface;
+    private final DabRenderer _dabRenderer = new DabRenderer();
+    private final StrokeLog<TiledSurface.Snapshot> _log;
+
+    private final DabBuffer _batch = new DabBuffer(MAX_BATCH);
+    private int _batchBrush = -1;
+    private final RectF _dabBounds = new RectF();
+    private final RectF _dirty = new RectF();
+    private final Rect _dirtyRect = new Rect();
+
+    /**
+     * Work run on the render thread, see {@link #enqueueTask(Task)}
+     */
+    public interface Task {
+        /**
+         * @param renderThread the thread running the task, which may not be the one it was
+         *                     enqueued on if that one was replaced
+         */
+        void run(PaintingRenderThread renderThread);
+    }
+
+    /**
+     * @param queue
+     * @param dirtyRegion told about every part of the painting that gets published
+     */
+    public PaintingRenderThread(DabQueue queue, DirtyRegion dirtyRegion) {
+        this(queue, dirtyRegion, null);
+    }
+
+    /**
+     * @param queue
+     * @param dirtyRegion told about every part of the painting that gets published
+     * @param previous    a thread that was told to quit, whose painting, history and tasks this
+     *                    one takes over. May be null.
+     */
+    public PaintingRenderThread(DabQueue queue, DirtyRegion dirtyRegion, PaintingRenderThread previous) {
+        super(TAG);
+        _queue = queue;
+        _dirtyRegion = dirtyRegion;
+        _previous = previous;
+        if (previous != null) {
+            _surface = previous._surface;
+            _log = previous._log;
+            _tasks = previous._tasks;
+        } else {
+            _surface = new TiledSurface();
+            _log = new StrokeLog<>();
+            _tasks = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * The painting. The view may only use its UI thread methods.
+     */
+    public TiledSurface getSurface() {
+        return _surface;
+    }
+
+    /**
+     * Wakes the thread up after the producer committed new records to the queue
+     */
+    public void wake() {
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Runs task on this thread, after the dabs that are already in the queue. If this thread
+     * quit, the task runs on the thread that replaces it.
+     */
+    public void enqueueTask(Task task) {
+        _tasks.add(task);
+        wake();
+    }
+
+    /**
+     * Stops the thread once the current pass is done. Records left in the queue and tasks not
+     * run yet are kept for a thread that replaces this one.
+     */
+    public void quit() {
+        _running = false;
+        wake();
+    }
+
+    @Override
+    public void run() {
+        awaitPrevious();
+        while (_running) {
+            boolean worked = drainQueue();
+
+            Task task;
+            while (_running && (task = _tasks.poll()) != null) {
+                drainQueue();
+                task.run(this);
+                worked = true;
+            }
+
+            if (!worked) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Waits for the thread this one replaces to be done with the queue and the painting
+     */
+    private void awaitPrevious() {
+        if (_previous == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (_previous.isAlive()) {
+            try {
+                _previous.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        _previous = null;
+        if (interrupted) {
+            interrupt();
+        }
+    }
+
+    /**
+     * Auto-paints the whole painting, compositing and publishing tiles as they finish.
+     * Must be called on this thread.
+     * @param painter
+     * @param listener forwarded the progress of each tile, may be null
+     * @return the time it took, in milliseconds
+     */
+    public long autoPaint(AutoPainter painter, final AutoPainter.TileListener listener) {
+        if (_surface.isEmpty()) {
+            return 0;
+        }
+        try {
+            return painter.paint(_surface, new AutoPainter.TileListener() {
+                        @Override
+                        public void onTileComposited(Rect bounds, int tilesDone, int tileCount) {
+                            _dirty.set(bounds);
+                            publish();
+                            if (listener != null) {
+                                listener.onTileComposited(bounds, tilesDone, tileCount);
+                            }
+                        }
+                    });
+        } catch (InterruptedException e) {
+            Log.w(TAG, "autoPaint: interrupted");
+            return 0;
+        } finally {
+            // Auto-paint is far too many dabs to log, it is undone through its own checkpoint
+            _log.endOpaqueStroke(this);
+        }
+    }
+
+    /**
+     * Loads the tiles saved in session into the painting and publishes them, as one undoable
+     * step. Must be called on this thread, after the painting was cleared to the session's size.
+     * @param session
+     * @return the number of tiles restored
+     */
+    public int restoreSession(PaintingSession session) {
+        if (_surface.isEmpty()) {
+            return 0;
+        }
+        flushBatch();
+        int restored = session.restoreTiles(_surface);
+        if (restored > 0) {
+            _dirty.set(0, 0, _surface.getWidth(), _surface.getHeight());
+            publish();
+            _log.endOpaqueStroke(this);
+        }
+        // Nothing to write back until something changes
+        session.markSaved(_surface);
+        return restored;
+    }
+
+    @Override
+    public void onDab(float x, float y, int radius, int color, float angle, int brush) {
+        if (_surface.isEmpty()) {
+            return;
+        }
+        addToBatch(x, y, radius, color, angle, brush);
+        _log.append(x, y, radius, color, angle, brush);
+    }
+
+    @Override
+    public void onCommand(int type) {
+        if (_surface.isEmpty()) {
+            return;
+        }
+        flushBatch();
+        switch (type) {
+            case DabQueue.TYPE_END_STROKE:
+                _log.endStroke(this);
+                break;
+            case DabQueue.TYPE_UNDO:
+                if (_log.undo(this)) {
+                    flushBatch();
+                    _dirty.set(0, 0, _surface.getWidth(), _surface.getHeight());
+                }
+                break;
+            case DabQueue.TYPE_REDO:
+                if (_log.redo(this)) {
+                    flushBatch();
+                    _dirty.set(0, 0, _surface.getWidth(), _surface.getHeight());
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void restore(TiledSurface.Snapshot snapshot) {
+        _batch.clear();
+        _surface.restore(snapshot);
+    }
+
+    @Override
+    public void replay(float x, float y, int radius, int color, float angle, int brush) {
+        addToBatch(x, y, radius, color, angle, brush);
+    }
+
+    @Override
+    public TiledSurface.Snapshot snapshot(TiledSurface.Snapshot reuse) {
+        flushBatch();
+        return _surface.snapshot(reuse);
+    }
+
+    @Override
+    public void discard(TiledSurface.Snapshot snapshot) {
+        TiledSurface.recycle(snapshot);
+    }
+
+    @Override
+    public void onClear(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        _batch.clear();
+        _log.reset(this);
+        _surface.reset(width, height);
+        _dirty.set(0, 0, width, height);
+    }
+
+    private void addToBatch(float x, float y, int radius, int color, float angle, int brush) {
+        if (brush != _batchBrush || _batch.size() == MAX_BATCH) {
+            flushBatch();
+            _batchBrush = brush;
+        }
+        _batch.add(x, y, radius, color, angle);
+    }
+
+    private void flushBatch() {
+        if (_batch.isEmpty()) {
+            return;
+        }
+        _surface.drawDabs(_dabRenderer, DabRenderer.brushType(_batchBrush), _batch, _dabBounds);
+        _dirty.union(_dabBounds);
+        _batch.clear();
+    }
+
+    private boolean drainQueue() {
+        boolean drained = false;
+        _dirty.setEmpty();
+        int count;
+        while ((count = _queue.drain(this, MAX_BATCH)) > 0) {
+            drained = true;
+            if (count < MAX_BATCH) {
+                break;
+            }
+            publish();
+            _dirty.setEmpty();
+        }
+        publish();
+        return drained;
+    }
+
+    private void publish() {
+        flushBatch();
+        if (_dirty.isEmpty() || _surface.isEmpty()) {
+            return;
+        }
+        _dirty.roundOut(_dirtyRect);
+        if (!_dirtyRect.intersect(0, 0, _surface.getWidth(), _surface.getHeight())) {
+            return;
+        }
+        _surface.publish(_dirtyRect);
+        _dirtyRegion.add(_dirtyRect);
+        if (ImpressionistView.DEBUG) {
+            Log.v(TAG, "publish: " + _dirtyRect);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import edu.umd.hcil.impressionistpainter434.core.SessionFile;
+
+/**
+ * Keeps the painting in a {@link SessionFile}, so that it can be resumed after the process dies.
+ *
+ * Saving runs on a background thread and only writes the tiles whose version changed since
+ * they were last saved; saves requested while one is running are coalesced into one more.
+ * A save for a different painting (another image, or another size) starts the file over.
+ */
+public class PaintingSession {
+    private static final String TAG = "PaintingSession";
+
+    private static final int TILE_BYTES = TiledSurface.TILE_SIZE * TiledSurface.TILE_SIZE * 4;
+
+    /**
+     * Called on the UI thread with what {@link #load} found
+     */
+    public interface OnLoadedListener {
+        /**
+         * @param state the saved session, or null if there is none
+         */
+        void onSessionLoaded(SessionFile.State state);
+    }
+
+    private final File _file;
+    private final ExecutorService _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Handler _handler = new Handler(Looper.getMainLooper());
+
+    // Guarded by this
+    private SessionFile _session = null;
+    private long[] _savedVersions = new long[0];
+    private TiledSurface _pendingSurface = null;
+    private SessionFile.State _pendingState = null;
+
+    // Only used on the executor thread
+    private final ByteBuffer _pixels = ByteBuffer.allocate(TILE_BYTES);
+
+    public PaintingSession(File file) {
+        _file = file;
+    }
+
+    /**
+     * Opens the saved session, if any, in the background
+     */
+    public void load(final OnLoadedListener listener) {
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SessionFile.State state = null;
+                synchronized (PaintingSession.this) {
+                    if (_session == null && _file.exists()) {
+                        try {
+                            _session = SessionFile.open(_file);
+                            _savedVersions = new long[_session.getTileCount()];
+                            Arrays.fill(_savedVersions, -1);
+                        } catch (IOException e) {
+                            Log.w(TAG, "load: could not open " + _file, e);
+                        }
+                    }
+                    if (_session != null) {
+                        state = _session.getState();
+                    }
+                }
+                final SessionFile.State loaded = state;
+                _handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onSessionLoaded(loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Render thread: loads the saved tiles into the back of surface, if the session is of a
+     * painting that size. Call {@link #markSaved} once they are published.
+     * @return the number of tiles loaded
+     */
+    public synchronized int restoreTiles(TiledSurface surface) {
+        if (_session == null) {
+            return 0;
+        }
+        SessionFile.State state = _session.getState();
+        if (state.width != surface.getWidth() || state.height != surface.getHeight()
+                || state.tileSize != TiledSurface.TILE_SIZE) {
+            Log.w(TAG, "restoreTiles: session is " + state.width + "x" + state.height + ", painting is "
+                    + surface.getWidth() + "x" + surface.getHeight());
+            return 0;
+        }
+        byte[] pixels = new byte[TILE_BYTES];
+        int restored = 0;
+        long start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < _session.getTileCount(); i++) {
+                if (_session.readTile(i, pixels) == TILE_BYTES) {
+                    surface.loadTile(i, ByteBuffer.wrap(pixels));
+                    restored++;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "restoreTiles: " + _file + " is damaged", e);
+        }
+        if (ImpressionistView.DEBUG) {
+            Log.d(TAG, "restoreTiles: " + restored + " tiles in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return restored;
+    }
+
+    /**
+     * Any thread: records every tile of surface as saved as it is now, e.g., right after
+     * restoring it
+     */
+    public synchronized void markSaved(TiledSurface surface) {
+        if (_savedVersions.length != surface.getTileCount()) {
+            return;
+        }
+        for (int i = 0; i < _savedVersions.length; i++) {
+            _savedVersions[i] = surface.getTileVersion(i);
+        }
+    }
+
+    /**
+     * Saves the tiles of surface that changed since the last save, and state, in the background
+     * @param surface read from the background thread, through its any-thread methods
+     * @param state
+     */
+    public void save(TiledSurface surface, SessionFile.State state) {
+        boolean idle;
+        synchronized (this) {
+            idle = _pendingState == null;
+            _pendingSurface = surface;
+            _pendingState = new SessionFile.State(state);
+        }
+        if (idle) {
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    TiledSurface surface;
+                    SessionFile.State state;
+                    synchronized (PaintingSession.this) {
+                        surface = _pendingSurface;
+                        state = _pendingState;
+                        _pendingSurface = null;
+                        _pendingState = null;
+                    }
+                    try {
+                        write(surface, state);
+                    } catch (IOException e) {
+                        Log.e(TAG, "save: could not write " + _file, e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes the file once pending saves are done
+     */
+    public void close() {
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PaintingSession.this) {
+                    closeSession();
+                }
+            }
+        });
+        _executor.shutdown();
+    }
+
+    private void write(TiledSurface surface, SessionFile.State state) throws IOException {
+        long start = System.currentTimeMillis();
+        synchronized (this) {
+            if (_session == null || !_session.getState().isSamePainting(state)) {
+                closeSession();
+                _session = SessionFile.create(_file, state);
+                _savedVersions = new long[_session.getTileCount()];
+                Arrays.fill(_savedVersions, -1);
+            }
+        }
+        int written = 0;
+        for (int i = 0; i < _savedVersions.length; i++) {
+            // Read the tile outside of this lock, the render thread may be restoring tiles
+            long version = surface.getTileVersion(i);
+            synchronized (this) {
+                if (version == _savedVersions[i]) {
+                    continue;
+                }
+            }
+            if (version >= 0) {
+                version = surface.readTile(i, _pixels);
+            }
+            synchronized (this) {
+                if (version < 0) {
+                    _session.clearTile(i);
+                } else {
+                    _session.writeTile(i, _pixels.array(), TILE_BYTES);
+                    written++;
+                }
+                _savedVersions[i] = version;
+            }
+        }
+        synchronized (this) {
+            _session.setState(state);
+            _session.commit();
+        }
+        if (ImpressionistView.DEBUG) {
+            Log.d(TAG, "write: " + written + " tiles in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    private void closeSession() {
+        if (_session != null) {
+            try {
+                _session.close();
+            } catch (IOException e) {
+                Log.w(TAG, "closeSession", e);
+            }
+            _session = null;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import edu.umd.hcil.impressionistpainter434.core.ColorSource;
+import edu.umd.hcil.impressionistpainter434.core.SourceSampler;
+
+/**
+ * Multi-resolution source colors for zoomed-in painting.
+ *
+ * The base level is the downsampled image held by a {@link SourceSampler}. Finer levels are
+ * decoded from the original file with a {@link BitmapRegionDecoder}, one tile at a time, only
+ * when a sample lands on them. Tiles live in a fixed number of slots that are recycled least
+ * recently used first, so memory stays bounded however big the original is.
+ *
+ * Samples never wait for a decode: a missing tile is queued for the decode thread and the
+ * sample falls back to the base level in the meantime. Sampling is allocation-free.
+ */
+public class SourcePyramid implements ColorSource {
+    private static final String TAG = "SourcePyramid";
+
+    public static final int TILE_SIZE = 256;
+    public static final long DEFAULT_MEMORY_BUDGET = 8 * 1024 * 1024;
+
+    private static final int MAX_TAPS_PER_AXIS = 8;
+    private static final int MAX_PENDING = 16;
+
+    private final SourceSampler _base;
+    private final ContentResolver _contentResolver;
+    private final Uri _uri;
+
+    private final Object _lock = new Object();
+    private boolean _running = true;
+    private BitmapRegionDecoder _decoder = null;
+
+    // Original image size and the original pixels per base pixel
+    private int _originalWidth = 0;
+    private int _originalHeight = 0;
+    private float _baseToOriginal = 1;
+
+    // Current zoom, and the sample size of the level it samples from (0 while the base level is fine enough)
+    private float _scale = 1;
+    private int _levelSampleSize = 0;
+
+    // Tile slots, all guarded by _lock
+    private final long[] _slotKey;
+    private final int[][] _slotPixels;
+    private final int[] _slotWidth;
+    private final int[] _slotHeight;
+    private final long[] _slotLastUse;
+    private long _useCounter = 0;
+    private int _lastSlot = -1;
+
+    // Tiles waiting to be decoded, newest last
+    private final long[] _pending = new long[MAX_PENDING];
+    private int _pendingCount = 0;
+
+    /**
+     * @param base the downsampled image, at base level coordinates
+     * @param contentResolver
+     * @param uri the full resolution image
+     * @param memoryBudget bytes that decoded tiles may take
+     */
+    public SourcePyramid(SourceSampler base, ContentResolver contentResolver, Uri uri, long memoryBudget) {
+        _base = base;
+        _contentResolver = contentResolver;
+        _uri = uri;
+
+        int slots = (int) Math.max(4, memoryBudget / (TILE_SIZE * TILE_SIZE * 4));
+        _slotKey = new long[slots];
+        _slotPixels = new int[slots][];
+        _slotWidth = new int[slots];
+        _slotHeight = new int[slots];
+        _slotLastUse = new long[slots];
+        for (int i = 0; i < slots; i++) {
+            _slotKey[i] = -1;
+        }
+
+        Thread decodeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decodeLoop();
+            }
+        }, TAG);
+        decodeThread.setPriority(Thread.MIN_PRIORITY);
+        decodeThread.start();
+    }
+
+    /**
+     * Stops decoding and frees the tiles
+     */
+    public void release() {
+        synchronized (_lock) {
+            _running = false;
+            _pendingCount = 0;
+            for (int i = 0; i < _slotKey.length; i++) {
+                _slotKey[i] = -1;
+                _slotPixels[i] = null;
+            }
+            _lock.notifyAll();
+        }
+    }
+
+    /**
+     * Picks the level to sample from for the current zoom
+     * @param scale displayed pixels per base pixel
+     */
+    public void setScale(float scale) {
+        synchronized (_lock) {
+            _scale = scale;
+            int sampleSize = levelSampleSize(_baseToOriginal, scale);
+            _levelSampleSize = _decoder == null || sampleSize >= _baseToOriginal ? 0 : sampleSize;
+            _pendingCount = 0;
+        }
+    }
+
+    /**
+     * Returns the inSampleSize of the coarsest level that still has a pixel per displayed pixel
+     * @param baseToOriginal original pixels per base pixel
+     * @param scale displayed pixels per base pixel
+     * @return a power of two, at least 1
+     */
+    public static int levelSampleSize(float baseToOriginal, float scale) {
+        float originalPerDisplayed = baseToOriginal / Math.max(scale, 1e-3f);
+        int sampleSize = 1;
+        while (sampleSize * 2 <= originalPerDisplayed) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    @Override
+    public boolean contains(int x, int y) {
+        return _base.contains(x, y);
+    }
+
+    @Override
+    public int sample(float x, float y) {
+        synchronized (_lock) {
+            if (_levelSampleSize != 0) {
+                float toLevel = _baseToOriginal / _levelSampleSize;
+                int color = sampleLevel((int) (x * toLevel), (int) (y * toLevel));
+                if (color != 0) {
+                    return color;
+                }
+            }
+        }
+        return _base.sample(x, y);
+    }
+
+    @Override
+    public int sampleAverage(float cx, float cy, int radius) {
+        synchronized (_lock) {
+            if (_levelSampleSize != 0) {
+                float toLevel = _baseToOriginal / _levelSampleSize;
+                int levelRadius = (int) (radius * toLevel);
+                int lx = (int) (cx * toLevel);
+                int ly = (int) (cy * toLevel);
+                int step = Math.max(1, (2 * levelRadius + 1) / MAX_TAPS_PER_AXIS);
+                int a = 0, r = 0, g = 0, b = 0, n = 0;
+                boolean complete = true;
+                for (int y = ly - levelRadius; y <= ly + levelRadius && complete; y += step) {
+                    for (int x = lx - levelRadius; x <= lx + levelRadius; x += step) {
+                        int c = sampleLevel(x, y);
+                        if (c == 0) {
+                            complete = false;
+                            break;
+                        }
+                        a += c >>> 24;
+                        r += (c >> 16) & 0xff;
+                        g += (c >> 8) & 0xff;
+                        b += c & 0xff;
+                        n++;
+                    }
+                }
+                if (complete && n > 0) {
+                    return ((a / n) << 24) | ((r / n) << 16) | ((g / n) << 8) | (b / n);
+                }
+            }
+        }
+        return _base.sampleAverage(cx, cy, radius);
+    }
+
+    /**
+     * Returns the color at level coordinates (lx, ly), or 0 if its tile isn't decoded yet.
+     * Must hold _lock.
+     */
+    private int sampleLevel(int lx, int ly) {
+        int sampleSize = _levelSampleSize;
+        int levelWidth = (_originalWidth + sampleSize - 1) / sampleSize;
+        int levelHeight = (_originalHeight + sampleSize - 1) / sampleSize;
+        lx = lx < 0 ? 0 : (lx >= levelWidth ? levelWidth - 1 : lx);
+        ly = ly < 0 ? 0 : (ly >= levelHeight ? levelHeight - 1 : ly);
+        int tx = lx / TILE_SIZE;
+        int ty = ly / TILE_SIZE;
+        long key = tileKey(sampleSize, tx, ty);
+
+        int slot = _lastSlot >= 0 && _slotKey[_lastSlot] == key ? _lastSlot : findSlot(key);
+        if (slot < 0) {
+            request(key);
+            return 0;
+        }
+        _lastSlot = slot;
+        _slotLastUse[slot] = ++_useCounter;
+        int x = Math.min(lx - tx * TILE_SIZE, _slotWidth[slot] - 1);
+        int y = Math.min(ly - ty * TILE_SIZE, _slotHeight[slot] - 1);
+        int color = _slotPixels[slot][y * _slotWidth[slot] + x];
+        // 0 means "missing" to the callers, a fully transparent pixel is as good as any
+        return color == 0 ? 1 : color;
+    }
+
+    private int findSlot(long key) {
+        for (int i = 0; i < _slotKey.length; i++) {
+            if (_slotKey[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void request(long key) {
+        for (int i = 0; i < _pendingCount; i++) {
+            if (_pending[i] == key) {
+                return;
+            }
+        }
+        if (_pendingCount == MAX_PENDING) {
+            // The oldest requests are the least likely to still be under the brush
+            System.arraycopy(_pending, 1, _pending, 0, MAX_PENDING - 1);
+            _pendingCount--;
+        }
+        _pending[_pendingCount++] = key;
+        _lock.notifyAll();
+    }
+
+    private void decodeLoop() {
+        if (!openDecoder()) {
+            return;
+        }
+        Rect region = new Rect();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        while (true) {
+            long key;
+            synchronized (_lock) {
+                while (_running && _pendingCount == 0) {
+                    try {
+                        _lock.wait();
+                    } catch (InterruptedException e) {
+                        _running = false;
+                    }
+                }
+                if (!_running) {
+                    break;
+                }
+                key = _pending[--_pendingCount];
+                if (findSlot(key) >= 0) {
+                    continue;
+                }
+            }
+            decodeTile(key, region, options);
+        }
+        _decoder.recycle();
+    }
+
+    private boolean openDecoder() {
+        InputStream in = null;
+        try {
+            in = _contentResolver.openInputStream(_uri);
+            if (in == null) {
+                return false;
+            }
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+            float scale;
+            synchronized (_lock) {
+                _decoder = decoder;
+                _originalWidth = decoder.getWidth();
+                _originalHeight = decoder.getHeight();
+                if (_base.getWidth() > 0) {
+                    _baseToOriginal = _originalWidth / (float) _base.getWidth();
+                }
+                scale = _scale;
+            }
+            setScale(scale);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "openDecoder: no region decoding for " + _uri, e);
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "openDecoder: close failed", e);
+                }
+            }
+        }
+    }
+
+    private void decodeTile(long key, Rect region, BitmapFactory.Options options) {
+        int sampleSize = 1 << (int) (key >>> 48);
+        int tx = (int) ((key >>> 24) & 0xffffff);
+        int ty = (int) (key & 0xffffff);
+        int span = TILE_SIZE * sampleSize;
+        region.set(tx * span, ty * span, Math.min(_originalWidth, (tx + 1) * span),
+                Math.min(_originalHeight, (ty + 1) * span));
+        if (region.isEmpty()) {
+            return;
+        }
+        options.inSampleSize = sampleSize;
+
+        Bitmap tile;
+        try {
+            tile = _decoder.decodeRegion(region, options);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "decodeTile: out of memory", e);
+            return;
+        }
+        if (tile == null) {
+            return;
+        }
+        int width = Math.min(TILE_SIZE, tile.getWidth());
+        int height = Math.min(TILE_SIZE, tile.getHeight());
+
+        synchronized (_lock) {
+            if (!_running) {
+                tile.recycle();
+                return;
+            }
+            int slot = leastRecentlyUsedSlot();
+            if (_slotPixels[slot] == null) {
+                _slotPixels[slot] = new int[TILE_SIZE * TILE_SIZE];
+            }
+            tile.getPixels(_slotPixels[slot], 0, width, 0, 0, width, height);
+            _slotKey[slot] = key;
+            _slotWidth[slot] = width;
+            _slotHeight[slot] = height;
+            _slotLastUse[slot] = ++_useCounter;
+        }
+        tile.recycle();
+        if (ImpressionistView.DEBUG) {
+            Log.v(TAG, "decodeTile: " + region + " / " + sampleSize);
+        }
+    }
+
+    private int leastRecentlyUsedSlot() {
+        int slot = 0;
+        for (int i = 0; i < _slotKey.length; i++) {
+            if (_slotKey[i] == -1) {
+                return i;
+            }
+            if (_slotLastUse[i] < _slotLastUse[slot]) {
+                slot = i;
+            }
+        }
+        return slot;
+    }
+
+    private static long tileKey(int sampleSize, int tx, int ty) {
+        return ((long) Integer.numberOfTrailingZeros(sampleSize) << 48) | ((long) tx << 24) | ty;
+    }
+}
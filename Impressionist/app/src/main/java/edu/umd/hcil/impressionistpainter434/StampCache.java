@@ -0,0 +1,226 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+import edu.umd.hcil.impressionistpainter434.core.Splatter;
+
+/**
+ * Pre-rasterized, anti-aliased alpha masks of the Circle, Square and CircleSplatter dab shapes,
+ * keyed by brush type, quantized radius and splatter layout. A dab then becomes a single ALPHA_8
+ * bitmap draw, which Canvas tints with the paint color and scales to the exact radius, instead
+ * of a freshly set up shape draw (five of them for a splatter).
+ *
+ * Radii are quantized to {@link #BUCKETS_PER_OCTAVE} sizes per doubling, so that the speed
+ * dependent radii of a stroke share a handful of stamps; small radii are kept exact.
+ *
+ * One cache is shared by every thread that draws dabs, manual strokes and auto-paint alike.
+ * Memory is bounded by evicting the least recently used stamps; evicted bitmaps are left to the
+ * garbage collector because another thread may still be drawing them. In front of it, every
+ * thread has a small direct-mapped cache of its own, so that most dabs are served without
+ * taking the lock or boxing a key.
+ */
+public class StampCache {
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    // Room for the anti-aliased edge around the shape
+    private static final int PADDING = 2;
+
+    /**
+     * Stamp sizes per doubling of the radius. Radii below 2 * BUCKETS_PER_OCTAVE are exact.
+     */
+    public static final int BUCKETS_PER_OCTAVE = 8;
+    private static final int BUCKET_BITS = 4; // log2(2 * BUCKETS_PER_OCTAVE)
+
+    // Slots in each thread's front cache, a power of 2
+    private static final int FRONT_SIZE = 64;
+
+    private static StampCache _shared = null;
+
+    /**
+     * A mask and where its top left corner goes, relative to the dab center
+     */
+    public static class Stamp {
+        public final Bitmap mask;
+        public final float offsetX;
+        public final float offsetY;
+        /**
+         * The radius the mask was rasterized for; dabs of other radii scale it
+         */
+        public final int radius;
+
+        Stamp(Bitmap mask, float offsetX, float offsetY, int radius) {
+            this.mask = mask;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.radius = radius;
+        }
+    }
+
+    /**
+     * A thread's own cache of recently used stamps, one per slot, replaced on collision
+     */
+    private static class Front {
+        final long[] keys = new long[FRONT_SIZE];
+        final Stamp[] stamps = new Stamp[FRONT_SIZE];
+
+        Front() {
+            Arrays.fill(keys, -1);
+        }
+    }
+
+    private final long _maxBytes;
+    private long _bytes = 0;
+    private final LinkedHashMap<Long, Stamp> _stamps = new LinkedHashMap<>(64, 0.75f, true);
+    private int _hits = 0;
+    private int _misses = 0;
+    private final ThreadLocal<Front> _fronts = new ThreadLocal<Front>() {
+        @Override
+        protected Front initialValue() {
+            return new Front();
+        }
+    };
+
+    // Used to rasterize new stamps, under the cache lock
+    private final Paint _maskPaint = new Paint();
+    private final Splatter _splatter = new Splatter();
+    private final float[] _circles = new float[3 * Splatter.COUNT];
+
+    public StampCache(long maxBytes) {
+        _maxBytes = maxBytes;
+        _maskPaint.setAntiAlias(true);
+        _maskPaint.setStyle(Paint.Style.FILL);
+    }
+
+    /**
+     * The cache shared by all dab renderers
+     */
+    public static synchronized StampCache getShared() {
+        if (_shared == null) {
+            _shared = new StampCache(DEFAULT_MAX_BYTES);
+        }
+        return _shared;
+    }
+
+    /**
+     * Whether dabs of brushType are drawn from stamps. Line brushes aren't: they are rotated
+     * per dab.
+     */
+    public static boolean isStamped(BrushType brushType) {
+        return brushType == BrushType.Circle || brushType == BrushType.Square
+                || brushType == BrushType.CircleSplatter;
+    }
+
+    /**
+     * Returns the radius a stamp is rasterized at for dabs of radius: the radius itself when
+     * small, else the nearest of {@link #BUCKETS_PER_OCTAVE} sizes per doubling
+     */
+    public static int quantizeRadius(int radius) {
+        if (radius < 1 << BUCKET_BITS) {
+            return Math.max(0, radius);
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(radius) - BUCKET_BITS;
+        return ((radius + (1 << (shift - 1))) >> shift) << shift;
+    }
+
+    /**
+     * Returns the stamp for a dab, rasterizing it on a miss. Its {@link Stamp#radius} may differ
+     * from radius, see {@link #quantizeRadius(int)}.
+     * @param brushType one for which {@link #isStamped} is true
+     * @param radius brush radius
+     * @param variant splatter layout, see {@link Splatter#variantFor}; ignored for other brushes
+     */
+    public Stamp get(BrushType brushType, int radius, int variant) {
+        if (brushType != BrushType.CircleSplatter) {
+            variant = 0;
+        }
+        final int quantized = quantizeRadius(radius);
+        final long key = ((long) brushType.ordinal() << 40) | ((long) variant << 32) | quantized;
+
+        Front front = _fronts.get();
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 58) & (FRONT_SIZE - 1);
+        if (front.keys[slot] == key) {
+            return front.stamps[slot];
+        }
+        Stamp stamp = getShared(key, brushType, quantized, variant);
+        front.keys[slot] = key;
+        front.stamps[slot] = stamp;
+        return stamp;
+    }
+
+    private synchronized Stamp getShared(long key, BrushType brushType, int radius, int variant) {
+        Stamp stamp = _stamps.get(key);
+        if (stamp != null) {
+            _hits++;
+            return stamp;
+        }
+        _misses++;
+        stamp = rasterize(brushType, radius, variant);
+        _stamps.put(key, stamp);
+        _bytes += stamp.mask.getByteCount();
+        trim();
+        return stamp;
+    }
+
+    /**
+     * Returns how many lookups missed their thread's front cache and were found in the shared one
+     */
+    public synchronized int getHitCount() {
+        return _hits;
+    }
+
+    /**
+     * Returns how many stamps were rasterized
+     */
+    public synchronized int getMissCount() {
+        return _misses;
+    }
+
+    public synchronized long getByteCount() {
+        return _bytes;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Long, Stamp>> eldest = _stamps.entrySet().iterator();
+        // Always keep the stamp that was just added
+        while (_bytes > _maxBytes && _stamps.size() > 1) {
+            Stamp evicted = eldest.next().getValue();
+            eldest.remove();
+            _bytes -= evicted.mask.getByteCount();
+        }
+    }
+
+    private Stamp rasterize(BrushType brushType, int radius, int variant) {
+        if (brushType == BrushType.CircleSplatter) {
+            // Pieces are offset by [0, radius) and up to radius big: [-radius, 2 * radius) around the dab
+            int size = 3 * radius + 2 * PADDING;
+            float origin = radius + PADDING;
+            Bitmap mask = Bitmap.createBitmap(Math.max(1, size), Math.max(1, size), Bitmap.Config.ALPHA_8);
+            Canvas canvas = new Canvas(mask);
+            _splatter.generateOffsets(variant, radius, _circles);
+            for (int i = 0; i < Splatter.COUNT; i++) {
+                canvas.drawCircle(origin + _circles[3 * i], origin + _circles[3 * i + 1], _circles[3 * i + 2], _maskPaint);
+            }
+            return new Stamp(mask, -origin, -origin, radius);
+        }
+
+        int half = radius / 2;
+        int size = 2 * half + 2 * PADDING;
+        float origin = half + PADDING;
+        Bitmap mask = Bitmap.createBitmap(size, size, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(mask);
+        if (brushType == BrushType.Circle) {
+            canvas.drawCircle(origin, origin, half, _maskPaint);
+        } else {
+            canvas.drawRect(PADDING, PADDING, PADDING + 2 * half, PADDING + 2 * half, _maskPaint);
+        }
+        return new Stamp(mask, -origin, -origin, radius);
+    }
+}
@@ -0,0 +1,38 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.graphics.Rect;
+
+import edu.umd.hcil.impressionistpainter434.core.PixelRows;
+
+/**
+ * A part of the displayed painting, read straight from the front tiles of a
+ * {@link TiledSurface} a band of rows at a time, without copying the whole of it.
+ */
+class SurfaceRows implements PixelRows {
+    private final TiledSurface _surface;
+    private final Rect _bounds;
+
+    /**
+     * @param surface
+     * @param bounds the part to read, in painting coordinates
+     */
+    SurfaceRows(TiledSurface surface, Rect bounds) {
+        _surface = surface;
+        _bounds = new Rect(bounds);
+    }
+
+    @Override
+    public int getWidth() {
+        return _bounds.width();
+    }
+
+    @Override
+    public int getHeight() {
+        return _bounds.height();
+    }
+
+    @Override
+    public void getRows(int top, int count, int[] out) {
+        _surface.readFront(_bounds.left, _bounds.top + top, _bounds.width(), count, out);
+    }
+}
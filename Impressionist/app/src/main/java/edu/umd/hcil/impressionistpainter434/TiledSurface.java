@@ -0,0 +1,454 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+import edu.umd.hcil.impressionistpainter434.core.DabBuffer;
+
+/**
+ * The painting, as a sparse grid of fixed-size tiles that are only allocated once something is
+ * painted on them. Memory and draw time scale with the painted area, not the canvas size.
+ *
+ * Every tile has a back bitmap, which only the render thread draws into, and a front bitmap,
+ * which is what gets displayed. {@link #publish(Rect)} copies dirty areas from back to front.
+ * The front bitmaps, and which tiles are live, are guarded by the surface's lock, so drawing
+ * and publishing never block each other for longer than a copy.
+ *
+ * Clearing is O(1): it bumps a generation counter and tiles from older generations count as
+ * blank. Their bitmaps are erased and reused when painted on again.
+ */
+public class TiledSurface {
+    public static final int TILE_SIZE = 256;
+
+    private static final int DEAD = -1;
+
+    private static class Tile {
+        final int left;
+        final int top;
+        final Bitmap back;
+        final Canvas backCanvas;
+        final Bitmap front;
+        final Canvas frontCanvas;
+        int generation;
+        // Changes with every publish, see getTileVersion
+        long version;
+
+        Tile(int left, int top) {
+            this.left = left;
+            this.top = top;
+            back = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            backCanvas = new Canvas(back);
+            backCanvas.translate(-left, -top);
+            front = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            frontCanvas = new Canvas(front);
+        }
+    }
+
+    /**
+     * A copy of the painted tiles, see {@link #snapshot(Snapshot)}
+     */
+    public static class Snapshot {
+        private final Bitmap[] _tiles;
+
+        private Snapshot(int tileCount) {
+            _tiles = new Bitmap[tileCount];
+        }
+    }
+
+    private final Object _lock = new Object();
+    private final Paint _copyPaint = new Paint();
+    private int _width = 0;
+    private int _height = 0;
+    private int _columns = 0;
+    private int _rows = 0;
+    private Tile[] _tiles = new Tile[0];
+    private int _generation = 0;
+    private long _version = 0;
+
+    // Scratch objects for draw, which runs on the UI thread for every frame
+    private final RectF _visible = new RectF();
+    private final Rect _clip = new Rect();
+    // Scratch for publish and drawDabs, on the render thread
+    private final Rect _src = new Rect();
+    private final RectF _dabBounds = new RectF();
+
+    public TiledSurface() {
+        _copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    public int getWidth() {
+        return _width;
+    }
+
+    public int getHeight() {
+        return _height;
+    }
+
+    public boolean isEmpty() {
+        return _width <= 0 || _height <= 0;
+    }
+
+    /**
+     * Render thread: clears the surface and makes it width x height
+     */
+    public void reset(int width, int height) {
+        synchronized (_lock) {
+            if (width != _width || height != _height) {
+                _width = width;
+                _height = height;
+                _columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+                _rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+                _tiles = new Tile[_columns * _rows];
+            }
+            _generation++;
+        }
+    }
+
+    /**
+     * Render thread: draws a batch of dabs into every tile they touch, one batched draw per tile
+     * @param renderer
+     * @param brushType
+     * @param dabs
+     * @param bounds set to the area the dabs may touch
+     */
+    public void drawDabs(DabRenderer renderer, BrushType brushType, DabBuffer dabs, RectF bounds) {
+        bounds.setEmpty();
+        final int count = dabs.size();
+        for (int d = 0; d < count; d++) {
+            renderer.getBounds(brushType, dabs.getX(d), dabs.getY(d), dabs.getRadius(d), _dabBounds);
+            bounds.union(_dabBounds);
+        }
+        if (bounds.isEmpty()) {
+            return;
+        }
+        int firstColumn = Math.max(0, (int) Math.floor(bounds.left / TILE_SIZE));
+        int firstRow = Math.max(0, (int) Math.floor(bounds.top / TILE_SIZE));
+        int lastColumn = Math.min(_columns - 1, (int) Math.floor(bounds.right / TILE_SIZE));
+        int lastRow = Math.min(_rows - 1, (int) Math.floor(bounds.bottom / TILE_SIZE));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                if (touches(dabs, brushType, renderer, column, row)) {
+                    // The tile canvas clips whatever falls outside of it
+                    renderer.drawDabs(obtainTile(column, row).backCanvas, brushType, dabs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Render thread: draws bitmap with its top left corner at (left, top), src-over
+     */
+    public void drawBitmap(Bitmap bitmap, int left, int top) {
+        int firstColumn = Math.max(0, left / TILE_SIZE);
+        int firstRow = Math.max(0, top / TILE_SIZE);
+        int lastColumn = Math.min(_columns - 1, (left + bitmap.getWidth() - 1) / TILE_SIZE);
+        int lastRow = Math.min(_rows - 1, (top + bitmap.getHeight() - 1) / TILE_SIZE);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                obtainTile(column, row).backCanvas.drawBitmap(bitmap, left, top, null);
+            }
+        }
+    }
+
+    /**
+     * Render thread: copies the dirty part of the back tiles to the front
+     * @param dirty in painting coordinates, clipped to the surface
+     */
+    public void publish(Rect dirty) {
+        int firstColumn = Math.max(0, dirty.left / TILE_SIZE);
+        int firstRow = Math.max(0, dirty.top / TILE_SIZE);
+        int lastColumn = Math.min(_columns - 1, (dirty.right - 1) / TILE_SIZE);
+        int lastRow = Math.min(_rows - 1, (dirty.bottom - 1) / TILE_SIZE);
+        synchronized (_lock) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    Tile tile = _tiles[row * _columns + column];
+                    if (tile == null || tile.generation != _generation) {
+                        continue;
+                    }
+                    _src.set(Math.max(dirty.left, tile.left), Math.max(dirty.top, tile.top),
+                            Math.min(dirty.right, tile.left + TILE_SIZE), Math.min(dirty.bottom, tile.top + TILE_SIZE));
+                    _src.offset(-tile.left, -tile.top);
+                    tile.frontCanvas.drawBitmap(tile.back, _src, _src, _copyPaint);
+                    tile.version = ++_version;
+                }
+            }
+        }
+    }
+
+    /**
+     * UI thread: draws the visible, painted front tiles
+     * @param canvas
+     * @param toView painting to view transform, null for identity
+     * @param toPainting the inverse of toView
+     */
+    public void draw(Canvas canvas, Matrix toView, Matrix toPainting) {
+        if (!canvas.getClipBounds(_clip)) {
+            return;
+        }
+        _visible.set(_clip);
+        if (toPainting != null) {
+            toPainting.mapRect(_visible);
+        }
+
+        int saveCount = canvas.save();
+        if (toView != null) {
+            canvas.concat(toView);
+        }
+        synchronized (_lock) {
+            int firstColumn = Math.max(0, (int) Math.floor(_visible.left / TILE_SIZE));
+            int firstRow = Math.max(0, (int) Math.floor(_visible.top / TILE_SIZE));
+            int lastColumn = Math.min(_columns - 1, (int) Math.floor(_visible.right / TILE_SIZE));
+            int lastRow = Math.min(_rows - 1, (int) Math.floor(_visible.bottom / TILE_SIZE));
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    Tile tile = _tiles[row * _columns + column];
+                    if (tile != null && tile.generation == _generation) {
+                        canvas.drawBitmap(tile.front, tile.left, tile.top, null);
+                    }
+                }
+            }
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Any thread: returns a copy of the front tiles as one bitmap, or null if the surface is empty
+     */
+    public Bitmap copyFront() {
+        return copyFront(null, Color.TRANSPARENT);
+    }
+
+    /**
+     * Any thread: returns a copy of part of the front tiles as one bitmap, composited straight
+     * from the tiles that overlap it, or null if the surface or the part is empty
+     * @param crop the part to copy, in painting coordinates; null for all of it
+     * @param background what shows through where nothing is painted
+     */
+    public Bitmap copyFront(Rect crop, int background) {
+        synchronized (_lock) {
+            Rect bounds = new Rect(0, 0, _width, _height);
+            if (isEmpty() || (crop != null && !bounds.intersect(crop))) {
+                return null;
+            }
+            Bitmap copy = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(copy);
+            if (background != Color.TRANSPARENT) {
+                canvas.drawColor(background);
+            }
+            canvas.translate(-bounds.left, -bounds.top);
+            for (Tile tile : _tiles) {
+                if (tile != null && tile.generation == _generation
+                        && bounds.intersects(tile.left, tile.top, tile.left + TILE_SIZE, tile.top + TILE_SIZE)) {
+                    canvas.drawBitmap(tile.front, tile.left, tile.top, null);
+                }
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Any thread: copies a band of the front tiles into out as non-premultiplied ARGB, in the
+     * format of {@link Bitmap#getPixels}. Blank parts come out transparent.
+     * @param left
+     * @param top
+     * @param width
+     * @param height
+     * @param out row stride == width, at least width * height long
+     */
+    public void readFront(int left, int top, int width, int height, int[] out) {
+        Arrays.fill(out, 0, width * height, 0);
+        Rect band = new Rect(left, top, left + width, top + height);
+        Rect tileBounds = new Rect();
+        Rect part = new Rect();
+        synchronized (_lock) {
+            for (Tile tile : _tiles) {
+                if (tile == null || tile.generation != _generation) {
+                    continue;
+                }
+                tileBounds.set(tile.left, tile.top, tile.left + TILE_SIZE, tile.top + TILE_SIZE);
+                if (part.setIntersect(band, tileBounds)) {
+                    tile.front.getPixels(out, (part.top - top) * width + part.left - left, width,
+                            part.left - tile.left, part.top - tile.top, part.width(), part.height());
+                }
+            }
+        }
+    }
+
+    /**
+     * Render thread: copies the painted back tiles
+     * @param reuse a previous snapshot whose bitmaps may be reused, or null
+     */
+    public Snapshot snapshot(Snapshot reuse) {
+        Snapshot snapshot = reuse != null && reuse._tiles.length == _tiles.length ? reuse : new Snapshot(_tiles.length);
+        if (snapshot != reuse) {
+            recycle(reuse);
+        }
+        for (int i = 0; i < _tiles.length; i++) {
+            Tile tile = _tiles[i];
+            Bitmap copy = snapshot._tiles[i];
+            if (tile != null && tile.generation == _generation) {
+                if (copy == null) {
+                    snapshot._tiles[i] = tile.back.copy(Bitmap.Config.ARGB_8888, true);
+                } else {
+                    new Canvas(copy).drawBitmap(tile.back, 0, 0, _copyPaint);
+                }
+            } else if (copy != null) {
+                copy.recycle();
+                snapshot._tiles[i] = null;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Render thread: makes the back tiles what they were at snapshot. Publish to show it.
+     * @param snapshot null for a blank surface
+     */
+    public void restore(Snapshot snapshot) {
+        if (snapshot == null || snapshot._tiles.length != _tiles.length) {
+            synchronized (_lock) {
+                _generation++;
+            }
+            return;
+        }
+        for (int i = 0; i < _tiles.length; i++) {
+            Bitmap copy = snapshot._tiles[i];
+            if (copy != null) {
+                Tile tile = obtainTile(i % _columns, i / _columns);
+                tile.backCanvas.drawBitmap(copy, tile.left, tile.top, _copyPaint);
+            } else if (_tiles[i] != null) {
+                synchronized (_lock) {
+                    _tiles[i].generation = DEAD;
+                }
+            }
+        }
+    }
+
+    public int getTileCount() {
+        return _tiles.length;
+    }
+
+    /**
+     * Any thread: a number that changes whenever the front of a tile does, e.g., to save only
+     * the tiles that changed since the last save
+     * @param index
+     * @return -1 if the tile is blank
+     */
+    public long getTileVersion(int index) {
+        synchronized (_lock) {
+            Tile tile = index < _tiles.length ? _tiles[index] : null;
+            return tile != null && tile.generation == _generation ? tile.version : -1;
+        }
+    }
+
+    /**
+     * Any thread: copies the raw pixels of a tile's front, {@link #TILE_SIZE} squared ARGB_8888
+     * pixels, into out
+     * @param index
+     * @param out rewound first
+     * @return the version of the pixels copied, or -1 if the tile is blank and out was left alone
+     */
+    public long readTile(int index, ByteBuffer out) {
+        synchronized (_lock) {
+            Tile tile = index < _tiles.length ? _tiles[index] : null;
+            if (tile == null || tile.generation != _generation) {
+                return -1;
+            }
+            out.rewind();
+            tile.front.copyPixelsToBuffer(out);
+            return tile.version;
+        }
+    }
+
+    /**
+     * Render thread: replaces the back of a tile with raw pixels from {@link #readTile}.
+     * Publish to show it.
+     * @param index
+     * @param pixels rewound first
+     */
+    public void loadTile(int index, ByteBuffer pixels) {
+        Tile tile = obtainTile(index % _columns, index / _columns);
+        pixels.rewind();
+        tile.back.copyPixelsFromBuffer(pixels);
+    }
+
+    /**
+     * Number of tiles with paint on them
+     */
+    public int getLiveTileCount() {
+        synchronized (_lock) {
+            int count = 0;
+            for (Tile tile : _tiles) {
+                if (tile != null && tile.generation == _generation) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Render thread: frees the bitmaps of a snapshot that won't be restored anymore
+     * @param snapshot may be null
+     */
+    public static void recycle(Snapshot snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        for (Bitmap bitmap : snapshot._tiles) {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * Whether any dab of a batch may touch the tile, so that a long stroke across a corner of
+     * the bounds doesn't allocate the tiles it never crosses
+     */
+    private boolean touches(DabBuffer dabs, BrushType brushType, DabRenderer renderer, int column, int row) {
+        float left = column * TILE_SIZE;
+        float top = row * TILE_SIZE;
+        final int count = dabs.size();
+        for (int d = 0; d < count; d++) {
+            renderer.getBounds(brushType, dabs.getX(d), dabs.getY(d), dabs.getRadius(d), _dabBounds);
+            if (_dabBounds.intersects(left, top, left + TILE_SIZE, top + TILE_SIZE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Tile obtainTile(int column, int row) {
+        int index = row * _columns + column;
+        Tile tile = _tiles[index];
+        if (tile != null && tile.generation == _generation) {
+            return tile;
+        }
+        if (tile == null) {
+            tile = new Tile(column * TILE_SIZE, row * TILE_SIZE);
+        } else {
+            // Left over from before a clear
+            tile.back.eraseColor(0);
+        }
+        synchronized (_lock) {
+            tile.front.eraseColor(0);
+            tile.generation = _generation;
+            tile.version = ++_version;
+            _tiles[index] = tile;
+        }
+        return tile;
+    }
+}
@@ -0,0 +1,33 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImageLoaderTest {
+
+    @Test
+    public void calculateInSampleSize_keepsTargetCovered() throws Exception {
+        // 12MP photo for a 1000x800 view: 4000x3000 / 2 = 2000x1500, / 4 = 1000x750 is too small
+        assertEquals(2, ImageLoader.calculateInSampleSize(4000, 3000, 1000, 800, 4, Long.MAX_VALUE));
+        assertEquals(1, ImageLoader.calculateInSampleSize(800, 600, 1000, 800, 4, Long.MAX_VALUE));
+        assertEquals(1, ImageLoader.calculateInSampleSize(4000, 3000, 0, 0, 4, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void calculateInSampleSize_respectsMemoryBudget() throws Exception {
+        long budget = 7 * 1024 * 1024;
+        int sampleSize = ImageLoader.calculateInSampleSize(4000, 3000, 1000, 800, 4, budget);
+        assertEquals(4, sampleSize);
+        assertTrue((long) (4000 / sampleSize) * (3000 / sampleSize) * 4 <= budget);
+
+        // Half the bytes per pixel fit at a finer sample size
+        assertEquals(2, ImageLoader.calculateInSampleSize(4000, 3000, 1000, 800, 2, budget));
+    }
+
+    @Test
+    public void calculateInSampleSize_terminatesOnTinyBudget() throws Exception {
+        int sampleSize = ImageLoader.calculateInSampleSize(4000, 3000, 0, 0, 4, 0);
+        assertTrue(sampleSize >= 4000);
+    }
+}
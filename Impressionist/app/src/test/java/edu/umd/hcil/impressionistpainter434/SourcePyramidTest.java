@@ -0,0 +1,25 @@
+package edu.umd.hcil.impressionistpainter434;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SourcePyramidTest {
+
+    @Test
+    public void levelSampleSize_followsZoom() throws Exception {
+        // Base image is the original downsampled by 8
+        assertEquals(8, SourcePyramid.levelSampleSize(8, 1));
+        assertEquals(4, SourcePyramid.levelSampleSize(8, 2));
+        assertEquals(2, SourcePyramid.levelSampleSize(8, 3));
+        assertEquals(1, SourcePyramid.levelSampleSize(8, 8));
+        assertEquals(1, SourcePyramid.levelSampleSize(8, 100));
+    }
+
+    @Test
+    public void levelSampleSize_zoomedOutIsCoarserThanBase() throws Exception {
+        // setScale() keeps sampling the base level for anything at least this coarse
+        assertEquals(1, SourcePyramid.levelSampleSize(1, 1));
+        assertEquals(4, SourcePyramid.levelSampleSize(1, 0.25f));
+    }
+}
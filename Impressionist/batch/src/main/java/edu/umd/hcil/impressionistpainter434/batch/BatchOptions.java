@@ -0,0 +1,144 @@
+package edu.umd.hcil.impressionistpainter434.batch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import edu.umd.hcil.impressionistpainter434.core.AutoPaintGrid;
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+
+/**
+ * Command line options of {@link BatchRenderer}
+ */
+public class BatchOptions {
+    public static final String USAGE = "usage: batch [options] <input dir> <output dir>\n"
+            + "  --brush <name|all>   Circle, Square, Line, CircleSplatter, LineSplatter, or all of them (default Square)\n"
+            + "  --seed <n>           base seed; each image is seeded with it and its file name (default 0)\n"
+            + "  --threads <n>        images rendered at once (default: number of cores)\n"
+            + "  --queue <n>          images waiting for a thread (default: 2 x threads)\n"
+            + "  --memory <MB>        cap on image memory across all threads (default: 3/4 of the heap)\n"
+            + "  --format <png|jpg>   output format (default png)\n"
+            + "  --quality <0-100>    JPEG quality (default 90)\n"
+            + "  --grid <px>          distance between dabs (default " + AutoPaintGrid.GRID_STEP + ")\n"
+            + "  --alpha <0-255>      brush alpha (default 50)\n"
+            + "  --min-radius <px>    smallest brush radius (default 5)\n";
+
+    public File inputDir;
+    public File outputDir;
+    public List<BrushType> brushTypes = Arrays.asList(BrushType.Square);
+    public long seed = 0;
+    public int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    public int queueSize = -1;
+    public long memoryBytes = Runtime.getRuntime().maxMemory() / 4 * 3;
+    public String format = "png";
+    public int quality = 90;
+    public float gridStep = AutoPaintGrid.GRID_STEP;
+    public int alpha = 50;
+    public int minRadius = 5;
+
+    /**
+     * @throws IllegalArgumentException with a message for the user if args are not valid
+     */
+    public static BatchOptions parse(String[] args) {
+        BatchOptions options = new BatchOptions();
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--brush":
+                    options.brushTypes = parseBrushes(value);
+                    break;
+                case "--seed":
+                    options.seed = parseLong(arg, value);
+                    break;
+                case "--threads":
+                    options.threads = (int) parseRange(arg, value, 1, 1024);
+                    break;
+                case "--queue":
+                    options.queueSize = (int) parseRange(arg, value, 1, 1 << 20);
+                    break;
+                case "--memory":
+                    options.memoryBytes = parseRange(arg, value, 1, 1 << 30) * 1024 * 1024;
+                    break;
+                case "--format":
+                    options.format = value.toLowerCase(Locale.US);
+                    if (options.format.equals("jpeg")) {
+                        options.format = "jpg";
+                    }
+                    if (!options.format.equals("png") && !options.format.equals("jpg")) {
+                        throw new IllegalArgumentException("Unknown format " + value);
+                    }
+                    break;
+                case "--quality":
+                    options.quality = (int) parseRange(arg, value, 0, 100);
+                    break;
+                case "--grid":
+                    options.gridStep = parseRange(arg, value, 1, 1000);
+                    break;
+                case "--alpha":
+                    options.alpha = (int) parseRange(arg, value, 0, 255);
+                    break;
+                case "--min-radius":
+                    options.minRadius = (int) parseRange(arg, value, 1, 1000);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (positional.size() != 2) {
+            throw new IllegalArgumentException("Expected an input and an output directory");
+        }
+        options.inputDir = new File(positional.get(0));
+        options.outputDir = new File(positional.get(1));
+        if (options.queueSize < 0) {
+            options.queueSize = 2 * options.threads;
+        }
+        return options;
+    }
+
+    private static List<BrushType> parseBrushes(String value) {
+        if (value.equalsIgnoreCase("all")) {
+            return Arrays.asList(BrushType.values());
+        }
+        List<BrushType> brushTypes = new ArrayList<>();
+        for (String name : value.split(",")) {
+            boolean found = false;
+            for (BrushType brushType : BrushType.values()) {
+                if (brushType.name().equalsIgnoreCase(name.trim())) {
+                    brushTypes.add(brushType);
+                    found = true;
+                }
+            }
+            if (!found) {
+                throw new IllegalArgumentException("Unknown brush " + name);
+            }
+        }
+        return brushTypes;
+    }
+
+    private static long parseLong(String option, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+        }
+    }
+
+    private static long parseRange(String option, String value, long min, long max) {
+        long n = parseLong(option, value);
+        if (n < min || n > max) {
+            throw new IllegalArgumentException(option + " must be between " + min + " and " + max);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,144 @@
+package edu.umd.hcil.impressionistpainter434.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Auto-paints every image in a directory, the way the app's "paint the canvas" does, on all
+ * cores of a desktop JVM.
+ *
+ * Images are handed to a fixed pool of threads through a bounded queue: listing a 10k image
+ * directory never queues more than a few jobs ahead, and the {@link MemoryBudget} keeps the
+ * decoded images in flight under the memory cap. Prints one tab-separated timing line per image
+ * as it finishes, then a summary.
+ */
+public class BatchRenderer {
+    private final BatchOptions _options;
+    private final PrintStream _out;
+    private final PrintStream _err;
+
+    private final AtomicInteger _done = new AtomicInteger();
+    private final AtomicInteger _failed = new AtomicInteger();
+
+    public BatchRenderer(BatchOptions options, PrintStream out, PrintStream err) {
+        _options = options;
+        _out = out;
+        _err = err;
+    }
+
+    public static void main(String[] args) {
+        BatchOptions options;
+        try {
+            options = BatchOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(BatchOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        try {
+            int failed = new BatchRenderer(options, System.out, System.err).run();
+            System.exit(failed == 0 ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (InterruptedException e) {
+            System.exit(130);
+        }
+    }
+
+    /**
+     * Renders every image, blocking until all are done
+     * @return the number of images that failed
+     */
+    public int run() throws IOException, InterruptedException {
+        List<File> inputs = listImages(_options.inputDir);
+        if (!_options.outputDir.isDirectory() && !_options.outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + _options.outputDir);
+        }
+        _out.println("file\twidth\theight\tsubsampling\twait_ms\tdecode_ms\tpaint_ms\tencode_ms\tdabs");
+
+        final long start = System.nanoTime();
+        final MemoryBudget budget = new MemoryBudget(_options.memoryBytes);
+        // Running plus queued jobs; submitting blocks once the queue is full
+        final Semaphore slots = new Semaphore(_options.threads + _options.queueSize);
+        ExecutorService executor = Executors.newFixedThreadPool(_options.threads, new ThreadFactory() {
+            private final AtomicInteger _count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "BatchRenderer-" + _count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        ImageJob.Listener listener = new ImageJob.Listener() {
+            @Override
+            public void onJobDone(ImageJob.Result result) {
+                report(result);
+                slots.release();
+            }
+        };
+
+        try {
+            for (File input : inputs) {
+                slots.acquire();
+                executor.execute(new ImageJob(input, _options, budget, listener));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        _err.println(String.format(Locale.US, "%d images, %d failed, %d outputs each, in %.1fs (%.2f images/s) on %d threads",
+                _done.get(), _failed.get(), _options.brushTypes.size(), seconds, _done.get() / Math.max(seconds, 1e-3),
+                _options.threads));
+        return _failed.get();
+    }
+
+    /**
+     * The readable images in dir, sorted by name so that runs are reproducible
+     */
+    static List<File> listImages(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + dir);
+        }
+        List<File> images = new ArrayList<>();
+        for (File file : files) {
+            if (ImageFiles.isImage(file)) {
+                images.add(file);
+            }
+        }
+        Collections.sort(images);
+        return images;
+    }
+
+    private void report(ImageJob.Result result) {
+        _done.incrementAndGet();
+        if (result.error != null) {
+            _failed.incrementAndGet();
+            synchronized (_err) {
+                _err.println(result.input.getName() + ": " + result.error);
+            }
+            return;
+        }
+        synchronized (_out) {
+            _out.println(result.input.getName() + "\t" + result.width + "\t" + result.height + "\t" + result.subsampling
+                    + "\t" + result.waitMs + "\t" + result.decodeMs + "\t" + result.paintMs + "\t" + result.encodeMs
+                    + "\t" + result.dabs);
+        }
+    }
+}
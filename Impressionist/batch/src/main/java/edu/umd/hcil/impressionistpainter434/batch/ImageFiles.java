@@ -0,0 +1,165 @@
+package edu.umd.hcil.impressionistpainter434.batch;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import edu.umd.hcil.impressionistpainter434.core.Raster;
+
+/**
+ * ImageIO glue: header-only size probing, subsampled decoding, and encoding a {@link Raster}
+ * straight from its pixel array to a file
+ */
+class ImageFiles {
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private ImageFiles() {
+    }
+
+    /**
+     * Reads the size of an image without decoding it
+     * @return {width, height}
+     * @throws IOException if there is no reader for the file
+     */
+    static int[] readSize(File file) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            throw new IOException("Cannot open " + file);
+        }
+        try {
+            ImageReader reader = readerFor(in, file);
+            try {
+                return new int[] {reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes every subsampling-th pixel of every subsampling-th row
+     */
+    static BufferedImage read(File file, int subsampling) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            throw new IOException("Cannot open " + file);
+        }
+        try {
+            ImageReader reader = readerFor(in, file);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Encodes raster to file, through a temporary file that replaces file once complete
+     * @param raster
+     * @param format "png" or "jpg"; JPEG drops alpha
+     * @param quality JPEG quality, 0 to 100
+     * @param file
+     */
+    static void write(Raster raster, String format, int quality, File file) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No writer for " + format);
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        boolean jpeg = format.equals("jpg");
+        if (jpeg) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality / 100f);
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), OUTPUT_BUFFER_SIZE);
+        try {
+            // Memory cache rather than ImageIO's default, which may spill to yet another temp file
+            ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out);
+            try {
+                writer.setOutput(imageOut);
+                writer.write(null, new IIOImage(wrap(raster, !jpeg), null, null), param);
+            } finally {
+                imageOut.close();
+            }
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A BufferedImage over raster's pixels, without copying them
+     * @param alpha false to ignore the alpha byte
+     */
+    static BufferedImage wrap(Raster raster, boolean alpha) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        DataBufferInt buffer = new DataBufferInt(raster.getPixels(), width * height);
+        int[] masks = alpha
+                ? new int[] {0xff0000, 0xff00, 0xff, 0xff000000}
+                : new int[] {0xff0000, 0xff00, 0xff};
+        WritableRaster pixels = java.awt.image.Raster.createPackedRaster(buffer, width, height, width, masks, null);
+        ColorModel colorModel = alpha ? ColorModel.getRGBdefault() : new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+        return new BufferedImage(colorModel, pixels, false, null);
+    }
+
+    /**
+     * Whether ImageIO can probably read file, going by its extension
+     */
+    static boolean isImage(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || !file.isFile()) {
+            return false;
+        }
+        String suffix = name.substring(dot + 1).toLowerCase(Locale.US);
+        for (String readable : ImageIO.getReaderFileSuffixes()) {
+            if (readable.equalsIgnoreCase(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ImageReader readerFor(ImageInputStream in, File file) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+}
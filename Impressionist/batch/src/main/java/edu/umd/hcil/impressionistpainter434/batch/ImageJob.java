@@ -0,0 +1,160 @@
+package edu.umd.hcil.impressionistpainter434.batch;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+import edu.umd.hcil.impressionistpainter434.core.HeadlessPainter;
+import edu.umd.hcil.impressionistpainter434.core.Raster;
+import edu.umd.hcil.impressionistpainter434.core.SourceSampler;
+import edu.umd.hcil.impressionistpainter434.core.StrokeBuilder;
+
+/**
+ * Renders one input image with every requested brush: probe, reserve memory, decode, then paint
+ * and encode once per brush into a single reused raster
+ */
+class ImageJob implements Runnable {
+    // Opaque background for formats without alpha, what the app shows unpainted areas on
+    private static final int JPEG_BACKGROUND = 0xffffffff;
+
+    /**
+     * Timing and outcome of a job, in milliseconds
+     */
+    static class Result {
+        final File input;
+        int width;
+        int height;
+        int subsampling = 1;
+        long waitMs;
+        long decodeMs;
+        long paintMs;
+        long encodeMs;
+        int dabs;
+        Exception error;
+
+        Result(File input) {
+            this.input = input;
+        }
+    }
+
+    interface Listener {
+        /**
+         * Called on the worker thread when the job is done, whether it failed or not
+         */
+        void onJobDone(Result result);
+    }
+
+    private final File _input;
+    private final BatchOptions _options;
+    private final MemoryBudget _budget;
+    private final Listener _listener;
+
+    ImageJob(File input, BatchOptions options, MemoryBudget budget, Listener listener) {
+        _input = input;
+        _options = options;
+        _budget = budget;
+        _listener = listener;
+    }
+
+    @Override
+    public void run() {
+        Result result = new Result(_input);
+        try {
+            render(result);
+        } catch (Exception e) {
+            result.error = e;
+        } catch (OutOfMemoryError e) {
+            result.error = new IOException("Out of memory", e);
+        }
+        _listener.onJobDone(result);
+    }
+
+    /**
+     * Estimated peak heap use for a width x height source: the decoded image, the sampler's copy
+     * of it, and the painting
+     */
+    static long estimateBytes(int width, int height) {
+        int margin = 2 * StrokeBuilder.SOURCE_OFFSET;
+        return 4L * (2L * width * height + (long) (width + margin) * (height + margin));
+    }
+
+    /**
+     * Returns the smallest subsampling that brings a width x height image within maxBytes
+     */
+    static int subsamplingFor(int width, int height, long maxBytes) {
+        int subsampling = 1;
+        while (subsampling < Math.max(width, height)
+                && estimateBytes(ceilDiv(width, subsampling), ceilDiv(height, subsampling)) > maxBytes) {
+            subsampling *= 2;
+        }
+        return subsampling;
+    }
+
+    /**
+     * The seed for an image: the same options and file name always give the same painting,
+     * whatever order the images are rendered in
+     */
+    static long seedFor(long seed, String fileName) {
+        return seed * 31 + fileName.hashCode();
+    }
+
+    /**
+     * Output file name: the input's base name, the brush and the format's extension
+     */
+    static String outputName(String inputName, BrushType brushType, String format) {
+        int dot = inputName.lastIndexOf('.');
+        String base = dot > 0 ? inputName.substring(0, dot) : inputName;
+        return base + "-" + brushType.name() + "." + format;
+    }
+
+    private void render(Result result) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        int[] size = ImageFiles.readSize(_input);
+        result.subsampling = subsamplingFor(size[0], size[1], _budget.getCapacity());
+        result.width = ceilDiv(size[0], result.subsampling);
+        result.height = ceilDiv(size[1], result.subsampling);
+
+        long bytes = estimateBytes(result.width, result.height);
+        _budget.acquire(bytes);
+        try {
+            long acquired = System.nanoTime();
+            result.waitMs = (acquired - start) / 1000000;
+
+            SourceSampler sampler = new SourceSampler();
+            BufferedImage image = ImageFiles.read(_input, result.subsampling);
+            int width = image.getWidth();
+            int height = image.getHeight();
+            image.getRGB(0, 0, width, height, sampler.obtainBuffer(width, height), 0, width);
+            image = null;
+            long decoded = System.nanoTime();
+            result.decodeMs = (decoded - acquired) / 1000000;
+
+            boolean opaque = !_options.format.equals("png");
+            Raster painting = null;
+            for (BrushType brushType : _options.brushTypes) {
+                long paintStart = System.nanoTime();
+                HeadlessPainter painter = new HeadlessPainter(sampler, brushType, _options.minRadius, _options.alpha,
+                        1f, _options.gridStep, seedFor(_options.seed, _input.getName()));
+                if (painting == null) {
+                    painting = painter.createRaster();
+                }
+                Arrays.fill(painting.getPixels(), opaque ? JPEG_BACKGROUND : 0);
+                result.dabs += painter.paint(painting);
+                long painted = System.nanoTime();
+                result.paintMs += (painted - paintStart) / 1000000;
+
+                File output = new File(_options.outputDir, outputName(_input.getName(), brushType, _options.format));
+                ImageFiles.write(painting, _options.format, _options.quality, output);
+                result.encodeMs += (System.nanoTime() - painted) / 1000000;
+            }
+        } finally {
+            _budget.release(bytes);
+        }
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,43 @@
+package edu.umd.hcil.impressionistpainter434.batch;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the memory that images in flight may take across all threads. Jobs reserve their
+ * estimated footprint before decoding and give it back when they are done, so at worst a big
+ * image waits for smaller ones to finish instead of running the JVM out of heap.
+ */
+class MemoryBudget {
+    // Permits are kilobytes, so that terabyte budgets still fit in an int
+    private static final int UNIT = 1024;
+
+    private final Semaphore _permits;
+    private final int _total;
+
+    MemoryBudget(long bytes) {
+        _total = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / UNIT));
+        _permits = new Semaphore(_total, true);
+    }
+
+    /**
+     * The most a single job can reserve
+     */
+    long getCapacity() {
+        return (long) _total * UNIT;
+    }
+
+    /**
+     * Blocks until bytes are available. Requests over the capacity reserve all of it.
+     */
+    void acquire(long bytes) throws InterruptedException {
+        _permits.acquire(toPermits(bytes));
+    }
+
+    void release(long bytes) {
+        _permits.release(toPermits(bytes));
+    }
+
+    private int toPermits(long bytes) {
+        return (int) Math.max(1, Math.min(_total, (bytes + UNIT - 1) / UNIT));
+    }
+}
@@ -0,0 +1,48 @@
+package edu.umd.hcil.impressionistpainter434.batch;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+
+import static org.junit.Assert.*;
+
+public class BatchOptionsTest {
+
+    @Test
+    public void parse_readsOptionsAndDirectories() throws Exception {
+        BatchOptions options = BatchOptions.parse(new String[] {
+                "--brush", "circle,LineSplatter", "--seed", "-7", "--threads", "3", "--memory", "512",
+                "--format", "JPEG", "in", "out"});
+        assertEquals(Arrays.asList(BrushType.Circle, BrushType.LineSplatter), options.brushTypes);
+        assertEquals(-7, options.seed);
+        assertEquals(3, options.threads);
+        assertEquals(6, options.queueSize);
+        assertEquals(512L * 1024 * 1024, options.memoryBytes);
+        assertEquals("jpg", options.format);
+        assertEquals("in", options.inputDir.getPath());
+        assertEquals("out", options.outputDir.getPath());
+    }
+
+    @Test
+    public void parse_allBrushes() throws Exception {
+        BatchOptions options = BatchOptions.parse(new String[] {"--brush", "all", "in", "out"});
+        assertEquals(Arrays.asList(BrushType.values()), options.brushTypes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsUnknownBrush() throws Exception {
+        BatchOptions.parse(new String[] {"--brush", "Triangle", "in", "out"});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsOutOfRange() throws Exception {
+        BatchOptions.parse(new String[] {"--threads", "0", "in", "out"});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_requiresBothDirectories() throws Exception {
+        BatchOptions.parse(new String[] {"in"});
+    }
+}
@@ -0,0 +1,91 @@
+package edu.umd.hcil.impressionistpainter434.batch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+import edu.umd.hcil.impressionistpainter434.core.StrokeBuilder;
+
+import static org.junit.Assert.*;
+
+public class BatchRendererTest {
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void subsamplingFor_fitsBudget() throws Exception {
+        assertEquals(1, ImageJob.subsamplingFor(1000, 1000, ImageJob.estimateBytes(1000, 1000)));
+        assertEquals(2, ImageJob.subsamplingFor(1000, 1000, ImageJob.estimateBytes(1000, 1000) - 1));
+        int subsampling = ImageJob.subsamplingFor(8000, 6000, 64L * 1024 * 1024);
+        assertTrue(ImageJob.estimateBytes(8000 / subsampling, 6000 / subsampling) <= 64L * 1024 * 1024);
+        assertTrue(ImageJob.estimateBytes(8000 / (subsampling / 2), 6000 / (subsampling / 2)) > 64L * 1024 * 1024);
+    }
+
+    @Test
+    public void outputName_replacesExtension() throws Exception {
+        assertEquals("IMG_01-Circle.png", ImageJob.outputName("IMG_01.JPG", BrushType.Circle, "png"));
+        assertEquals("noext-Line.jpg", ImageJob.outputName("noext", BrushType.Line, "jpg"));
+    }
+
+    @Test
+    public void run_rendersEveryImageWithEveryBrush() throws Exception {
+        File in = _folder.newFolder("in");
+        File out = new File(_folder.getRoot(), "out");
+        writeImage(new File(in, "a.png"), 120, 80);
+        writeImage(new File(in, "b.png"), 64, 64);
+        Files.write(new File(in, "notes.txt").toPath(), "not an image".getBytes("UTF-8"));
+
+        BatchOptions options = BatchOptions.parse(new String[] {"--brush", "all", "--threads", "2",
+                in.getPath(), out.getPath()});
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        PrintStream print = new PrintStream(log, true, "UTF-8");
+        assertEquals(0, new BatchRenderer(options, print, print).run());
+
+        for (BrushType brushType : BrushType.values()) {
+            BufferedImage painting = ImageIO.read(new File(out, ImageJob.outputName("a.png", brushType, "png")));
+            assertEquals(120 + 2 * StrokeBuilder.SOURCE_OFFSET, painting.getWidth());
+            assertEquals(80 + 2 * StrokeBuilder.SOURCE_OFFSET, painting.getHeight());
+            assertTrue(new File(out, ImageJob.outputName("b.png", brushType, "png")).isFile());
+        }
+        assertEquals(2 * BrushType.values().length, out.list().length);
+        assertTrue(log.toString("UTF-8").contains("a.png\t120\t80\t1\t"));
+    }
+
+    @Test
+    public void run_sameSeedSameOutput() throws Exception {
+        File in = _folder.newFolder("in");
+        writeImage(new File(in, "a.png"), 90, 70);
+        File first = new File(_folder.getRoot(), "first");
+        File second = new File(_folder.getRoot(), "second");
+        PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+
+        new BatchRenderer(BatchOptions.parse(new String[] {"--seed", "5", "--threads", "1", in.getPath(),
+                first.getPath()}), quiet, quiet).run();
+        new BatchRenderer(BatchOptions.parse(new String[] {"--seed", "5", "--threads", "4", in.getPath(),
+                second.getPath()}), quiet, quiet).run();
+
+        String name = ImageJob.outputName("a.png", BrushType.Square, "png");
+        assertTrue(Arrays.equals(Files.readAllBytes(new File(first, name).toPath()),
+                Files.readAllBytes(new File(second, name).toPath())));
+    }
+
+    private static void writeImage(File file, int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 2 << 16) | (y * 3 << 8) | 0x40);
+            }
+        }
+        ImageIO.write(image, "png", file);
+    }
+}
@@ -0,0 +1,44 @@
+package edu.umd.hcil.impressionistpainter434.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.umd.hcil.impressionistpainter434.core.AutoPaintGrid;
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+import edu.umd.hcil.impressionistpainter434.core.HeadlessPainter;
+import edu.umd.hcil.impressionistpainter434.core.Raster;
+
+/**
+ * Whole auto-paint passes over synthetic photos, single-threaded, in passes per second
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class AutoPaintBenchmark {
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    @Param({"Circle", "CircleSplatter"})
+    public BrushType brush;
+
+    private HeadlessPainter _painter;
+    private Raster _painting;
+
+    @Setup
+    public void setUp() {
+        _painter = new HeadlessPainter(Sources.synthetic(megapixels), brush, 5, 50, 1f, AutoPaintGrid.GRID_STEP, 31);
+        _painting = _painter.createRaster();
+    }
+
+    @Benchmark
+    public Raster paint() {
+        _painting.clear();
+        _painter.paint(_painting);
+        return _painting;
+    }
+}
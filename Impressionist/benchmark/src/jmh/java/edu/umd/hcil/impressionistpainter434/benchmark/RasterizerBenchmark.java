@@ -0,0 +1,53 @@
+package edu.umd.hcil.impressionistpainter434.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+import edu.umd.hcil.impressionistpainter434.core.BrushDynamics;
+import edu.umd.hcil.impressionistpainter434.core.BrushType;
+import edu.umd.hcil.impressionistpainter434.core.DabBuffer;
+import edu.umd.hcil.impressionistpainter434.core.DabPainter;
+import edu.umd.hcil.impressionistpainter434.core.Raster;
+
+/**
+ * Dab rasterization throughput, in dabs per second, per brush
+ */
+@State(Scope.Thread)
+public class RasterizerBenchmark {
+    private static final int DABS = 4096;
+
+    @Param({"Circle", "Square", "Line", "CircleSplatter", "LineSplatter"})
+    public BrushType brush;
+
+    private final Raster _raster = new Raster(2048, 2048);
+    private final DabPainter _painter = new DabPainter();
+    private final DabBuffer _dabs = new DabBuffer();
+
+    @Setup
+    public void setUp() {
+        // Radius and alpha distribution of a normal stroke at zoom 1
+        BrushDynamics dynamics = new BrushDynamics();
+        dynamics.setMinRadius(5);
+        dynamics.setBaseAlpha(50);
+        Random random = new Random(42);
+        for (int i = 0; i < DABS; i++) {
+            float speed = random.nextFloat() * 30;
+            int color = (dynamics.alphaFor(speed) << 24) | (random.nextInt() & 0xffffff);
+            _dabs.add(random.nextFloat() * 2048, random.nextFloat() * 2048, dynamics.radiusFor(speed), color,
+                    random.nextFloat() * (float) (2 * Math.PI));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DABS)
+    public Raster drawDabs() {
+        _painter.drawDabs(_raster, brush, _dabs);
+        return _raster;
+    }
+}
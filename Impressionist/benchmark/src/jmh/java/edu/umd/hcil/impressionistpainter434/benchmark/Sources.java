@@ -0,0 +1,35 @@
+package edu.umd.hcil.impressionistpainter434.benchmark;
+
+import edu.umd.hcil.impressionistpainter434.core.SourceSampler;
+
+/**
+ * Synthetic source images, so that benchmarks don't depend on image files
+ */
+final class Sources {
+    private Sources() {
+    }
+
+    /**
+     * Returns a 4:3 source of about megapixels million pixels, filled with smooth gradients and
+     * some per-pixel noise (like a photo, averages vary from dab to dab)
+     */
+    static SourceSampler synthetic(int megapixels) {
+        int height = (int) Math.sqrt(megapixels * 1e6 * 3 / 4);
+        int width = height * 4 / 3;
+        SourceSampler sampler = new SourceSampler();
+        int[] pixels = sampler.obtainBuffer(width, height);
+        int noise = 0x9e3779b9;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                noise ^= noise << 13;
+                noise ^= noise >>> 17;
+                noise ^= noise << 5;
+                int r = (x * 255 / width + (noise & 0xf)) & 0xff;
+                int g = (y * 255 / height + ((noise >> 4) & 0xf)) & 0xff;
+                int b = ((x + y) & 0xff);
+                pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return sampler;
+    }
+}
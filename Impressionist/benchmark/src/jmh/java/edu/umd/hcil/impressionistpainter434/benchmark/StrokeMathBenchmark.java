@@ -0,0 +1,82 @@
+package edu.umd.hcil.impressionistpainter434.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.umd.hcil.impressionistpainter434.core.BrushDynamics;
+import edu.umd.hcil.impressionistpainter434.core.DabBuffer;
+import edu.umd.hcil.impressionistpainter434.core.SourceSampler;
+import edu.umd.hcil.impressionistpainter434.core.Splatter;
+import edu.umd.hcil.impressionistpainter434.core.StrokeBuilder;
+
+/**
+ * The per-sample math of the touch path: view to painting mapping, brush speed, dab spacing
+ * and color sampling, plus the splatter offsets. Should allocate nothing.
+ */
+@State(Scope.Thread)
+public class StrokeMathBenchmark {
+    private static final int SAMPLES = 256;
+
+    private final BrushDynamics _dynamics = new BrushDynamics();
+    private final SourceSampler _sampler = Sources.synthetic(1);
+    private final StrokeBuilder _stroke = new StrokeBuilder(_dynamics, _sampler);
+    private final DabBuffer _dabs = new DabBuffer();
+    private final Splatter _splatter = new Splatter();
+    private final float[] _circles = new float[3 * Splatter.COUNT];
+
+    private final float[] _x = new float[SAMPLES];
+    private final float[] _y = new float[SAMPLES];
+    private final long[] _time = new long[SAMPLES];
+
+    @Setup
+    public void setUp() {
+        _dynamics.setMinRadius(5);
+        _dynamics.setBaseAlpha(50);
+        // Zoomed in 2x and panned, like a typical setMatrix
+        _stroke.setInverseMatrix(new float[] {0.5f, 0, 40, 0, 0.5f, 30, 0, 0, 1});
+        // A wavy stroke across the view, one sample every 4ms
+        for (int i = 0; i < SAMPLES; i++) {
+            _x[i] = 50 + i * 6;
+            _y[i] = 400 + (float) Math.sin(i / 10.0) * 200;
+            _time[i] = i * 4;
+        }
+        // Make sure the dab buffer is big enough before measuring
+        addStroke();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public DabBuffer addSample() {
+        addStroke();
+        return _dabs;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void getSpeed(Blackhole blackhole) {
+        for (int i = 1; i < SAMPLES; i++) {
+            blackhole.consume(BrushDynamics.getSpeed(_x[i] - _x[i - 1], _y[i] - _y[i - 1], _time[i] - _time[i - 1]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public float[] splatter() {
+        for (int i = 0; i < SAMPLES; i++) {
+            _splatter.generate(_x[i], _y[i], 5 + (i & 15), 0x80ff8040 + i, _circles);
+        }
+        return _circles;
+    }
+
+    private void addStroke() {
+        _dabs.clear();
+        _stroke.begin(_x[0], _y[0], _time[0]);
+        for (int i = 1; i < SAMPLES; i++) {
+            _stroke.addSample(_x[i], _y[i], _time[i], _dabs);
+        }
+    }
+}
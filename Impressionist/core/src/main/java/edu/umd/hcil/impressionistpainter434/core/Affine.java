@@ -0,0 +1,149 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * A 2D affine transform with the same value layout as {@code android.graphics.Matrix}, so
+ * values can be copied between the two with {@code getValues}/{@code setValues}. Only the
+ * affine part is used; the perspective row is always (0, 0, 1).
+ *
+ * Mapping is allocation-free: {@link #mapPoint} leaves its result in {@link #getMappedX()} and
+ * {@link #getMappedY()}.
+ */
+public class Affine {
+    public static final int MSCALE_X = 0;
+    public static final int MSKEW_X = 1;
+    public static final int MTRANS_X = 2;
+    public static final int MSKEW_Y = 3;
+    public static final int MSCALE_Y = 4;
+    public static final int MTRANS_Y = 5;
+
+    private float _scaleX, _skewX, _transX;
+    private float _skewY, _scaleY, _transY;
+
+    private float _mappedX;
+    private float _mappedY;
+
+    public Affine() {
+        reset();
+    }
+
+    /**
+     * Sets this to identity
+     */
+    public void reset() {
+        set(1, 0, 0, 0, 1, 0);
+    }
+
+    public void set(Affine other) {
+        set(other._scaleX, other._skewX, other._transX, other._skewY, other._scaleY, other._transY);
+    }
+
+    public void set(float scaleX, float skewX, float transX, float skewY, float scaleY, float transY) {
+        _scaleX = scaleX;
+        _skewX = skewX;
+        _transX = transX;
+        _skewY = skewY;
+        _scaleY = scaleY;
+        _transY = transY;
+    }
+
+    /**
+     * @param values 3x3 matrix in row-major order, as returned by {@code Matrix.getValues}
+     */
+    public void setValues(float[] values) {
+        set(values[MSCALE_X], values[MSKEW_X], values[MTRANS_X], values[MSKEW_Y], values[MSCALE_Y], values[MTRANS_Y]);
+    }
+
+    /**
+     * @param out at least 9 long, filled in row-major order
+     */
+    public void getValues(float[] out) {
+        out[MSCALE_X] = _scaleX;
+        out[MSKEW_X] = _skewX;
+        out[MTRANS_X] = _transX;
+        out[MSKEW_Y] = _skewY;
+        out[MSCALE_Y] = _scaleY;
+        out[MTRANS_Y] = _transY;
+        out[6] = 0;
+        out[7] = 0;
+        out[8] = 1;
+    }
+
+    public float getScaleX() {
+        return _scaleX;
+    }
+
+    public float getScaleY() {
+        return _scaleY;
+    }
+
+    public void setScale(float sx, float sy) {
+        set(sx, 0, 0, 0, sy, 0);
+    }
+
+    /**
+     * this = this * T(dx, dy): translates before the current transform
+     */
+    public void preTranslate(float dx, float dy) {
+        _transX += _scaleX * dx + _skewX * dy;
+        _transY += _skewY * dx + _scaleY * dy;
+    }
+
+    /**
+     * this = T(dx, dy) * this: translates after the current transform
+     */
+    public void postTranslate(float dx, float dy) {
+        _transX += dx;
+        _transY += dy;
+    }
+
+    /**
+     * Sets out to the inverse of this, if there is one
+     * @return false, leaving out untouched, if this is not invertible
+     */
+    public boolean invert(Affine out) {
+        float det = _scaleX * _scaleY - _skewX * _skewY;
+        if (det == 0 || Float.isNaN(det) || Float.isInfinite(det)) {
+            return false;
+        }
+        float inv = 1 / det;
+        out.set(_scaleY * inv, -_skewX * inv, (_skewX * _transY - _scaleY * _transX) * inv,
+                -_skewY * inv, _scaleX * inv, (_skewY * _transX - _scaleX * _transY) * inv);
+        return true;
+    }
+
+    /**
+     * Maps (x, y), see {@link #getMappedX()} and {@link #getMappedY()}
+     */
+    public void mapPoint(float x, float y) {
+        _mappedX = _scaleX * x + _skewX * y + _transX;
+        _mappedY = _skewY * x + _scaleY * y + _transY;
+    }
+
+    public float getMappedX() {
+        return _mappedX;
+    }
+
+    public float getMappedY() {
+        return _mappedY;
+    }
+
+    /**
+     * Maps a rect in place to the bounds of its mapped corners
+     * @param rect {left, top, right, bottom}
+     */
+    public void mapRect(float[] rect) {
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        for (int corner = 0; corner < 4; corner++) {
+            mapPoint(rect[(corner & 1) == 0 ? 0 : 2], rect[corner < 2 ? 1 : 3]);
+            left = Math.min(left, _mappedX);
+            right = Math.max(right, _mappedX);
+            top = Math.min(top, _mappedY);
+            bottom = Math.max(bottom, _mappedY);
+        }
+        rect[0] = left;
+        rect[1] = top;
+        rect[2] = right;
+        rect[3] = bottom;
+    }
+}
@@ -0,0 +1,64 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * The auto-paint dab layout: one dab per cell of a regular grid, jittered within its cell, with a
+ * random brush speed and direction, and the average source color under the brush.
+ *
+ * Cells belong to the tile their top left corner falls in, so a painting split into tiles gets
+ * exactly the same dabs as one painted whole, given the same random sequence per tile, see
+ * {@link SplitRandom#setSeed(long, long)}.
+ */
+public class AutoPaintGrid {
+    /**
+     * Distance between auto-paint dabs, in view pixels
+     */
+    public static final int GRID_STEP = 10;
+
+    private final StrokeBuilder _stroke;
+    private final float _gridStep;
+
+    /**
+     * @param stroke turns grid points into dabs, see {@link StrokeBuilder#addPaintingDab}
+     * @param gridStep distance between dabs, in painting pixels
+     */
+    public AutoPaintGrid(StrokeBuilder stroke, float gridStep) {
+        _stroke = stroke;
+        _gridStep = Math.max(1f, gridStep);
+    }
+
+    public float getGridStep() {
+        return _gridStep;
+    }
+
+    /**
+     * Appends the dabs of the cells in the given tile to out
+     * @param left
+     * @param top
+     * @param right
+     * @param bottom
+     * @param random jitter and speed source
+     * @param out
+     */
+    public void generate(int left, int top, int right, int bottom, SplitRandom random, DabBuffer out) {
+        int firstColumn = (int) Math.ceil(left / _gridStep);
+        int firstRow = (int) Math.ceil(top / _gridStep);
+        for (int gx = firstColumn; gx * _gridStep < right; gx++) {
+            for (int gy = firstRow; gy * _gridStep < bottom; gy++) {
+                float x = gx * _gridStep + random.nextFloat() * _gridStep;
+                float y = gy * _gridStep + random.nextFloat() * _gridStep;
+                float speed = random.nextInt(GRID_STEP);
+                float angle = random.nextFloat() * (float) (2 * Math.PI);
+                _stroke.addPaintingDab(x, y, speed, true, angle, out);
+            }
+        }
+    }
+
+    /**
+     * How far outside their tile the dabs of a tile may reach, splatter included
+     * @param dynamics the brush dynamics the dabs are made with
+     * @param gridStep
+     */
+    public static int getMargin(BrushDynamics dynamics, float gridStep) {
+        return 2 * dynamics.radiusFor(GRID_STEP) + (int) Math.ceil(Math.max(1f, gridStep)) + 1;
+    }
+}
@@ -0,0 +1,108 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * Turns a stream of touch samples into brush speed, radius and alpha.
+ *
+ * Everything is kept in primitive fields so that it can be called for every
+ * ACTION_MOVE without allocating. The matrix scale is cached by the caller through
+ * {@link #setScale(float)} whenever the view matrix changes, not on every dab.
+ */
+public class BrushDynamics {
+    /**
+     * Cap on the brush speed, so that a jittery sample with a tiny time delta can't blow up the brush
+     */
+    public static final float MAX_SPEED = 100f;
+
+    private int _minRadius = 5;
+    private int _baseAlpha = 50;
+    private float _scale = 1f;
+
+    private float _lastX;
+    private float _lastY;
+    private long _lastTime = -1;
+    private float _speed = 0;
+
+    public void setMinRadius(int minRadius) {
+        _minRadius = minRadius;
+    }
+
+    public int getMinRadius() {
+        return _minRadius;
+    }
+
+    public void setBaseAlpha(int baseAlpha) {
+        _baseAlpha = baseAlpha;
+    }
+
+    /**
+     * Sets the scale the painting is displayed at. Brushes are divided by it so that
+     * they keep the same on-screen size at any zoom.
+     * @param scale
+     */
+    public void setScale(float scale) {
+        _scale = scale > 0 ? scale : 1f;
+    }
+
+    public float getScale() {
+        return _scale;
+    }
+
+    /**
+     * Starts a new stroke at (x, y)
+     * @param x
+     * @param y
+     * @param time event time in milliseconds
+     */
+    public void begin(float x, float y, long time) {
+        _lastX = x;
+        _lastY = y;
+        _lastTime = time;
+        _speed = 0;
+    }
+
+    /**
+     * Moves the stroke to (x, y) and returns the speed since the previous sample. Samples
+     * that share a timestamp with the previous one keep the previous speed.
+     * @param x
+     * @param y
+     * @param time event time in milliseconds
+     * @return speed, in tenths of a pixel per millisecond, at most {@link #MAX_SPEED}
+     */
+    public float update(float x, float y, long time) {
+        long dt = time - _lastTime;
+        if (dt > 0) {
+            _speed = getSpeed(x - _lastX, y - _lastY, dt);
+        }
+        _lastX = x;
+        _lastY = y;
+        _lastTime = time;
+        return _speed;
+    }
+
+    public float getSpeed() {
+        return _speed;
+    }
+
+    /**
+     * @param speed
+     * @return the brush radius for the given speed, in painting coordinates
+     */
+    public int radiusFor(float speed) {
+        int radius = (int) ((_minRadius + speed) / _scale);
+        return Math.max(_minRadius, radius);
+    }
+
+    /**
+     * @param speed
+     * @return the paint alpha for the given speed; faster strokes are more transparent
+     */
+    public int alphaFor(float speed) {
+        int alpha = (int) (_baseAlpha + (100 - (speed * 2)));
+        return Math.max(0, Math.min(255, alpha));
+    }
+
+    public static float getSpeed(float dx, float dy, long dt) {
+        float speed = (float) Math.sqrt(dx * dx + dy * dy) * 10 / dt;
+        return Math.min(MAX_SPEED, speed);
+    }
+}
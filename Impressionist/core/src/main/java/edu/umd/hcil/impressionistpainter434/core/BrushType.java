@@ -1,4 +1,4 @@
-package edu.umd.hcil.impressionistpainter434;
+package edu.umd.hcil.impressionistpainter434.core;
 
 /**
  * Created by jon on 3/23/2016.
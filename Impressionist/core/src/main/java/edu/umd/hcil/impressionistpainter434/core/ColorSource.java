@@ -0,0 +1,19 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * Source image colors, in source image coordinates
+ */
+public interface ColorSource {
+    boolean contains(int x, int y);
+
+    /**
+     * @return packed ARGB color at (x, y), clamped to the edge of the image
+     */
+    int sample(float x, float y);
+
+    /**
+     * @param radius half the footprint width, in source pixels
+     * @return packed ARGB average color of the square footprint centered on (cx, cy)
+     */
+    int sampleAverage(float cx, float cy, int radius);
+}
@@ -0,0 +1,145 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * A batch of brush dabs in painting (off-screen bitmap) coordinates, stored in parallel
+ * primitive arrays. The buffer grows as needed and is meant to be cleared and reused,
+ * so steady-state painting doesn't allocate.
+ *
+ * The buffer also keeps the union of the dabs' bounds so that a whole batch can be
+ * invalidated at once.
+ */
+public class DabBuffer {
+    private float[] _x;
+    private float[] _y;
+    private int[] _radius;
+    private int[] _color;
+    private float[] _angle;
+    private int _size = 0;
+
+    private float _left, _top, _right, _bottom;
+
+    public DabBuffer() {
+        this(64);
+    }
+
+    public DabBuffer(int initialCapacity) {
+        initialCapacity = Math.max(1, initialCapacity);
+        _x = new float[initialCapacity];
+        _y = new float[initialCapacity];
+        _radius = new int[initialCapacity];
+        _color = new int[initialCapacity];
+        _angle = new float[initialCapacity];
+        clear();
+    }
+
+    public void clear() {
+        _size = 0;
+        _left = Float.MAX_VALUE;
+        _top = Float.MAX_VALUE;
+        _right = -Float.MAX_VALUE;
+        _bottom = -Float.MAX_VALUE;
+    }
+
+    /**
+     * Appends a dab with no particular direction
+     * @param x
+     * @param y
+     * @param radius brush radius, as computed by {@link BrushDynamics#radiusFor(float)}
+     * @param color ARGB color, alpha included
+     */
+    public void add(float x, float y, int radius, int color) {
+        add(x, y, radius, color, 0);
+    }
+
+    /**
+     * Appends a dab
+     * @param x
+     * @param y
+     * @param radius brush radius, as computed by {@link BrushDynamics#radiusFor(float)}
+     * @param color ARGB color, alpha included
+     * @param angle stroke direction in radians, which line brushes are drawn along
+     */
+    public void add(float x, float y, int radius, int color, float angle) {
+        if (_size == _x.length) {
+            grow();
+        }
+        _x[_size] = x;
+        _y[_size] = y;
+        _radius[_size] = radius;
+        _color[_size] = color;
+        _angle[_size] = angle;
+        _size++;
+
+        _left = Math.min(_left, x - radius);
+        _top = Math.min(_top, y - radius);
+        _right = Math.max(_right, x + radius);
+        _bottom = Math.max(_bottom, y + radius);
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    public float getX(int i) {
+        return _x[i];
+    }
+
+    public float getY(int i) {
+        return _y[i];
+    }
+
+    public int getRadius(int i) {
+        return _radius[i];
+    }
+
+    public int getColor(int i) {
+        return _color[i];
+    }
+
+    public float getAngle(int i) {
+        return _angle[i];
+    }
+
+    /**
+     * The bounds below are the union of every dab's square of side 2 * radius.
+     * They are undefined while the buffer is empty.
+     */
+    public float getLeft() {
+        return _left;
+    }
+
+    public float getTop() {
+        return _top;
+    }
+
+    public float getRight() {
+        return _right;
+    }
+
+    public float getBottom() {
+        return _bottom;
+    }
+
+    private void grow() {
+        int capacity = _x.length * 2;
+        float[] x = new float[capacity];
+        float[] y = new float[capacity];
+        int[] radius = new int[capacity];
+        int[] color = new int[capacity];
+        float[] angle = new float[capacity];
+        System.arraycopy(_x, 0, x, 0, _size);
+        System.arraycopy(_y, 0, y, 0, _size);
+        System.arraycopy(_radius, 0, radius, 0, _size);
+        System.arraycopy(_color, 0, color, 0, _size);
+        System.arraycopy(_angle, 0, angle, 0, _size);
+        _x = x;
+        _y = y;
+        _radius = radius;
+        _color = color;
+        _angle = angle;
+    }
+}
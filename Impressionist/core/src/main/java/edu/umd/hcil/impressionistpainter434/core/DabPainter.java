@@ -0,0 +1,170 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * The brush shapes: turns dabs into circles, rects and lines on a {@link PaintTarget}. This is
+ * the one place that knows what every {@link BrushType} looks like, whether the target is a
+ * {@link Raster} or a Canvas. Each thread that paints dabs needs its own instance.
+ *
+ * Line brushes are drawn along each dab's angle. Their segments are collected in a reusable
+ * array and handed to the target with one {@link PaintTarget#drawLines} call per run of
+ * segments that share a color and width (every piece of a LineSplatter dab, and consecutive
+ * dabs over flat color), instead of one call per segment.
+ */
+public class DabPainter {
+    /**
+     * Line brushes are this many times longer than they are wide
+     */
+    public static final int LINE_ASPECT = 4;
+
+    private final Splatter _splatter = new Splatter();
+    private final float[] _circles = new float[3 * Splatter.COUNT];
+    private float _originX = 0;
+    private float _originY = 0;
+
+    // Pending line segments, all of the same paint, on _lineTarget
+    private float[] _lines = new float[4 * 64];
+    private int _lineCount = 0;
+    private PaintTarget _lineTarget = null;
+    private int _lineColor;
+    private float _lineWidth;
+
+    /**
+     * Sets the painting coordinates of the target's top left pixel, e.g., for painting one tile
+     * into its own raster
+     */
+    public void setOrigin(float x, float y) {
+        _originX = x;
+        _originY = y;
+    }
+
+    /**
+     * Paints one dab with no particular direction
+     * @param target
+     * @param brushType
+     * @param x
+     * @param y
+     * @param radius brush radius, as computed by {@link BrushDynamics#radiusFor(float)}
+     * @param color ARGB color, alpha included
+     */
+    public void drawDab(PaintTarget target, BrushType brushType, float x, float y, int radius, int color) {
+        drawDab(target, brushType, x, y, radius, color, 0);
+    }
+
+    /**
+     * Paints one dab
+     * @param target
+     * @param brushType
+     * @param x
+     * @param y
+     * @param radius brush radius, as computed by {@link BrushDynamics#radiusFor(float)}
+     * @param color ARGB color, alpha included
+     * @param angle direction for line brushes, in radians
+     */
+    public void drawDab(PaintTarget target, BrushType brushType, float x, float y, int radius, int color,
+                        float angle) {
+        addDab(target, brushType, x, y, radius, color, angle);
+        flushLines();
+    }
+
+    /**
+     * Paints every dab in dabs with the same brush
+     */
+    public void drawDabs(PaintTarget target, BrushType brushType, DabBuffer dabs) {
+        final int count = dabs.size();
+        for (int d = 0; d < count; d++) {
+            addDab(target, brushType, dabs.getX(d), dabs.getY(d), dabs.getRadius(d), dabs.getColor(d), dabs.getAngle(d));
+        }
+        flushLines();
+    }
+
+    /**
+     * Sets out to the area a dab may touch, splatter included
+     * @param out {left, top, right, bottom}
+     */
+    public static void getBounds(BrushType brushType, float x, float y, int radius, float[] out) {
+        if (brushType == BrushType.CircleSplatter || brushType == BrushType.LineSplatter) {
+            // Splatter pieces are offset by up to radius and are up to radius big themselves
+            out[0] = x - radius;
+            out[1] = y - radius;
+            out[2] = x + 2 * radius;
+            out[3] = y + 2 * radius;
+        } else {
+            out[0] = x - radius;
+            out[1] = y - radius;
+            out[2] = x + radius;
+            out[3] = y + radius;
+        }
+    }
+
+    private void addDab(PaintTarget target, BrushType brushType, float x, float y, int radius, int color,
+                        float angle) {
+        float tx = x - _originX;
+        float ty = y - _originY;
+        switch (brushType) {
+            case Circle:
+                flushLines();
+                target.fillCircle(tx, ty, radius / 2, color);
+                break;
+            case Square:
+                flushLines();
+                target.fillRect(tx - radius / 2, ty - radius / 2, tx + radius / 2, ty + radius / 2, color);
+                break;
+            case Line: {
+                float hx = (float) Math.cos(angle) * radius / 2;
+                float hy = (float) Math.sin(angle) * radius / 2;
+                addLine(target, tx - hx, ty - hy, tx + hx, ty + hy, Math.max(1f, radius / LINE_ASPECT), color);
+                break;
+            }
+            case CircleSplatter:
+            case LineSplatter: {
+                // Seeded with painting coordinates, so that tiles agree on where the pieces go
+                _splatter.generate(x, y, radius, color, _circles);
+                boolean lines = brushType == BrushType.LineSplatter;
+                float cos = lines ? (float) Math.cos(angle) / 2 : 0;
+                float sin = lines ? (float) Math.sin(angle) / 2 : 0;
+                // One width for all pieces of a dab, so that they batch into one call
+                float width = Math.max(1f, radius / (2f * LINE_ASPECT));
+                if (!lines) {
+                    flushLines();
+                }
+                for (int i = 0; i < Splatter.COUNT; i++) {
+                    float cx = _circles[3 * i] - _originX;
+                    float cy = _circles[3 * i + 1] - _originY;
+                    float size = _circles[3 * i + 2];
+                    if (lines) {
+                        addLine(target, cx - cos * size, cy - sin * size, cx + cos * size, cy + sin * size, width, color);
+                    } else {
+                        target.fillCircle(cx, cy, size, color);
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    private void addLine(PaintTarget target, float x0, float y0, float x1, float y1, float width, int color) {
+        if (_lineCount > 0 && (target != _lineTarget || color != _lineColor || width != _lineWidth)) {
+            flushLines();
+        }
+        if (_lineCount + 4 > _lines.length) {
+            float[] lines = new float[_lines.length * 2];
+            System.arraycopy(_lines, 0, lines, 0, _lineCount);
+            _lines = lines;
+        }
+        _lineTarget = target;
+        _lineColor = color;
+        _lineWidth = width;
+        _lines[_lineCount++] = x0;
+        _lines[_lineCount++] = y0;
+        _lines[_lineCount++] = x1;
+        _lines[_lineCount++] = y1;
+    }
+
+    private void flushLines() {
+        if (_lineCount > 0) {
+            _lineTarget.drawLines(_lines, 0, _lineCount, _lineWidth, _lineColor);
+            _lineCount = 0;
+        }
+        _lineTarget = null;
+    }
+}
@@ -0,0 +1,171 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring of paint commands, used to hand dabs from
+ * the UI thread to the render thread.
+ *
+ * Records are stored in parallel primitive arrays, so nothing is allocated per command.
+ * The producer writes any number of records and then publishes them together with
+ * {@link #commit()}. The consumer never sees records that weren't committed yet, but a bounded
+ * {@link #drain(Consumer, int)} may stop partway through a batch, and the rest of it comes with
+ * the next drain. When the ring is full, offers fail instead of blocking. The UI thread must
+ * never wait on rendering.
+ */
+public class DabQueue {
+    public static final int TYPE_DAB = 0;
+    public static final int TYPE_CLEAR = 1;
+    public static final int TYPE_END_STROKE = 2;
+    public static final int TYPE_UNDO = 3;
+    public static final int TYPE_REDO = 4;
+
+    /**
+     * Receives records on the consumer thread, see {@link #drain(Consumer, int)}
+     */
+    public interface Consumer {
+        void onDab(float x, float y, int radius, int color, float angle, int brush);
+        void onClear(int width, int height);
+
+        /**
+         * @param type one of TYPE_END_STROKE, TYPE_UNDO or TYPE_REDO
+         */
+        void onCommand(int type);
+    }
+
+    private final int _mask;
+    private final byte[] _type;
+    private final float[] _x;
+    private final float[] _y;
+    private final int[] _radius;
+    private final int[] _color;
+    private final float[] _angle;
+    private final byte[] _brush;
+
+    // Next record to read. Written by the consumer only
+    private final AtomicLong _head = new AtomicLong();
+    // End of the published records. Written by the producer only
+    private final AtomicLong _tail = new AtomicLong();
+
+    // Producer-local state
+    private long _pendingTail = 0;
+    private long _cachedHead = 0;
+
+    /**
+     * @param capacity number of records, rounded up to a power of two
+     */
+    public DabQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        _mask = size - 1;
+        _type = new byte[size];
+        _x = new float[size];
+        _y = new float[size];
+        _radius = new int[size];
+        _color = new int[size];
+        _angle = new float[size];
+        _brush = new byte[size];
+    }
+
+    public int capacity() {
+        return _mask + 1;
+    }
+
+    /**
+     * Producer: appends a dab. It becomes visible to the consumer on the next {@link #commit()}.
+     * @return false if the queue is full and the dab was dropped
+     */
+    public boolean offerDab(float x, float y, int radius, int color, float angle, int brush) {
+        if (!reserve()) {
+            return false;
+        }
+        int i = (int) (_pendingTail & _mask);
+        _type[i] = TYPE_DAB;
+        _x[i] = x;
+        _y[i] = y;
+        _radius[i] = radius;
+        _color[i] = color;
+        _angle[i] = angle;
+        _brush[i] = (byte) brush;
+        _pendingTail++;
+        return true;
+    }
+
+    /**
+     * Producer: appends a command that resets the painting to an empty width x height surface
+     * @return false if the queue is full and the command was dropped
+     */
+    public boolean offerClear(int width, int height) {
+        if (!reserve()) {
+            return false;
+        }
+        int i = (int) (_pendingTail & _mask);
+        _type[i] = TYPE_CLEAR;
+        _radius[i] = width;
+        _color[i] = height;
+        _pendingTail++;
+        return true;
+    }
+
+    /**
+     * Producer: appends a command without arguments, see {@link Consumer#onCommand(int)}
+     * @return false if the queue is full and the command was dropped
+     */
+    public boolean offerCommand(int type) {
+        if (!reserve()) {
+            return false;
+        }
+        _type[(int) (_pendingTail & _mask)] = (byte) type;
+        _pendingTail++;
+        return true;
+    }
+
+    /**
+     * Producer: publishes everything offered since the last commit
+     */
+    public void commit() {
+        _tail.lazySet(_pendingTail);
+    }
+
+    /**
+     * Consumer: hands up to max published records to consumer, in order. Stops after max
+     * records even in the middle of a committed batch.
+     * @return the number of records consumed
+     */
+    public int drain(Consumer consumer, int max) {
+        long head = _head.get();
+        long end = Math.min(_tail.get(), head + max);
+        for (long r = head; r < end; r++) {
+            int i = (int) (r & _mask);
+            switch (_type[i]) {
+                case TYPE_DAB:
+                    consumer.onDab(_x[i], _y[i], _radius[i], _color[i], _angle[i], _brush[i]);
+                    break;
+                case TYPE_CLEAR:
+                    consumer.onClear(_radius[i], _color[i]);
+                    break;
+                default:
+                    consumer.onCommand(_type[i]);
+                    break;
+            }
+        }
+        _head.lazySet(end);
+        return (int) (end - head);
+    }
+
+    /**
+     * Consumer: true if there is nothing published to drain
+     */
+    public boolean isEmpty() {
+        return _head.get() == _tail.get();
+    }
+
+    private boolean reserve() {
+        if (_pendingTail - _cachedHead > _mask) {
+            _cachedHead = _head.get();
+            if (_pendingTail - _cachedHead > _mask) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
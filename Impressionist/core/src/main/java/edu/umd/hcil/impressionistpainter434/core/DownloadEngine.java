@@ -0,0 +1,285 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads files over HTTP, a bounded number at a time, and turns each into a result with a
+ * {@link Decoder}, e.g., a downsampled bitmap.
+ *
+ * Bodies are streamed to a temporary file rather than buffered in memory, and the decoder reads
+ * them from there; the file is deleted once decoded. Reading every body to the end and closing
+ * it, rather than disconnecting, lets HttpURLConnection reuse kept-alive connections for the
+ * next download from the same host.
+ *
+ * Downloads in flight are kept in a concurrent map by URL: asking for a URL that is already
+ * being downloaded shares its future and adds the callback to it, instead of starting another.
+ * Progress callbacks are throttled to one per {@link #setProgressInterval(long) interval}, plus
+ * one when the body is complete.
+ *
+ * @param <T> the result type
+ */
+public class DownloadEngine<T> {
+    public static final long DEFAULT_PROGRESS_INTERVAL_MS = 100;
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final long IDLE_THREAD_SECONDS = 30;
+
+    /**
+     * Turns a downloaded file into a result. Called on a download thread.
+     */
+    public interface Decoder<T> {
+        /**
+         * @param url
+         * @param file the body; deleted when this returns
+         * @return the result, may be null
+         */
+        T decode(String url, File file) throws IOException;
+    }
+
+    /**
+     * Told about one download, on a download thread
+     */
+    public interface Callback<T> {
+        /**
+         * @param url
+         * @param bytesRead
+         * @param contentLength -1 if the server didn't say
+         */
+        void onProgress(String url, long bytesRead, long contentLength);
+
+        void onComplete(String url, T result);
+
+        /**
+         * @param url
+         * @param error e.g., an IOException, or a CancellationException if cancelled
+         */
+        void onError(String url, Exception error);
+    }
+
+    private final File _directory;
+    private final Decoder<T> _decoder;
+    private final ThreadPoolExecutor _executor;
+    private final ConcurrentHashMap<String, Download> _inFlight = new ConcurrentHashMap<>();
+    private volatile long _progressIntervalNs = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PROGRESS_INTERVAL_MS);
+
+    /**
+     * @param maxConcurrent downloads that may run at once, more are queued
+     * @param directory where bodies are streamed to
+     * @param decoder
+     */
+    public DownloadEngine(int maxConcurrent, File directory, Decoder<T> decoder) {
+        _directory = directory;
+        _decoder = decoder;
+        final int threads = Math.max(1, maxConcurrent);
+        _executor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger _count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "DownloadEngine-" + _count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // Nothing lingers between batches of downloads
+        _executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param intervalMs least time between progress callbacks of a download
+     */
+    public void setProgressInterval(long intervalMs) {
+        _progressIntervalNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervalMs));
+    }
+
+    /**
+     * Starts downloading url, or joins the download of it already in flight
+     * @param url
+     * @param callback may be null
+     * @return the result, shared with every other request for url while it is in flight
+     */
+    public Future<T> download(String url, Callback<T> callback) {
+        Download created = new Download(url);
+        Download existing = _inFlight.putIfAbsent(url, created);
+        Download download = existing != null ? existing : created;
+        if (callback != null && !download.addCallback(callback)) {
+            // It finished in between, tell this caller directly
+            download.deliver(callback);
+        }
+        if (existing == null) {
+            _executor.execute(created.future);
+        }
+        return download.future;
+    }
+
+    /**
+     * The number of distinct URLs being downloaded or waiting for a thread
+     */
+    public int getInFlightCount() {
+        return _inFlight.size();
+    }
+
+    /**
+     * Cancels every download and stops the threads
+     */
+    public void shutdown() {
+        for (Download download : _inFlight.values()) {
+            download.future.cancel(true);
+        }
+        _executor.shutdownNow();
+    }
+
+    private class Download implements Callable<T> {
+        final String url;
+        final FutureTask<T> future = new FutureTask<T>(this) {
+            @Override
+            protected void done() {
+                finish();
+            }
+        };
+        // Guarded by this
+        private final List<Callback<T>> _callbacks = new ArrayList<>();
+        private boolean _finished = false;
+
+        Download(String url) {
+            this.url = url;
+        }
+
+        synchronized boolean addCallback(Callback<T> callback) {
+            if (_finished) {
+                return false;
+            }
+            _callbacks.add(callback);
+            return true;
+        }
+
+        @Override
+        public T call() throws Exception {
+            try {
+                File file = fetch(this);
+                try {
+                    return _decoder.decode(url, file);
+                } finally {
+                    file.delete();
+                }
+            } finally {
+                // Before the future completes, so that whoever waited on it starts over
+                _inFlight.remove(url, this);
+            }
+        }
+
+        void progress(long bytesRead, long contentLength) {
+            List<Callback<T>> callbacks;
+            synchronized (this) {
+                callbacks = new ArrayList<>(_callbacks);
+            }
+            for (Callback<T> callback : callbacks) {
+                callback.onProgress(url, bytesRead, contentLength);
+            }
+        }
+
+        void deliver(Callback<T> callback) {
+            try {
+                callback.onComplete(url, future.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                callback.onError(url, cause instanceof Exception ? (Exception) cause : e);
+            } catch (CancellationException e) {
+                callback.onError(url, e);
+            } catch (InterruptedException e) {
+                // Can't happen, the future is done
+                Thread.currentThread().interrupt();
+                callback.onError(url, e);
+            }
+        }
+
+        private void finish() {
+            // Cancelled before it ran
+            _inFlight.remove(url, this);
+            List<Callback<T>> callbacks;
+            synchronized (this) {
+                _finished = true;
+                callbacks = new ArrayList<>(_callbacks);
+                _callbacks.clear();
+            }
+            for (Callback<T> callback : callbacks) {
+                deliver(callback);
+            }
+        }
+    }
+
+    private File fetch(Download download) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(download.url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        int code = connection.getResponseCode();
+        if (code < 200 || code >= 300) {
+            connection.disconnect();
+            throw new IOException("HTTP " + code + " for " + download.url);
+        }
+        long contentLength = connection.getContentLength();
+
+        File file = File.createTempFile("download", ".part", _directory);
+        boolean complete = false;
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = connection.getInputStream();
+            out = new FileOutputStream(file);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long read = 0;
+            long lastProgress = System.nanoTime();
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Download of " + download.url + " cancelled");
+                }
+                out.write(buffer, 0, count);
+                read += count;
+                long now = System.nanoTime();
+                if (now - lastProgress >= _progressIntervalNs) {
+                    lastProgress = now;
+                    download.progress(read, contentLength);
+                }
+            }
+            download.progress(read, contentLength);
+            complete = true;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            if (in != null) {
+                // Closed after reading to the end, the connection goes back to the pool
+                in.close();
+            }
+            if (!complete) {
+                connection.disconnect();
+                file.delete();
+            }
+        }
+        return file;
+    }
+}
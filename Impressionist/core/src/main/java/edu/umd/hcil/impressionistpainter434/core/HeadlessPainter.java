@@ -0,0 +1,89 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * Auto-paints a whole image into a {@link Raster}, with no Android classes involved, e.g., for
+ * batch rendering on a server or profiling on a desktop JVM.
+ *
+ * The dabs are the ones the app's auto-paint makes: the same {@link AutoPaintGrid}, the same
+ * tiles in the same order, each tile drawing from random stream (seed, tile index). Tiles are
+ * painted one after the other on the calling thread, so one painter per image is the unit of
+ * parallelism.
+ */
+public class HeadlessPainter {
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private final SourceSampler _sampler;
+    private final BrushType _brushType;
+    private final int _minRadius;
+    private final int _baseAlpha;
+    private final float _brushScale;
+    private final float _gridStep;
+    private final long _seed;
+    private int _tileSize = DEFAULT_TILE_SIZE;
+
+    /**
+     * @param sampler source colors, must not change while painting
+     * @param brushType
+     * @param minRadius see {@link BrushDynamics#setMinRadius(int)}
+     * @param baseAlpha see {@link BrushDynamics#setBaseAlpha(int)}
+     * @param brushScale see {@link BrushDynamics#setScale(float)}
+     * @param gridStep distance between dabs, in painting pixels
+     * @param seed
+     */
+    public HeadlessPainter(SourceSampler sampler, BrushType brushType, int minRadius, int baseAlpha,
+                           float brushScale, float gridStep, long seed) {
+        _sampler = sampler;
+        _brushType = brushType;
+        _minRadius = minRadius;
+        _baseAlpha = baseAlpha;
+        _brushScale = brushScale;
+        _gridStep = Math.max(1f, gridStep);
+        _seed = seed;
+    }
+
+    public void setTileSize(int tileSize) {
+        _tileSize = Math.max(16, tileSize);
+    }
+
+    /**
+     * Returns a new, transparent raster the size of the painting: the source plus
+     * {@link StrokeBuilder#SOURCE_OFFSET} on every side
+     */
+    public Raster createRaster() {
+        int margin = 2 * StrokeBuilder.SOURCE_OFFSET;
+        return new Raster(_sampler.getWidth() + margin, _sampler.getHeight() + margin);
+    }
+
+    /**
+     * Paints all of target, which is normally from {@link #createRaster()}
+     * @param target
+     * @return the number of dabs painted
+     */
+    public int paint(Raster target) {
+        BrushDynamics dynamics = new BrushDynamics();
+        dynamics.setMinRadius(_minRadius);
+        dynamics.setBaseAlpha(_baseAlpha);
+        dynamics.setScale(_brushScale);
+        AutoPaintGrid grid = new AutoPaintGrid(new StrokeBuilder(dynamics, _sampler), _gridStep);
+        DabPainter painter = new DabPainter();
+        DabBuffer dabs = new DabBuffer(1024);
+        SplitRandom random = new SplitRandom(_seed);
+
+        final int width = target.getWidth();
+        final int height = target.getHeight();
+        final int columns = (width + _tileSize - 1) / _tileSize;
+        final int rows = (height + _tileSize - 1) / _tileSize;
+        int painted = 0;
+        for (int index = 0; index < columns * rows; index++) {
+            int left = (index % columns) * _tileSize;
+            int top = (index / columns) * _tileSize;
+            dabs.clear();
+            random.setSeed(_seed, index);
+            grid.generate(left, top, Math.min(width, left + _tileSize), Math.min(height, top + _tileSize),
+                    random, dabs);
+            painter.drawDabs(target, _brushType, dabs);
+            painted += dabs.size();
+        }
+        return painted;
+    }
+}
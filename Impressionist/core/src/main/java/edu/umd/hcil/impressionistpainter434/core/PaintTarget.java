@@ -0,0 +1,26 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * Something dabs can be painted onto: an int[] {@link Raster} off-device, or a Canvas on-device.
+ * Every shape is composited src-over with an ARGB color, alpha included.
+ */
+public interface PaintTarget {
+    void fillCircle(float cx, float cy, float radius, int color);
+
+    void fillRect(float left, float top, float right, float bottom, int color);
+
+    /**
+     * Strokes the segment from (x0, y0) to (x1, y1), with butt caps
+     */
+    void drawLine(float x0, float y0, float x1, float y1, float width, int color);
+
+    /**
+     * Strokes count / 4 segments with the same paint, like {@code Canvas.drawLines}
+     * @param points {x0, y0, x1, y1} per segment
+     * @param offset
+     * @param count number of floats to use, a multiple of 4
+     * @param width
+     * @param color
+     */
+    void drawLines(float[] points, int offset, int count, float width, int color);
+}
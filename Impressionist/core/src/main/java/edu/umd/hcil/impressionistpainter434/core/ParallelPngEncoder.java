@@ -0,0 +1,293 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes an image as an 8-bit RGBA PNG, compressing horizontal strips of rows in parallel.
+ *
+ * Every strip gets its own Deflater and ends on a sync flush, a byte-aligned, non-final block
+ * boundary, so the strips' compressed bytes simply concatenate into one valid zlib stream (the
+ * last strip finishes it). Strips don't share a dictionary, which costs a little compression at
+ * each boundary. The zlib checksum is assembled from the strips' Adler-32s.
+ *
+ * Strips are written out in order as they finish, with a bounded number in flight, so memory
+ * stays a few strips' worth whatever the size of the image; the image itself is only read,
+ * a band of rows at a time.
+ *
+ * Needs {@link Deflater#SYNC_FLUSH}: Java 7, or API 19 on Android.
+ */
+public class ParallelPngEncoder {
+    public static final int DEFAULT_STRIP_HEIGHT = 64;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    // zlib header: deflate, 32K window, no preset dictionary
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9c};
+    private static final byte[] NONE = new byte[0];
+    private static final int ADLER_BASE = 65521;
+    private static final int FILTER_PAETH = 4;
+
+    private final ExecutorService _executor;
+    private final int _parallelism;
+    private int _stripHeight = DEFAULT_STRIP_HEIGHT;
+    private int _level = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * @param executor runs the strips
+     * @param parallelism how many threads the executor has for this; twice as many strips are
+     *                    kept in flight
+     */
+    public ParallelPngEncoder(ExecutorService executor, int parallelism) {
+        _executor = executor;
+        _parallelism = Math.max(1, parallelism);
+    }
+
+    public void setStripHeight(int stripHeight) {
+        _stripHeight = Math.max(1, stripHeight);
+    }
+
+    /**
+     * @param level a {@link Deflater} compression level
+     */
+    public void setLevel(int level) {
+        _level = level;
+    }
+
+    /**
+     * Writes image to out as a PNG. Does not close out.
+     * @param image
+     * @param out
+     * @throws IOException if out fails, or a strip fails to encode
+     * @throws InterruptedException if interrupted while waiting for a strip; nothing more is written
+     */
+    public void encode(PixelRows image, OutputStream out) throws IOException, InterruptedException {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Bad image size " + width + "x" + height);
+        }
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bits per channel
+        header[9] = 6; // RGBA
+        writeChunk(out, "IHDR", NONE, header, 0, header.length, NONE);
+
+        final int stripCount = (height + _stripHeight - 1) / _stripHeight;
+        final int window = 2 * _parallelism;
+        ArrayDeque<Future<Strip>> pending = new ArrayDeque<>();
+        int submitted = 0;
+        long adler = 1;
+        try {
+            for (int s = 0; s < stripCount; s++) {
+                while (submitted < stripCount && submitted - s < window) {
+                    int top = submitted * _stripHeight;
+                    pending.add(_executor.submit(new StripTask(image, top, Math.min(_stripHeight, height - top),
+                            submitted == stripCount - 1)));
+                    submitted++;
+                }
+
+                Strip strip = pending.poll().get();
+                adler = combineAdler32(adler, strip.adler, strip.rawLength);
+                byte[] trailer = NONE;
+                if (s == stripCount - 1) {
+                    trailer = new byte[4];
+                    putInt(trailer, 0, (int) adler);
+                }
+                writeChunk(out, "IDAT", s == 0 ? ZLIB_HEADER : NONE, strip.data, 0, strip.length, trailer);
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Could not encode strip", e.getCause());
+        } finally {
+            for (Future<Strip> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        writeChunk(out, "IEND", NONE, NONE, 0, 0, NONE);
+    }
+
+    /**
+     * The Adler-32 of two byte sequences one after the other, from the Adler-32s of each
+     * @param adler1 checksum of the first sequence
+     * @param adler2 checksum of the second sequence
+     * @param length2 length of the second sequence
+     */
+    public static long combineAdler32(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= 2 * ADLER_BASE) {
+            sum2 -= 2 * ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] head, byte[] data, int offset, int length,
+                                   byte[] tail) throws IOException {
+        byte[] prefix = new byte[8];
+        putInt(prefix, 0, head.length + length + tail.length);
+        for (int i = 0; i < 4; i++) {
+            prefix[4 + i] = (byte) type.charAt(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(prefix, 4, 4);
+        crc.update(head, 0, head.length);
+        crc.update(data, offset, length);
+        crc.update(tail, 0, tail.length);
+        byte[] suffix = new byte[4];
+        putInt(suffix, 0, (int) crc.getValue());
+
+        out.write(prefix);
+        out.write(head);
+        out.write(data, offset, length);
+        out.write(tail);
+        out.write(suffix);
+    }
+
+    private static void putInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static class Strip {
+        byte[] data;
+        int length;
+        long adler;
+        long rawLength;
+    }
+
+    private class StripTask implements Callable<Strip> {
+        private final PixelRows _image;
+        private final int _top;
+        private final int _rows;
+        private final boolean _last;
+
+        StripTask(PixelRows image, int top, int rows, boolean last) {
+            _image = image;
+            _top = top;
+            _rows = rows;
+            _last = last;
+        }
+
+        @Override
+        public Strip call() {
+            final int width = _image.getWidth();
+            final int rowBytes = 4 * width;
+
+            // The row above the strip too, which the filter predicts from
+            int first = Math.max(0, _top - 1);
+            int[] pixels = new int[(_top + _rows - first) * width];
+            _image.getRows(first, _top + _rows - first, pixels);
+
+            byte[] previous = new byte[rowBytes];
+            byte[] current = new byte[rowBytes];
+            byte[] filtered = new byte[1 + rowBytes];
+            filtered[0] = FILTER_PAETH;
+            if (first < _top) {
+                unpack(pixels, 0, width, previous);
+            }
+
+            Strip strip = new Strip();
+            strip.data = new byte[Math.max(1024, _rows * rowBytes / 4)];
+            Adler32 adler = new Adler32();
+            Deflater deflater = new Deflater(_level, true);
+            try {
+                for (int y = _top; y < _top + _rows; y++) {
+                    unpack(pixels, (y - first) * width, width, current);
+                    paeth(current, previous, filtered);
+                    adler.update(filtered, 0, filtered.length);
+                    deflater.setInput(filtered);
+                    while (!deflater.needsInput()) {
+                        deflate(deflater, strip, Deflater.NO_FLUSH);
+                    }
+                    byte[] swap = previous;
+                    previous = current;
+                    current = swap;
+                }
+                if (_last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        deflate(deflater, strip, Deflater.NO_FLUSH);
+                    }
+                } else {
+                    // A sync flush is complete once it leaves room in the output
+                    while (deflate(deflater, strip, Deflater.SYNC_FLUSH)) {
+                        // keep flushing
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+            strip.adler = adler.getValue();
+            strip.rawLength = (long) _rows * filtered.length;
+            return strip;
+        }
+
+        /**
+         * Deflates into the free end of strip.data, growing it first if it is full
+         * @return whether the output filled all the space it was given
+         */
+        private boolean deflate(Deflater deflater, Strip strip, int flush) {
+            if (strip.length == strip.data.length) {
+                byte[] data = new byte[strip.data.length * 2];
+                System.arraycopy(strip.data, 0, data, 0, strip.length);
+                strip.data = data;
+            }
+            int space = strip.data.length - strip.length;
+            int written = deflater.deflate(strip.data, strip.length, space, flush);
+            strip.length += written;
+            return written == space;
+        }
+    }
+
+    private static void unpack(int[] pixels, int offset, int width, byte[] out) {
+        for (int x = 0; x < width; x++) {
+            int color = pixels[offset + x];
+            out[4 * x] = (byte) (color >>> 16);
+            out[4 * x + 1] = (byte) (color >>> 8);
+            out[4 * x + 2] = (byte) color;
+            out[4 * x + 3] = (byte) (color >>> 24);
+        }
+    }
+
+    /**
+     * Writes the Paeth-filtered row after the filter type byte in out
+     */
+    private static void paeth(byte[] row, byte[] previous, byte[] out) {
+        for (int i = 0; i < row.length; i++) {
+            int a = i >= 4 ? row[i - 4] & 0xff : 0;
+            int b = previous[i] & 0xff;
+            int c = i >= 4 ? previous[i - 4] & 0xff : 0;
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            int predicted = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+            out[i + 1] = (byte) (row[i] - predicted);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * An image that can be read a band of rows at a time, e.g., for encoding it without first
+ * copying all of it into one array.
+ */
+public interface PixelRows {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Copies count rows, starting at top, into out as packed, non-premultiplied ARGB, in the
+     * format of {@code Bitmap.getPixels}. Must be safe to call from several threads at once.
+     * @param top
+     * @param count
+     * @param out row stride == width, at least count * width long
+     */
+    void getRows(int top, int count, int[] out);
+}
@@ -0,0 +1,217 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import java.util.Arrays;
+
+/**
+ * An ARGB image backed by an int[], in the same packed, non-premultiplied format as
+ * {@code Bitmap.getPixels}. Shapes are filled by pixel center, without antialiasing, and
+ * composited src-over.
+ */
+public class Raster implements PaintTarget, PixelRows {
+    private final int _width;
+    private final int _height;
+    private final int[] _pixels;
+
+    // Output of crossEdge: the x extent where a scanline crosses a convex shape
+    private float _spanLeft;
+    private float _spanRight;
+
+    public Raster(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @param pixels row stride == width, at least width * height long
+     */
+    public Raster(int width, int height, int[] pixels) {
+        if (width < 0 || height < 0 || pixels.length < width * height) {
+            throw new IllegalArgumentException("Bad raster size " + width + "x" + height);
+        }
+        _width = width;
+        _height = height;
+        _pixels = pixels;
+    }
+
+    @Override
+    public int getWidth() {
+        return _width;
+    }
+
+    @Override
+    public int getHeight() {
+        return _height;
+    }
+
+    /**
+     * The backing array, row stride == width
+     */
+    public int[] getPixels() {
+        return _pixels;
+    }
+
+    @Override
+    public void getRows(int top, int count, int[] out) {
+        System.arraycopy(_pixels, top * _width, out, 0, count * _width);
+    }
+
+    public int getPixel(int x, int y) {
+        return _pixels[y * _width + x];
+    }
+
+    /**
+     * Sets every pixel to transparent
+     */
+    public void clear() {
+        Arrays.fill(_pixels, 0, _width * _height, 0);
+    }
+
+    /**
+     * Composites color over the pixels [x0, x1) of row y, clipped to the raster
+     */
+    public void fillSpan(int y, int x0, int x1, int color) {
+        if (y < 0 || y >= _height) {
+            return;
+        }
+        x0 = Math.max(0, x0);
+        x1 = Math.min(_width, x1);
+        int alpha = color >>> 24;
+        if (x0 >= x1 || alpha == 0) {
+            return;
+        }
+        int row = y * _width;
+        if (alpha == 255) {
+            Arrays.fill(_pixels, row + x0, row + x1, color);
+            return;
+        }
+        for (int i = row + x0; i < row + x1; i++) {
+            _pixels[i] = blend(_pixels[i], color, alpha);
+        }
+    }
+
+    /**
+     * Composites color over the pixels whose centers are in the rectangle
+     */
+    @Override
+    public void fillRect(float left, float top, float right, float bottom, int color) {
+        int x0 = (int) Math.ceil(left - 0.5f);
+        int x1 = (int) Math.ceil(right - 0.5f);
+        int y0 = Math.max(0, (int) Math.ceil(top - 0.5f));
+        int y1 = Math.min(_height, (int) Math.ceil(bottom - 0.5f));
+        for (int y = y0; y < y1; y++) {
+            fillSpan(y, x0, x1, color);
+        }
+    }
+
+    /**
+     * Composites color over the pixels whose centers are in the circle
+     */
+    @Override
+    public void fillCircle(float cx, float cy, float radius, int color) {
+        if (radius <= 0) {
+            return;
+        }
+        int y0 = Math.max(0, (int) Math.ceil(cy - radius - 0.5f));
+        int y1 = Math.min(_height - 1, (int) Math.floor(cy + radius - 0.5f));
+        float radiusSquared = radius * radius;
+        for (int y = y0; y <= y1; y++) {
+            float dy = y + 0.5f - cy;
+            float halfWidth = (float) Math.sqrt(radiusSquared - dy * dy);
+            int x0 = (int) Math.ceil(cx - halfWidth - 0.5f);
+            int x1 = (int) Math.floor(cx + halfWidth - 0.5f) + 1;
+            fillSpan(y, x0, x1, color);
+        }
+    }
+
+    /**
+     * Composites color over the pixels whose centers are in the width wide band along the
+     * segment, i.e., a rotated rectangle
+     */
+    @Override
+    public void drawLine(float x0, float y0, float x1, float y1, float width, int color) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length == 0 || width <= 0) {
+            return;
+        }
+        // Half-width normal
+        float nx = -dy / length * width / 2;
+        float ny = dx / length * width / 2;
+        float ax = x0 + nx, ay = y0 + ny;
+        float bx = x1 + nx, by = y1 + ny;
+        float cx = x1 - nx, cy = y1 - ny;
+        float ex = x0 - nx, ey = y0 - ny;
+
+        float top = Math.min(Math.min(ay, by), Math.min(cy, ey));
+        float bottom = Math.max(Math.max(ay, by), Math.max(cy, ey));
+        int y0i = Math.max(0, (int) Math.ceil(top - 0.5f));
+        int y1i = Math.min(_height - 1, (int) Math.floor(bottom - 0.5f));
+        for (int y = y0i; y <= y1i; y++) {
+            float center = y + 0.5f;
+            _spanLeft = Float.MAX_VALUE;
+            _spanRight = -Float.MAX_VALUE;
+            crossEdge(ax, ay, bx, by, center);
+            crossEdge(bx, by, cx, cy, center);
+            crossEdge(cx, cy, ex, ey, center);
+            crossEdge(ex, ey, ax, ay, center);
+            if (_spanLeft <= _spanRight) {
+                fillSpan(y, (int) Math.ceil(_spanLeft - 0.5f), (int) Math.ceil(_spanRight - 0.5f), color);
+            }
+        }
+    }
+
+    private void crossEdge(float xa, float ya, float xb, float yb, float y) {
+        if ((ya <= y && y < yb) || (yb <= y && y < ya)) {
+            float x = xa + (y - ya) * (xb - xa) / (yb - ya);
+            _spanLeft = Math.min(_spanLeft, x);
+            _spanRight = Math.max(_spanRight, x);
+        }
+    }
+
+    @Override
+    public void drawLines(float[] points, int offset, int count, float width, int color) {
+        for (int i = offset; i + 3 < offset + count; i += 4) {
+            drawLine(points[i], points[i + 1], points[i + 2], points[i + 3], width, color);
+        }
+    }
+
+    /**
+     * Composites src over this raster with its top left corner at (left, top)
+     */
+    public void drawRaster(Raster src, int left, int top) {
+        int x0 = Math.max(0, left);
+        int y0 = Math.max(0, top);
+        int x1 = Math.min(_width, left + src._width);
+        int y1 = Math.min(_height, top + src._height);
+        for (int y = y0; y < y1; y++) {
+            int dstRow = y * _width;
+            int srcRow = (y - top) * src._width - left;
+            for (int x = x0; x < x1; x++) {
+                int color = src._pixels[srcRow + x];
+                int alpha = color >>> 24;
+                if (alpha == 255) {
+                    _pixels[dstRow + x] = color;
+                } else if (alpha != 0) {
+                    _pixels[dstRow + x] = blend(_pixels[dstRow + x], color, alpha);
+                }
+            }
+        }
+    }
+
+    /**
+     * Src-over of non-premultiplied ARGB colors
+     * @param dst
+     * @param src
+     * @param srcAlpha src >>> 24, between 1 and 254
+     */
+    static int blend(int dst, int src, int srcAlpha) {
+        int dstAlpha = ((dst >>> 24) * (255 - srcAlpha) + 127) / 255;
+        int outAlpha = srcAlpha + dstAlpha;
+        int r = (((src >> 16) & 0xff) * srcAlpha + ((dst >> 16) & 0xff) * dstAlpha) / outAlpha;
+        int g = (((src >> 8) & 0xff) * srcAlpha + ((dst >> 8) & 0xff) * dstAlpha) / outAlpha;
+        int b = ((src & 0xff) * srcAlpha + (dst & 0xff) * dstAlpha) / outAlpha;
+        return (outAlpha << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,677 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A painting session on disk: what the painting is of, the brush and view state, and the pixels
+ * of every painted tile, so that a painting survives its process.
+ *
+ * The file starts with two commit slots, each a fixed-size header and an index with one entry
+ * per tile, followed by compressed tile blocks. Tiles can be written one at a time: a changed
+ * tile is appended as a new block and only its index entry changes, so saving costs what
+ * changed, not the size of the painting. {@link #commit()} makes the blocks durable, then writes
+ * the index into the slot that doesn't hold the last commit, and writes that slot's header last.
+ * The header carries a generation number and the CRCs of itself and its index, and reading picks
+ * the newest slot that checks out, so a crash mid-save leaves the previous commit readable.
+ * A new session is built next to the file and only replaces it on its first commit, and space
+ * left behind by rewritten tiles is reclaimed into a new file that replaces the old one, so an
+ * existing session is never overwritten in place. Sessions saved before version 3 had a single
+ * slot; they are still read, and rewritten in the current layout on their next commit.
+ *
+ * Reopened sessions read their tiles through a memory-mapped view of the file, with no
+ * decoding besides inflating each tile's block.
+ *
+ * Tile pixels are opaque bytes to this class, e.g., the raw contents of a tile bitmap.
+ * Methods are synchronized, so one thread can save while another reads.
+ */
+public class SessionFile implements Closeable {
+    public static final int MAGIC = 0x494d5053; // "IMPS"
+    public static final int VERSION = 3;
+
+    static final int HEADER_SIZE = 4096;
+    private static final int SLOT_COUNT = 2;
+    private static final int ENTRY_SIZE = 16; // offset, length, crc
+    private static final int MAX_URI_BYTES = 2048;
+    private static final int MAX_CONFIG_BYTES = 64;
+    // Reclaim space once at least this much of the file is dead
+    private static final long MIN_GARBAGE = 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Everything in a session besides the tiles
+     */
+    public static class State {
+        /**
+         * The image being painted, e.g., a content Uri; empty if none
+         */
+        public String imageUri = "";
+        /**
+         * The size the image was painted at
+         */
+        public int sourceWidth;
+        public int sourceHeight;
+        /**
+         * How the image was decoded to that size: the inSampleSize and the name of the
+         * android.graphics.Bitmap.Config, so that it can be decoded to exactly the same pixels
+         * again. 0 and empty if unknown, e.g., in sessions saved before they were recorded.
+         */
+        public int sampleSize;
+        public String decodeConfig = "";
+        /**
+         * The size of the painting, and of its tiles
+         */
+        public int width;
+        public int height;
+        public int tileSize;
+        public BrushType brushType = BrushType.Square;
+        public int alpha;
+        /**
+         * The view's zoom and pan, in the value layout of android.graphics.Matrix
+         */
+        public final float[] matrix = new float[9];
+
+        public State() {
+        }
+
+        public State(State other) {
+            set(other);
+        }
+
+        public void set(State other) {
+            imageUri = other.imageUri;
+            sourceWidth = other.sourceWidth;
+            sourceHeight = other.sourceHeight;
+            sampleSize = other.sampleSize;
+            decodeConfig = other.decodeConfig;
+            width = other.width;
+            height = other.height;
+            tileSize = other.tileSize;
+            brushType = other.brushType;
+            alpha = other.alpha;
+            System.arraycopy(other.matrix, 0, matrix, 0, matrix.length);
+        }
+
+        /**
+         * Whether other paints the same image with the same tiles, so that its tiles can be
+         * saved over this state's
+         */
+        public boolean isSamePainting(State other) {
+            return imageUri.equals(other.imageUri) && sourceWidth == other.sourceWidth
+                    && sourceHeight == other.sourceHeight && width == other.width && height == other.height
+                    && tileSize == other.tileSize;
+        }
+
+        public int getTileCount() {
+            return tileSize <= 0 ? 0 : ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+        }
+    }
+
+    private final File _file;
+    // The file this session is being built in until its first commit, null once it is in place
+    private File _pendingFile;
+    private RandomAccessFile _raf;
+    private FileChannel _channel;
+    private MappedByteBuffer _map = null;
+
+    private final State _state;
+    private final long[] _offsets;
+    private final int[] _lengths;
+    private final int[] _crcs;
+    // The slot holding the last commit, and its generation
+    private int _slot = 0;
+    private long _generation = 0;
+    // Whether the file has a single slot, as before version 3
+    private boolean _legacy = false;
+    private long _dataStart;
+    private long _dataEnd;
+    private long _liveBytes = 0;
+    private long _garbage = 0;
+
+    private final Deflater _deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater _inflater = new Inflater();
+    private final CRC32 _crc = new CRC32();
+    private byte[] _block = new byte[64 * 1024];
+
+    private SessionFile(File file, RandomAccessFile raf, State state) {
+        _file = file;
+        _raf = raf;
+        _channel = raf.getChannel();
+        _state = new State(state);
+        int tileCount = state.getTileCount();
+        _offsets = new long[tileCount];
+        _lengths = new int[tileCount];
+        _crcs = new int[tileCount];
+        _dataStart = dataStart(tileCount);
+        _dataEnd = _dataStart;
+    }
+
+    /**
+     * One commit slot as read from the file
+     */
+    private static class Slot {
+        int index;
+        int version;
+        long generation;
+        int indexCrc;
+        State state;
+        ByteBuffer entries;
+    }
+
+    /**
+     * Creates an empty session that replaces whatever is at file on its first {@link #commit()}.
+     * Until then the session lives in a file next to it, which is deleted if the session is
+     * closed without a commit.
+     * @param file
+     * @param state
+     * @throws IOException
+     */
+    public static SessionFile create(File file, State state) throws IOException {
+        if (state.width <= 0 || state.height <= 0 || state.tileSize <= 0) {
+            throw new IllegalArgumentException("Bad painting size " + state.width + "x" + state.height);
+        }
+        File pending = new File(file.getPath() + ".new");
+        deleteStale(pending);
+        RandomAccessFile raf = new RandomAccessFile(pending, "rw");
+        SessionFile session = new SessionFile(file, raf, state);
+        session._pendingFile = pending;
+        try {
+            raf.setLength(session._dataStart);
+        } catch (IOException e) {
+            session.close();
+            throw e;
+        }
+        return session;
+    }
+
+    /**
+     * Opens an existing session to read its tiles and keep saving into it
+     * @param file
+     * @throws IOException if file can't be read or isn't a valid session
+     */
+    public static SessionFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            // The newest slot that checks out
+            Slot newest = null;
+            IOException failure = null;
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                try {
+                    Slot slot = readSlot(channel, i);
+                    if (newest == null || slot.generation > newest.generation) {
+                        newest = slot;
+                    }
+                    if (slot.version < 3) {
+                        // A single slot, its index is where the second slot would be
+                        break;
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (newest == null) {
+                throw failure;
+            }
+
+            SessionFile session = new SessionFile(file, raf, newest.state);
+            session._slot = newest.index;
+            session._generation = newest.generation;
+            if (newest.version < 3) {
+                session._legacy = true;
+                session._dataStart = HEADER_SIZE + (long) session._offsets.length * ENTRY_SIZE;
+            }
+            ByteBuffer entries = newest.entries;
+            long fileLength = channel.size();
+            for (int i = 0; i < session._offsets.length; i++) {
+                long offset = entries.getLong();
+                int length = entries.getInt();
+                int crc = entries.getInt();
+                if (length < 0 || (length > 0 && (offset < session._dataStart || offset + length > fileLength))) {
+                    throw new IOException("Bad index entry " + i + " in " + file);
+                }
+                session._offsets[i] = offset;
+                session._lengths[i] = length;
+                session._crcs[i] = crc;
+                session._liveBytes += length;
+            }
+            session._dataEnd = Math.max(session._dataStart, fileLength);
+            session._garbage = session._dataEnd - session._dataStart - session._liveBytes;
+            return session;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw new IOException("Bad session file " + file, e);
+        }
+    }
+
+    /**
+     * Returns a copy of the state as of the last commit, or as last set
+     */
+    public synchronized State getState() {
+        return new State(_state);
+    }
+
+    /**
+     * Updates the state written with the next commit
+     * @param state must be {@link State#isSamePainting} as the current state
+     */
+    public synchronized void setState(State state) {
+        if (!_state.isSamePainting(state)) {
+            throw new IllegalArgumentException("Not the same painting");
+        }
+        _state.set(state);
+    }
+
+    public int getTileCount() {
+        return _offsets.length;
+    }
+
+    public synchronized boolean hasTile(int index) {
+        return _lengths[index] > 0;
+    }
+
+    /**
+     * Reads a tile's pixels through the memory-mapped file
+     * @param index
+     * @param out filled with the tile's bytes
+     * @return the number of bytes read, or 0 if the tile is blank
+     * @throws IOException if the block is damaged or doesn't fit in out
+     */
+    public synchronized int readTile(int index, byte[] out) throws IOException {
+        int length = _lengths[index];
+        if (length == 0) {
+            return 0;
+        }
+        long offset = _offsets[index];
+        long end = offset + length;
+        if (_map == null || end > _map.capacity()) {
+            _map = _channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(_channel.size(), Integer.MAX_VALUE));
+        }
+        // A buffer position is an int, offsets past 2GB can't be read through the map
+        if (offset < 0 || end > _map.capacity()) {
+            throw new IOException("Tile " + index + " is outside of the mapped part of " + _file);
+        }
+        byte[] block = obtainBlock(length);
+        ByteBuffer view = _map.duplicate();
+        view.position((int) offset);
+        view.get(block, 0, length);
+
+        _crc.reset();
+        _crc.update(block, 0, length);
+        if ((int) _crc.getValue() != _crcs[index]) {
+            throw new IOException("Damaged tile " + index + " in " + _file);
+        }
+        _inflater.reset();
+        _inflater.setInput(block, 0, length);
+        try {
+            int size = 0;
+            while (!_inflater.finished()) {
+                if (size == out.length) {
+                    throw new IOException("Tile " + index + " is larger than " + out.length + " bytes");
+                }
+                int inflated = _inflater.inflate(out, size, out.length - size);
+                if (inflated == 0 && _inflater.needsInput()) {
+                    throw new IOException("Truncated tile " + index + " in " + _file);
+                }
+                size += inflated;
+            }
+            return size;
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged tile " + index + " in " + _file, e);
+        }
+    }
+
+    /**
+     * Compresses a tile's pixels into a new block. Takes effect with the next commit.
+     * @param index
+     * @param pixels
+     * @param length bytes of pixels to write
+     */
+    public synchronized void writeTile(int index, byte[] pixels, int length) throws IOException {
+        _deflater.reset();
+        _deflater.setInput(pixels, 0, length);
+        _deflater.finish();
+        int size = 0;
+        while (!_deflater.finished()) {
+            if (size == _block.length) {
+                _block = Arrays.copyOf(_block, _block.length * 2);
+            }
+            size += _deflater.deflate(_block, size, _block.length - size);
+        }
+        _crc.reset();
+        _crc.update(_block, 0, size);
+
+        ByteBuffer buffer = ByteBuffer.wrap(_block, 0, size);
+        long offset = _dataEnd;
+        while (buffer.hasRemaining()) {
+            offset += _channel.write(buffer, offset);
+        }
+        dropTile(index);
+        _offsets[index] = _dataEnd;
+        _lengths[index] = size;
+        _crcs[index] = (int) _crc.getValue();
+        _liveBytes += size;
+        _dataEnd = offset;
+    }
+
+    /**
+     * Makes a tile blank. Takes effect with the next commit.
+     */
+    public synchronized void clearTile(int index) {
+        dropTile(index);
+    }
+
+    /**
+     * Makes the tiles and state written so far durable, reclaiming dead space if there is enough
+     * of it
+     */
+    public synchronized void commit() throws IOException {
+        if (_legacy || (_garbage > MIN_GARBAGE && _garbage > _liveBytes)) {
+            compact();
+            return;
+        }
+        // Blocks first, so the index never points at data that isn't there yet
+        _channel.force(false);
+        int slot = _pendingFile != null ? 0 : 1 - _slot;
+        writeSlot(_channel, slot, _generation + 1, _offsets);
+        _channel.force(false);
+        _slot = slot;
+        _generation++;
+        if (_pendingFile != null) {
+            replaceFile(_pendingFile);
+        }
+    }
+
+    /**
+     * Bytes in the file that no tile uses anymore
+     */
+    public synchronized long getGarbageBytes() {
+        return _garbage;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        _map = null;
+        _raf.close();
+        _deflater.end();
+        _inflater.end();
+        if (_pendingFile != null) {
+            // Never committed, whatever was at _file is still there
+            _pendingFile.delete();
+            _pendingFile = null;
+        }
+    }
+
+    private void dropTile(int index) {
+        _garbage += _lengths[index];
+        _liveBytes -= _lengths[index];
+        _offsets[index] = 0;
+        _lengths[index] = 0;
+        _crcs[index] = 0;
+    }
+
+    /**
+     * Rewrites the live blocks into a new file, which then replaces this one
+     */
+    private void compact() throws IOException {
+        File temp = new File(_file.getPath() + ".tmp");
+        deleteStale(temp);
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        long[] offsets = new long[_offsets.length];
+        boolean replaced = false;
+        try {
+            FileChannel channel = out.getChannel();
+            long dataStart = dataStart(_offsets.length);
+            long position = dataStart;
+            for (int i = 0; i < _offsets.length; i++) {
+                int length = _lengths[i];
+                if (length == 0) {
+                    continue;
+                }
+                ByteBuffer block = ByteBuffer.wrap(obtainBlock(length), 0, length);
+                readFully(_channel, block, _offsets[i]);
+                block.flip();
+                offsets[i] = position;
+                while (block.hasRemaining()) {
+                    position += channel.write(block, position);
+                }
+            }
+            out.setLength(position);
+            channel.force(false);
+            writeSlot(channel, 0, _generation + 1, offsets);
+            channel.force(false);
+            out.close();
+
+            File previous = _pendingFile;
+            if (!temp.renameTo(_file)) {
+                throw new IOException("Could not rename " + temp + " to " + _file);
+            }
+            replaced = true;
+            _map = null;
+            _raf.close();
+            _raf = new RandomAccessFile(_file, "rw");
+            _channel = _raf.getChannel();
+            if (previous != null) {
+                previous.delete();
+                _pendingFile = null;
+            }
+            System.arraycopy(offsets, 0, _offsets, 0, offsets.length);
+            _slot = 0;
+            _generation++;
+            _legacy = false;
+            _dataStart = dataStart;
+            _dataEnd = position;
+            _garbage = 0;
+        } finally {
+            if (!replaced) {
+                out.close();
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Moves the session from the file it was built in to _file
+     */
+    private void replaceFile(File from) throws IOException {
+        _map = null;
+        _raf.close();
+        boolean renamed = from.renameTo(_file);
+        // Keep the session usable either way
+        _raf = new RandomAccessFile(renamed ? _file : from, "rw");
+        _channel = _raf.getChannel();
+        if (!renamed) {
+            throw new IOException("Could not rename " + from + " to " + _file);
+        }
+        _pendingFile = null;
+    }
+
+    private static long dataStart(int tileCount) {
+        return SLOT_COUNT * (HEADER_SIZE + (long) tileCount * ENTRY_SIZE);
+    }
+
+    private static long indexPosition(int slot, int tileCount) {
+        return SLOT_COUNT * HEADER_SIZE + (long) slot * tileCount * ENTRY_SIZE;
+    }
+
+    /**
+     * Deletes what a failed save left at file
+     */
+    private static void deleteStale(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    /**
+     * Writes offsets and the current lengths, CRCs and state into a commit slot: the index, made
+     * durable, then the header that validates it
+     */
+    private void writeSlot(FileChannel channel, int slot, long generation, long[] offsets) throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(offsets.length * ENTRY_SIZE);
+        for (int i = 0; i < offsets.length; i++) {
+            index.putLong(offsets[i]);
+            index.putInt(_lengths[i]);
+            index.putInt(_crcs[i]);
+        }
+        _crc.reset();
+        _crc.update(index.array(), 0, index.position());
+        int indexCrc = (int) _crc.getValue();
+        index.flip();
+        writeFully(channel, index, indexPosition(slot, offsets.length));
+        channel.force(false);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(_state.width);
+        header.putInt(_state.height);
+        header.putInt(_state.tileSize);
+        header.putInt(_state.sourceWidth);
+        header.putInt(_state.sourceHeight);
+        header.putInt(_state.brushType.ordinal());
+        header.putInt(_state.alpha);
+        for (float value : _state.matrix) {
+            header.putFloat(value);
+        }
+        byte[] uri = _state.imageUri.getBytes(UTF_8);
+        if (uri.length > MAX_URI_BYTES) {
+            throw new IOException("Image uri too long: " + _state.imageUri);
+        }
+        header.putShort((short) uri.length);
+        header.put(uri);
+        byte[] config = _state.decodeConfig.getBytes(UTF_8);
+        if (config.length > MAX_CONFIG_BYTES) {
+            throw new IOException("Decode config too long: " + _state.decodeConfig);
+        }
+        header.putInt(_state.sampleSize);
+        header.putShort((short) config.length);
+        header.put(config);
+        header.putLong(generation);
+        header.putInt(indexCrc);
+        _crc.reset();
+        _crc.update(header.array(), 0, header.position());
+        header.putInt((int) _crc.getValue());
+        header.flip();
+        writeFully(channel, header, (long) slot * HEADER_SIZE);
+    }
+
+    /**
+     * Reads a commit slot's header and index
+     * @throws IOException if either is damaged
+     */
+    private static Slot readSlot(FileChannel channel, int index) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, buffer, (long) index * HEADER_SIZE);
+        buffer.flip();
+        Slot slot = new Slot();
+        slot.index = index;
+        readHeader(buffer, slot);
+        if (slot.version < 3 && index != 0) {
+            throw new IOException("Not a session file");
+        }
+
+        int tileCount = slot.state.getTileCount();
+        slot.entries = ByteBuffer.allocate(tileCount * ENTRY_SIZE);
+        readFully(channel, slot.entries, slot.version < 3 ? HEADER_SIZE : indexPosition(index, tileCount));
+        slot.entries.flip();
+        if (slot.version >= 3) {
+            CRC32 crc = new CRC32();
+            crc.update(slot.entries.array(), 0, slot.entries.limit());
+            if ((int) crc.getValue() != slot.indexCrc) {
+                throw new IOException("Damaged session index");
+            }
+        }
+        return slot;
+    }
+
+    private static void readHeader(ByteBuffer header, Slot slot) throws IOException {
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException("Not a session file");
+        }
+        int version = header.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported session version " + version);
+        }
+        State state = new State();
+        state.width = header.getInt();
+        state.height = header.getInt();
+        state.tileSize = header.getInt();
+        state.sourceWidth = header.getInt();
+        state.sourceHeight = header.getInt();
+        state.brushType = BrushType.values()[header.getInt()];
+        state.alpha = header.getInt();
+        for (int i = 0; i < state.matrix.length; i++) {
+            state.matrix[i] = header.getFloat();
+        }
+        int uriLength = header.getShort();
+        if (uriLength < 0 || uriLength > MAX_URI_BYTES) {
+            throw new IOException("Bad session header");
+        }
+        byte[] uri = new byte[uriLength];
+        header.get(uri);
+        state.imageUri = new String(uri, UTF_8);
+        if (version >= 2) {
+            state.sampleSize = header.getInt();
+            int configLength = header.getShort();
+            if (configLength < 0 || configLength > MAX_CONFIG_BYTES) {
+                throw new IOException("Bad session header");
+            }
+            byte[] config = new byte[configLength];
+            header.get(config);
+            state.decodeConfig = new String(config, UTF_8);
+        }
+        if (version >= 3) {
+            slot.generation = header.getLong();
+            slot.indexCrc = header.getInt();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, header.position());
+        if (header.getInt() != (int) crc.getValue()) {
+            throw new IOException("Damaged session header");
+        }
+        if (state.width <= 0 || state.height <= 0 || state.tileSize <= 0) {
+            throw new IOException("Bad session header");
+        }
+        slot.version = version;
+        slot.state = state;
+    }
+
+    private byte[] obtainBlock(int length) {
+        if (_block.length < length) {
+            _block = new byte[Math.max(length, _block.length * 2)];
+        }
+        return _block;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of session file");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
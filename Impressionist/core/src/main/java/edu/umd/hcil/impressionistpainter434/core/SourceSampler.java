@@ -0,0 +1,127 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * Holds a packed ARGB copy of the source image so brush colors can be sampled without
+ * going through {@code Bitmap.getPixel} (one JNI round trip per sample).
+ *
+ * The pixels are copied in once, with a single {@code Bitmap.getPixels} call. After that every
+ * sample is plain array indexing and nothing is allocated. A sampler holds one image: load the
+ * next one into a new sampler, since other threads (e.g., an auto-paint being cancelled) may
+ * still be sampling this one.
+ */
+public class SourceSampler implements ColorSource {
+
+    // Upper bound on taps per axis for footprint averages, so big brushes cost the same as small ones
+    private static final int MAX_TAPS_PER_AXIS = 8;
+
+    private static final int[] NO_PIXELS = new int[0];
+
+    private int[] _pixels = NO_PIXELS;
+    private int _width = 0;
+    private int _height = 0;
+
+    /**
+     * Allocates the buffer for a width x height image, to be filled by the caller
+     * (e.g., with {@code Bitmap.getPixels(buffer, 0, width, 0, 0, width, height)})
+     * @param width
+     * @param height
+     * @return the backing pixel array, row stride == width
+     */
+    public int[] obtainBuffer(int width, int height) {
+        _pixels = new int[Math.max(0, width) * Math.max(0, height)];
+        _width = Math.max(0, width);
+        _height = Math.max(0, height);
+        return _pixels;
+    }
+
+    /**
+     * Forgets the current image and drops its pixels
+     */
+    public void clear() {
+        _pixels = NO_PIXELS;
+        _width = 0;
+        _height = 0;
+    }
+
+    public boolean isEmpty() {
+        return _width == 0 || _height == 0;
+    }
+
+    public int getWidth() {
+        return _width;
+    }
+
+    public int getHeight() {
+        return _height;
+    }
+
+    @Override
+    public boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < _width && y < _height;
+    }
+
+    /**
+     * Returns the color at (x, y). Coordinates outside of the image are clamped to the edge.
+     * @param x
+     * @param y
+     * @return packed ARGB color, or 0 (transparent) if no image is loaded
+     */
+    public int sample(int x, int y) {
+        if (isEmpty()) {
+            return 0;
+        }
+        x = x < 0 ? 0 : (x >= _width ? _width - 1 : x);
+        y = y < 0 ? 0 : (y >= _height ? _height - 1 : y);
+        return _pixels[y * _width + x];
+    }
+
+    @Override
+    public int sample(float x, float y) {
+        return sample((int) x, (int) y);
+    }
+
+    @Override
+    public int sampleAverage(float cx, float cy, int radius) {
+        return sampleAverage((int) cx, (int) cy, radius);
+    }
+
+    /**
+     * Returns the average color of the square footprint centered on (cx, cy). Large footprints
+     * are sampled on a sparse grid of at most {@link #MAX_TAPS_PER_AXIS} taps per axis.
+     * @param cx
+     * @param cy
+     * @param radius half the footprint width, in source pixels
+     * @return packed ARGB color, or 0 (transparent) if no image is loaded
+     */
+    public int sampleAverage(int cx, int cy, int radius) {
+        if (isEmpty()) {
+            return 0;
+        }
+        if (radius <= 0) {
+            return sample(cx, cy);
+        }
+
+        int left = Math.max(0, cx - radius);
+        int top = Math.max(0, cy - radius);
+        int right = Math.min(_width - 1, cx + radius);
+        int bottom = Math.min(_height - 1, cy + radius);
+        if (left > right || top > bottom) {
+            return sample(cx, cy);
+        }
+
+        int step = Math.max(1, (2 * radius + 1) / MAX_TAPS_PER_AXIS);
+        int a = 0, r = 0, g = 0, b = 0, n = 0;
+        for (int y = top; y <= bottom; y += step) {
+            int row = y * _width;
+            for (int x = left; x <= right; x += step) {
+                int c = _pixels[row + x];
+                a += c >>> 24;
+                r += (c >> 16) & 0xff;
+                g += (c >> 8) & 0xff;
+                b += c & 0xff;
+                n++;
+            }
+        }
+        return ((a / n) << 24) | ((r / n) << 16) | ((g / n) << 8) | (b / n);
+    }
+}
@@ -0,0 +1,73 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * Where the pieces of a splatter dab go.
+ *
+ * Each brush radius has {@link #VARIANTS} layouts of pieces around the dab, and every dab picks
+ * one of them from a hash of the dab itself. Drawing the same dab again (e.g., when replaying
+ * strokes for undo, or on a different renderer) always gives the same pieces, and the small set
+ * of layouts per radius is what lets a whole splatter dab be cached as one stamp.
+ * Not thread-safe, use one instance per rendering thread.
+ */
+public class Splatter {
+    /**
+     * Pieces per dab
+     */
+    public static final int COUNT = 5;
+
+    /**
+     * Layouts per radius, a power of two
+     */
+    public static final int VARIANTS = 8;
+
+    private final SplitRandom _random = new SplitRandom(0);
+
+    /**
+     * Fills out with {@link #COUNT} (x, y, radius) triples, one per piece
+     * @param x
+     * @param y
+     * @param radius brush radius
+     * @param color ARGB color, alpha included
+     * @param out at least 3 * COUNT long
+     */
+    public void generate(float x, float y, int radius, int color, float[] out) {
+        generateOffsets(variantFor(x, y, radius, color), radius, out);
+        for (int i = 0; i < COUNT; i++) {
+            out[3 * i] += x;
+            out[3 * i + 1] += y;
+        }
+    }
+
+    /**
+     * Fills out with the (dx, dy, radius) triples of a layout, relative to the dab center. Offsets
+     * are in [0, radius) and piece radii in [1, radius]; for a 0 radius all of them are 0.
+     * @param variant between 0 and VARIANTS - 1
+     * @param radius brush radius
+     * @param out at least 3 * COUNT long
+     */
+    public void generateOffsets(int variant, int radius, float[] out) {
+        _random.setSeed(radius, variant);
+        for (int i = 0; i < COUNT; i++) {
+            out[3 * i] = rand(radius);
+            out[3 * i + 1] = rand(radius);
+            // Never divides by 0, even for a 0 radius
+            out[3 * i + 2] = radius / _random.nextInt(1, Math.max(1, radius));
+        }
+    }
+
+    /**
+     * The layout a dab uses
+     */
+    public static int variantFor(float x, float y, int radius, int color) {
+        long seed = Float.floatToIntBits(x);
+        seed = seed * 31 + Float.floatToIntBits(y);
+        seed = seed * 31 + radius;
+        seed = seed * 31 + color;
+        // Neighboring dabs differ in the low bits of x only, mix them into the bits we keep
+        return (int) (SplitRandom.mix64(seed) >>> 40) & (VARIANTS - 1);
+    }
+
+    private int rand(int max) {
+        return max > 0 ? _random.nextInt(max) : 0;
+    }
+}
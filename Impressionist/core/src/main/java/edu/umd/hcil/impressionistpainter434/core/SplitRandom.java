@@ -0,0 +1,88 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * A small, fast, seedable random generator (SplitMix64), for the randomness that goes into a
+ * painting. Unlike {@link java.util.Random} it does no synchronization and no allocation, and a
+ * generator can be reseeded in place.
+ *
+ * {@link #setSeed(long, long)} derives independent streams from one seed, e.g., one per tile,
+ * so that a painting only depends on its seed and not on which thread painted which tile or in
+ * what order. Not thread-safe, use one instance per thread.
+ */
+public class SplitRandom {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long _state;
+
+    public SplitRandom(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * A generator for one stream of seed, see {@link #setSeed(long, long)}
+     */
+    public SplitRandom(long seed, long stream) {
+        setSeed(seed, stream);
+    }
+
+    public void setSeed(long seed) {
+        _state = seed;
+    }
+
+    /**
+     * Restarts this generator on one of the streams of seed. Different streams of the same seed
+     * don't overlap in practice, even for neighboring stream numbers.
+     * @param seed
+     * @param stream e.g., a tile index
+     */
+    public void setSeed(long seed, long stream) {
+        _state = mix64(mix64(seed) + mix64(stream + GOLDEN_GAMMA));
+    }
+
+    public long nextLong() {
+        _state += GOLDEN_GAMMA;
+        return mix64(_state);
+    }
+
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Returns a value between 0 (inclusive) and bound (exclusive)
+     * @param bound must be positive
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive: " + bound);
+        }
+        // 31 random bits scaled to the bound, no division
+        return (int) (((nextLong() >>> 33) * bound) >>> 31);
+    }
+
+    /**
+     * Returns a value between min and max, both inclusive
+     */
+    public int nextInt(int min, int max) {
+        if (max < min) {
+            throw new IllegalArgumentException("max < min: " + max + " < " + min);
+        }
+        return min + nextInt(max - min + 1);
+    }
+
+    /**
+     * Returns a value between 0 (inclusive) and 1 (exclusive)
+     */
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * Scrambles the bits of z, so that close inputs give unrelated outputs
+     */
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,211 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * Turns touch samples (in view coordinates) into evenly spaced brush dabs (in painting
+ * coordinates).
+ *
+ * Every sample of a stroke should be fed through {@link #addSample}, including the historical
+ * samples batched into a single MotionEvent, so that fast strokes don't turn into sparse
+ * dabs. Dabs are placed along the path at a spacing proportional to the brush radius,
+ * regardless of how far apart the input samples are.
+ *
+ * Each dab also gets the stroke direction: the angle of the painting-space velocity between
+ * samples, smoothed so that one-pixel jitter doesn't spin line brushes around.
+ */
+public class StrokeBuilder {
+    /**
+     * The painting is offset from the source image by this many pixels on each side
+     */
+    public static final int SOURCE_OFFSET = 20;
+
+    /**
+     * Distance between dabs, as a fraction of the brush radius
+     */
+    public static final float DEFAULT_SPACING = 0.25f;
+
+    /**
+     * Weight of the previous velocity when smoothing the stroke direction
+     */
+    private static final float VELOCITY_SMOOTHING = 0.6f;
+
+    private final BrushDynamics _dynamics;
+    private ColorSource _source;
+    private final Affine _inverse = new Affine();
+    private float _spacing = DEFAULT_SPACING;
+
+    private float _lastX;
+    private float _lastY;
+    private float _distanceToNextDab;
+    private long _lastTime;
+    private float _velocityX;
+    private float _velocityY;
+    private float _angle;
+
+    // Output of mapXY
+    private float _mappedX;
+    private float _mappedY;
+
+    public StrokeBuilder(BrushDynamics dynamics, ColorSource source) {
+        _dynamics = dynamics;
+        _source = source;
+    }
+
+    /**
+     * Sets where dab colors are sampled from
+     */
+    public void setSource(ColorSource source) {
+        _source = source;
+    }
+
+    /**
+     * Sets the view to painting transform, as returned by {@code Matrix.getValues}
+     * @param values 3x3 matrix in row-major order
+     */
+    public void setInverseMatrix(float[] values) {
+        _inverse.setValues(values);
+    }
+
+    /**
+     * Sets the view to painting transform
+     */
+    public void setInverseMatrix(Affine inverse) {
+        _inverse.set(inverse);
+    }
+
+    /**
+     * @param spacing distance between dabs as a fraction of the brush radius
+     */
+    public void setSpacing(float spacing) {
+        _spacing = spacing > 0 ? spacing : DEFAULT_SPACING;
+    }
+
+    /**
+     * Starts a stroke. The first dab lands here once the stroke starts moving.
+     * @param viewX
+     * @param viewY
+     * @param time event time in milliseconds
+     */
+    public void begin(float viewX, float viewY, long time) {
+        _dynamics.begin(viewX, viewY, time);
+        mapXY(viewX, viewY);
+        _lastX = _mappedX;
+        _lastY = _mappedY;
+        _lastTime = time;
+        _distanceToNextDab = 0;
+        _velocityX = 0;
+        _velocityY = 0;
+        _angle = 0;
+    }
+
+    /**
+     * Extends the stroke to the given sample and appends the dabs along the way to out
+     * @param viewX
+     * @param viewY
+     * @param time event time in milliseconds, used for the brush speed
+     * @param out
+     */
+    public void addSample(float viewX, float viewY, long time, DabBuffer out) {
+        float speed = _dynamics.update(viewX, viewY, time);
+        mapXY(viewX, viewY);
+
+        float dx = _mappedX - _lastX;
+        float dy = _mappedY - _lastY;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        float spacing = Math.max(1f, _dynamics.radiusFor(speed) * _spacing);
+        if (length > 0) {
+            updateAngle(dx, dy, time - _lastTime);
+        }
+
+        float d = _distanceToNextDab;
+        if (length > 0) {
+            float ux = dx / length;
+            float uy = dy / length;
+            while (d <= length) {
+                emitDab(_lastX + ux * d, _lastY + uy * d, speed, false, _angle, out);
+                d += spacing;
+            }
+            _distanceToNextDab = d - length;
+        } else if (d == 0) {
+            emitDab(_lastX, _lastY, speed, false, _angle, out);
+            _distanceToNextDab = spacing;
+        }
+
+        _lastX = _mappedX;
+        _lastY = _mappedY;
+        _lastTime = time;
+    }
+
+    /**
+     * The current stroke direction, in radians in painting space
+     */
+    public float getAngle() {
+        return _angle;
+    }
+
+    /**
+     * Appends a single dab at the given view position, independent of any stroke
+     * @param viewX
+     * @param viewY
+     * @param speed brush speed, see {@link BrushDynamics}
+     * @param averageColor use the average source color under the brush instead of the center pixel
+     * @param out
+     */
+    public void addDab(float viewX, float viewY, float speed, boolean averageColor, DabBuffer out) {
+        mapXY(viewX, viewY);
+        emitDab(_mappedX, _mappedY, speed, averageColor, 0, out);
+    }
+
+    /**
+     * Appends a single dab at the given painting position, independent of any stroke
+     * @param x
+     * @param y
+     * @param speed brush speed, see {@link BrushDynamics}
+     * @param averageColor use the average source color under the brush instead of the center pixel
+     * @param out
+     */
+    public void addPaintingDab(float x, float y, float speed, boolean averageColor, DabBuffer out) {
+        emitDab(x, y, speed, averageColor, 0, out);
+    }
+
+    /**
+     * Appends a single dab at the given painting position and direction, independent of any stroke
+     * @param x
+     * @param y
+     * @param speed brush speed, see {@link BrushDynamics}
+     * @param averageColor use the average source color under the brush instead of the center pixel
+     * @param angle direction for line brushes, in radians
+     * @param out
+     */
+    public void addPaintingDab(float x, float y, float speed, boolean averageColor, float angle, DabBuffer out) {
+        emitDab(x, y, speed, averageColor, angle, out);
+    }
+
+    private void updateAngle(float dx, float dy, long dt) {
+        // Per millisecond, so that samples batched close together weigh less than far apart ones
+        float t = Math.max(1, dt);
+        _velocityX = _velocityX * VELOCITY_SMOOTHING + dx / t * (1 - VELOCITY_SMOOTHING);
+        _velocityY = _velocityY * VELOCITY_SMOOTHING + dy / t * (1 - VELOCITY_SMOOTHING);
+        if (_velocityX != 0 || _velocityY != 0) {
+            _angle = (float) Math.atan2(_velocityY, _velocityX);
+        }
+    }
+
+    private void emitDab(float x, float y, float speed, boolean averageColor, float angle, DabBuffer out) {
+        float sourceX = x - SOURCE_OFFSET;
+        float sourceY = y - SOURCE_OFFSET;
+        int inX = (int) x - SOURCE_OFFSET;
+        int inY = (int) y - SOURCE_OFFSET;
+        if (inX > 0 && inY > 0 && _source.contains(inX, inY)) {
+            int radius = _dynamics.radiusFor(speed);
+            int color = averageColor ? _source.sampleAverage(sourceX, sourceY, radius / 2) : _source.sample(sourceX, sourceY);
+            color = (color & 0x00ffffff) | (_dynamics.alphaFor(speed) << 24);
+            out.add(x, y, radius, color, angle);
+        }
+    }
+
+    private void mapXY(float x, float y) {
+        _inverse.mapPoint(x, y);
+        _mappedX = _inverse.getMappedX();
+        _mappedY = _inverse.getMappedY();
+    }
+}
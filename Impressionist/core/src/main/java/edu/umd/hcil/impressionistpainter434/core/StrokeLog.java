@@ -0,0 +1,329 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+/**
+ * Records every dab that goes into the painting so that strokes can be undone and redone
+ * without keeping a full copy of the painting per stroke.
+ *
+ * Dabs are kept in a fixed-size ring of primitive records {x, y, radius, color, angle, brush}; the
+ * alpha is the high byte of the color. Every few strokes a snapshot of the painting is taken as a
+ * checkpoint, and only a handful of checkpoints are kept. Undo restores the nearest checkpoint
+ * at or before the target stroke and replays the dabs since then. Redo just replays the next
+ * stroke on top. That keeps memory bounded by the ring plus the checkpoints, and undo
+ * latency bounded by the checkpoint interval, however long the painting session gets.
+ *
+ * Strokes whose dabs aren't logged (e.g., auto-paint) are "opaque": they always get a
+ * checkpoint of their own and are never replayed.
+ *
+ * Snapshots the log drops, when a checkpoint is evicted or discarded by a new stroke after an
+ * undo, are handed back to the replayer to be reused or released, always from a method that
+ * takes the replayer, so on the thread that applies the log.
+ *
+ * @param <S> the snapshot type, e.g., Bitmap
+ */
+public class StrokeLog<S> {
+
+    /**
+     * Applies log operations to the painting
+     */
+    public interface Replayer<S> {
+        /**
+         * Resets the painting to snapshot, or to blank if snapshot is null
+         */
+        void restore(S snapshot);
+
+        void replay(float x, float y, int radius, int color, float angle, int brush);
+
+        /**
+         * Returns a snapshot of the current painting, reusing the given one if possible
+         * @param reuse a snapshot the log dropped, may be null; release it if it isn't returned
+         */
+        S snapshot(S reuse);
+
+        /**
+         * Releases a snapshot the log dropped, e.g., recycles its bitmaps
+         */
+        void discard(S snapshot);
+    }
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 16;
+    public static final int DEFAULT_MAX_CHECKPOINTS = 4;
+
+    private static final int MAX_STROKES = 1 << 12;
+
+    // Dab ring, indexed by sequence number & _mask
+    private final int _mask;
+    private final float[] _x;
+    private final float[] _y;
+    private final int[] _radius;
+    private final int[] _color;
+    private final float[] _angle;
+    private final byte[] _brush;
+    private long _written = 0;
+
+    // Stroke ring: stroke i covers dabs [_strokeEnd[i - 1], _strokeEnd[i]), stroke 0 is the blank painting
+    private final long[] _strokeEnd = new long[MAX_STROKES];
+    private final boolean[] _strokeOpaque = new boolean[MAX_STROKES];
+    private long _strokeCount = 0;
+    private long _cursor = 0;
+    private boolean _strokeOpen = false;
+
+    // Checkpoints, oldest first. Slots past _checkpointCount may hold discarded snapshots that
+    // weren't released yet.
+    private final int _checkpointInterval;
+    private final long[] _checkpointStroke;
+    private final Object[] _checkpointSnapshot;
+    private int _checkpointCount = 0;
+
+    public StrokeLog() {
+        this(DEFAULT_CAPACITY, DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_MAX_CHECKPOINTS);
+    }
+
+    /**
+     * @param capacity number of dabs kept, rounded up to a power of two
+     * @param checkpointInterval strokes between checkpoints
+     * @param maxCheckpoints snapshots kept at most, the blank painting included
+     */
+    public StrokeLog(int capacity, int checkpointInterval, int maxCheckpoints) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        _mask = size - 1;
+        _x = new float[size];
+        _y = new float[size];
+        _radius = new int[size];
+        _color = new int[size];
+        _angle = new float[size];
+        _brush = new byte[size];
+        _checkpointInterval = Math.max(1, checkpointInterval);
+        _checkpointStroke = new long[Math.max(2, maxCheckpoints)];
+        _checkpointSnapshot = new Object[_checkpointStroke.length];
+        reset();
+    }
+
+    /**
+     * Forgets all history, the painting is now blank, and releases every snapshot
+     */
+    public void reset(Replayer<S> replayer) {
+        for (int i = 0; i < _checkpointSnapshot.length; i++) {
+            S snapshot = snapshotAt(i);
+            if (snapshot != null) {
+                _checkpointSnapshot[i] = null;
+                replayer.discard(snapshot);
+            }
+        }
+        reset();
+    }
+
+    /**
+     * Forgets all history, the painting is now blank. Snapshots are dropped without being
+     * released, see {@link #reset(Replayer)}.
+     */
+    public void reset() {
+        _written = 0;
+        _strokeCount = 0;
+        _cursor = 0;
+        _strokeOpen = false;
+        _strokeEnd[0] = 0;
+        _strokeOpaque[0] = false;
+        for (int i = 0; i < _checkpointSnapshot.length; i++) {
+            _checkpointSnapshot[i] = null;
+        }
+        _checkpointCount = 1;
+        _checkpointStroke[0] = 0;
+    }
+
+    /**
+     * Logs a dab of the current stroke, starting a new stroke if needed
+     */
+    public void append(float x, float y, int radius, int color, float angle, int brush) {
+        if (!_strokeOpen) {
+            startStroke();
+        }
+        int i = (int) (_written & _mask);
+        _x[i] = x;
+        _y[i] = y;
+        _radius[i] = radius;
+        _color[i] = color;
+        _angle[i] = angle;
+        _brush[i] = (byte) brush;
+        _written++;
+    }
+
+    /**
+     * Closes the current stroke, taking a checkpoint if one is due
+     */
+    public void endStroke(Replayer<S> replayer) {
+        if (!_strokeOpen) {
+            return;
+        }
+        closeStroke(false);
+        long newest = _checkpointStroke[_checkpointCount - 1];
+        boolean strokesDue = _cursor - newest >= _checkpointInterval;
+        // Checkpoint before the ring overwrites the dabs needed to replay from the newest checkpoint
+        boolean ringDue = _written - _strokeEnd[index(newest)] > (_mask + 1) / 2;
+        if (strokesDue || ringDue) {
+            addCheckpoint(replayer);
+        }
+        releaseDiscarded(replayer);
+    }
+
+    /**
+     * Records a stroke whose dabs were not logged. The painting must already include it.
+     */
+    public void endOpaqueStroke(Replayer<S> replayer) {
+        endStroke(replayer);
+        startStroke();
+        closeStroke(true);
+        addCheckpoint(replayer);
+    }
+
+    public boolean canUndo() {
+        return _cursor > 0 && findCheckpoint(_cursor - 1) >= 0;
+    }
+
+    public boolean canRedo() {
+        return !_strokeOpen && _cursor < _strokeCount;
+    }
+
+    /**
+     * Takes the painting back to before the last applied stroke
+     * @return false if there is nothing (left) to undo
+     */
+    public boolean undo(Replayer<S> replayer) {
+        if (_strokeOpen) {
+            closeStroke(false);
+            releaseDiscarded(replayer);
+        }
+        if (!canUndo()) {
+            return false;
+        }
+        long target = _cursor - 1;
+        int checkpoint = findCheckpoint(target);
+        long from = _checkpointStroke[checkpoint];
+        replayer.restore(snapshotAt(checkpoint));
+        replayDabs(_strokeEnd[index(from)], _strokeEnd[index(target)], replayer);
+        _cursor = target;
+        return true;
+    }
+
+    /**
+     * Re-applies the last undone stroke
+     * @return false if there is nothing to redo
+     */
+    public boolean redo(Replayer<S> replayer) {
+        if (!canRedo()) {
+            return false;
+        }
+        long target = _cursor + 1;
+        if (_strokeOpaque[index(target)]) {
+            int checkpoint = findCheckpoint(target);
+            if (checkpoint < 0 || _checkpointStroke[checkpoint] != target) {
+                return false;
+            }
+            replayer.restore(snapshotAt(checkpoint));
+        } else {
+            replayDabs(_strokeEnd[index(_cursor)], _strokeEnd[index(target)], replayer);
+        }
+        _cursor = target;
+        return true;
+    }
+
+    public long getStrokeCount() {
+        return _strokeCount;
+    }
+
+    /**
+     * @return the number of strokes currently applied to the painting
+     */
+    public long getCursor() {
+        return _cursor;
+    }
+
+    public int getCheckpointCount() {
+        return _checkpointCount;
+    }
+
+    private void startStroke() {
+        // A new stroke after an undo discards the strokes that could have been redone
+        if (_cursor < _strokeCount) {
+            _strokeCount = _cursor;
+            _written = _strokeEnd[index(_cursor)];
+            // Their snapshots stay in the slots past the count until a replayer releases them
+            while (_checkpointCount > 1 && _checkpointStroke[_checkpointCount - 1] > _cursor) {
+                _checkpointCount--;
+            }
+        }
+        _strokeOpen = true;
+    }
+
+    private void closeStroke(boolean opaque) {
+        _strokeCount++;
+        _strokeEnd[index(_strokeCount)] = _written;
+        _strokeOpaque[index(_strokeCount)] = opaque;
+        _cursor = _strokeCount;
+        _strokeOpen = false;
+    }
+
+    private void addCheckpoint(Replayer<S> replayer) {
+        S reuse = null;
+        if (_checkpointCount == _checkpointStroke.length) {
+            reuse = snapshotAt(0);
+            System.arraycopy(_checkpointStroke, 1, _checkpointStroke, 0, _checkpointCount - 1);
+            System.arraycopy(_checkpointSnapshot, 1, _checkpointSnapshot, 0, _checkpointCount - 1);
+            _checkpointCount--;
+        } else {
+            // A snapshot discarded by a new stroke
+            reuse = snapshotAt(_checkpointCount);
+        }
+        _checkpointSnapshot[_checkpointCount] = null;
+        releaseDiscarded(replayer);
+        _checkpointStroke[_checkpointCount] = _cursor;
+        _checkpointSnapshot[_checkpointCount] = replayer.snapshot(reuse);
+        _checkpointCount++;
+    }
+
+    /**
+     * Releases the snapshots of discarded checkpoints
+     */
+    private void releaseDiscarded(Replayer<S> replayer) {
+        for (int i = _checkpointCount; i < _checkpointSnapshot.length; i++) {
+            S snapshot = snapshotAt(i);
+            if (snapshot != null) {
+                _checkpointSnapshot[i] = null;
+                replayer.discard(snapshot);
+            }
+        }
+    }
+
+    /**
+     * @return the newest usable checkpoint at or before stroke, or -1
+     */
+    private int findCheckpoint(long stroke) {
+        for (int c = _checkpointCount - 1; c >= 0; c--) {
+            long from = _checkpointStroke[c];
+            if (from > stroke) {
+                continue;
+            }
+            // The strokes and dabs between the checkpoint and the target must still be in the rings
+            boolean strokesKept = _strokeCount - from < MAX_STROKES;
+            boolean dabsKept = strokesKept && _written - _strokeEnd[index(from)] <= _mask + 1;
+            return strokesKept && dabsKept ? c : -1;
+        }
+        return -1;
+    }
+
+    private void replayDabs(long from, long to, Replayer<S> replayer) {
+        for (long seq = from; seq < to; seq++) {
+            int i = (int) (seq & _mask);
+            replayer.replay(_x[i], _y[i], _radius[i], _color[i], _angle[i], _brush[i]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private S snapshotAt(int checkpoint) {
+        return (S) _checkpointSnapshot[checkpoint];
+    }
+
+    private static int index(long stroke) {
+        return (int) (stroke & (MAX_STROKES - 1));
+    }
+}
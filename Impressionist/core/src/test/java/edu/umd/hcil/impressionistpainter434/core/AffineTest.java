@@ -0,0 +1,61 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AffineTest {
+
+    @Test
+    public void invert_undoesMapping() throws Exception {
+        Affine matrix = new Affine();
+        matrix.set(2, 0.5f, 30, -0.25f, 1.5f, -12);
+        Affine inverse = new Affine();
+        assertTrue(matrix.invert(inverse));
+
+        matrix.mapPoint(17, -4);
+        inverse.mapPoint(matrix.getMappedX(), matrix.getMappedY());
+        assertEquals(17, inverse.getMappedX(), 1e-4f);
+        assertEquals(-4, inverse.getMappedY(), 1e-4f);
+    }
+
+    @Test
+    public void invert_failsForSingular() throws Exception {
+        Affine matrix = new Affine();
+        matrix.setScale(0, 1);
+        Affine inverse = new Affine();
+        inverse.setScale(3, 3);
+        assertFalse(matrix.invert(inverse));
+        assertEquals(3, inverse.getScaleX(), 0);
+    }
+
+    @Test
+    public void preTranslate_matchesAndroidMatrixOrder() throws Exception {
+        // What ImpressionistView does with the image matrix: scale, then shift by the painting offset
+        Affine matrix = new Affine();
+        matrix.setScale(2, 2);
+        matrix.postTranslate(100, 50);
+        matrix.preTranslate(-StrokeBuilder.SOURCE_OFFSET, -StrokeBuilder.SOURCE_OFFSET);
+        matrix.mapPoint(StrokeBuilder.SOURCE_OFFSET, StrokeBuilder.SOURCE_OFFSET);
+        assertEquals(100, matrix.getMappedX(), 0);
+        assertEquals(50, matrix.getMappedY(), 0);
+
+        float[] values = new float[9];
+        matrix.getValues(values);
+        Affine copy = new Affine();
+        copy.setValues(values);
+        copy.mapPoint(30, 40);
+        assertEquals(120, copy.getMappedX(), 0);
+        assertEquals(90, copy.getMappedY(), 0);
+    }
+
+    @Test
+    public void mapRect_boundsRotatedCorners() throws Exception {
+        Affine matrix = new Affine();
+        // 90 degrees
+        matrix.set(0, -1, 0, 1, 0, 0);
+        float[] rect = {0, 0, 10, 20};
+        matrix.mapRect(rect);
+        assertArrayEquals(new float[] {-20, 0, 0, 10}, rect, 0);
+    }
+}
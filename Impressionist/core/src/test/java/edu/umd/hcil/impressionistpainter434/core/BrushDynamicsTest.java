@@ -0,0 +1,35 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BrushDynamicsTest {
+
+    @Test
+    public void radiusAndAlpha_followSpeedAndScale() throws Exception {
+        BrushDynamics dynamics = new BrushDynamics();
+        dynamics.setMinRadius(5);
+        dynamics.setBaseAlpha(50);
+        dynamics.setScale(0.5f);
+
+        assertEquals(30, dynamics.radiusFor(10));
+        assertEquals(5, dynamics.radiusFor(-100));
+        assertEquals(130, dynamics.alphaFor(10));
+        assertEquals(0, dynamics.alphaFor(1000));
+        assertEquals(255, dynamics.alphaFor(-1000));
+    }
+
+    @Test
+    public void update_returnsSpeedSinceLastSample() throws Exception {
+        BrushDynamics dynamics = new BrushDynamics();
+        dynamics.begin(0, 0, 100);
+        assertEquals(5f, dynamics.update(3, 4, 110), 1e-4f);
+        // A sample with the same timestamp keeps the previous speed instead of dividing by zero
+        assertEquals(5f, dynamics.update(30, 40, 110), 1e-4f);
+        // Sub-pixel-per-millisecond strokes no longer truncate to 0
+        assertEquals(0.5f, dynamics.update(31, 40, 130), 1e-4f);
+        // Jitter is capped
+        assertEquals(BrushDynamics.MAX_SPEED, dynamics.update(5000, 40, 131), 1e-4f);
+    }
+}
@@ -0,0 +1,82 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DabPainterTest {
+
+    /**
+     * Counts draw calls instead of drawing
+     */
+    private static class CountingTarget implements PaintTarget {
+        int shapes = 0;
+        int lineCalls = 0;
+        int segments = 0;
+
+        @Override
+        public void fillCircle(float cx, float cy, float radius, int color) {
+            shapes++;
+        }
+
+        @Override
+        public void fillRect(float left, float top, float right, float bottom, int color) {
+            shapes++;
+        }
+
+        @Override
+        public void drawLine(float x0, float y0, float x1, float y1, float width, int color) {
+            lineCalls++;
+            segments++;
+        }
+
+        @Override
+        public void drawLines(float[] points, int offset, int count, float width, int color) {
+            assertEquals(0, count % 4);
+            lineCalls++;
+            segments += count / 4;
+        }
+    }
+
+    @Test
+    public void drawDab_lineSplatterIsOneCall() throws Exception {
+        CountingTarget target = new CountingTarget();
+        new DabPainter().drawDab(target, BrushType.LineSplatter, 50, 50, 20, 0x80ff0000, 1f);
+        assertEquals(1, target.lineCalls);
+        assertEquals(Splatter.COUNT, target.segments);
+    }
+
+    @Test
+    public void drawDabs_batchesLinesWithTheSamePaint() throws Exception {
+        DabBuffer dabs = new DabBuffer();
+        for (int i = 0; i < 100; i++) {
+            dabs.add(i, 10, 12, 0x80ff0000, i * 0.1f);
+        }
+        dabs.add(200, 10, 12, 0x8000ff00, 0);
+        dabs.add(201, 10, 12, 0x8000ff00, 0);
+
+        CountingTarget target = new CountingTarget();
+        new DabPainter().drawDabs(target, BrushType.Line, dabs);
+        assertEquals(2, target.lineCalls);
+        assertEquals(102, target.segments);
+    }
+
+    @Test
+    public void drawDabs_batchedMatchesOneByOne() throws Exception {
+        DabBuffer dabs = new DabBuffer();
+        for (int i = 0; i < 40; i++) {
+            dabs.add(20 + i * 1.5f, 30 + (i % 7), 6 + i % 4, (i % 3 == 0 ? 0x80ff0000 : 0x800000ff), i * 0.3f);
+        }
+        DabPainter painter = new DabPainter();
+        for (BrushType brushType : new BrushType[] {BrushType.Line, BrushType.LineSplatter}) {
+            Raster batched = new Raster(100, 60);
+            painter.drawDabs(batched, brushType, dabs);
+            Raster single = new Raster(100, 60);
+            for (int d = 0; d < dabs.size(); d++) {
+                painter.drawDab(single, brushType, dabs.getX(d), dabs.getY(d), dabs.getRadius(d), dabs.getColor(d),
+                        dabs.getAngle(d));
+            }
+            assertArrayEquals(brushType.name(), single.getPixels(), batched.getPixels());
+        }
+    }
+}
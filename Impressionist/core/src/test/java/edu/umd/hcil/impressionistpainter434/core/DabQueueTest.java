@@ -0,0 +1,108 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DabQueueTest {
+
+    private static class RecordingConsumer implements DabQueue.Consumer {
+        int dabs = 0;
+        int clears = 0;
+        int lastColor = -1;
+        boolean inOrder = true;
+        int lastWidth = 0;
+        int lastCommand = -1;
+
+        @Override
+        public void onDab(float x, float y, int radius, int color, float angle, int brush) {
+            if (color != lastColor + 1 || x != color || radius != color % 50 || angle != color / 2f
+                    || brush != color % 5) {
+                inOrder = false;
+            }
+            lastColor = color;
+            dabs++;
+        }
+
+        @Override
+        public void onClear(int width, int height) {
+            clears++;
+            lastWidth = width;
+        }
+
+        @Override
+        public void onCommand(int type) {
+            lastCommand = type;
+        }
+    }
+
+    @Test
+    public void drain_onlySeesCommittedRecords() throws Exception {
+        DabQueue queue = new DabQueue(8);
+        RecordingConsumer consumer = new RecordingConsumer();
+
+        queue.offerClear(640, 480);
+        queue.offerDab(0, 0, 0, 0, 0, 0);
+        queue.offerCommand(DabQueue.TYPE_END_STROKE);
+        assertEquals(0, queue.drain(consumer, 100));
+        assertTrue(queue.isEmpty());
+
+        queue.commit();
+        assertEquals(3, queue.drain(consumer, 100));
+        assertEquals(1, consumer.clears);
+        assertEquals(640, consumer.lastWidth);
+        assertEquals(1, consumer.dabs);
+        assertEquals(DabQueue.TYPE_END_STROKE, consumer.lastCommand);
+    }
+
+    @Test
+    public void offer_failsWhenFullInsteadOfBlocking() throws Exception {
+        DabQueue queue = new DabQueue(8);
+        for (int i = 0; i < queue.capacity(); i++) {
+            assertTrue(queue.offerDab(i, 0, i % 50, i, i / 2f, i % 5));
+        }
+        assertFalse(queue.offerDab(0, 0, 0, 0, 0, 0));
+        queue.commit();
+
+        RecordingConsumer consumer = new RecordingConsumer();
+        assertEquals(3, queue.drain(consumer, 3));
+        assertTrue(queue.offerDab(0, 0, 0, 0, 0, 0));
+    }
+
+    @Test
+    public void producerAndConsumerThreads_keepOrder() throws Exception {
+        final DabQueue queue = new DabQueue(256);
+        final int total = 200000;
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int i = 0;
+                while (i < total) {
+                    // Publish in batches, like one touch event at a time
+                    int end = Math.min(total, i + 7);
+                    while (i < end && queue.offerDab(i, 0, i % 50, i, i / 2f, i % 5)) {
+                        i++;
+                    }
+                    queue.commit();
+                    if (i < end) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        RecordingConsumer consumer = new RecordingConsumer();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (consumer.dabs < total && System.currentTimeMillis() < deadline) {
+            if (queue.drain(consumer, 64) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+
+        assertEquals(total, consumer.dabs);
+        assertTrue(consumer.inOrder);
+    }
+}
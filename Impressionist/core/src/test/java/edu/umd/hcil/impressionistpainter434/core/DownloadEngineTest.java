@@ -0,0 +1,238 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DownloadEngineTest {
+    private static final int BODY_BYTES = 200 * 1024;
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    private HttpServer _server;
+    private ExecutorService _serverExecutor;
+    private final byte[] _body = new byte[BODY_BYTES];
+    private final AtomicInteger _requests = new AtomicInteger();
+    private final AtomicInteger _active = new AtomicInteger();
+    private final AtomicInteger _maxActive = new AtomicInteger();
+    // Holds /slow responses until counted down
+    private volatile CountDownLatch _release = new CountDownLatch(0);
+
+    private File _directory;
+    private DownloadEngine<byte[]> _engine;
+
+    /**
+     * Reads the body back, so tests can compare it
+     */
+    private static final DownloadEngine.Decoder<byte[]> READ_ALL = new DownloadEngine.Decoder<byte[]>() {
+        @Override
+        public byte[] decode(String url, File file) throws IOException {
+            byte[] bytes = new byte[(int) file.length()];
+            InputStream in = new FileInputStream(file);
+            try {
+                int read = 0;
+                while (read < bytes.length) {
+                    read += in.read(bytes, read, bytes.length - read);
+                }
+            } finally {
+                in.close();
+            }
+            return bytes;
+        }
+    };
+
+    private static class RecordingCallback implements DownloadEngine.Callback<byte[]> {
+        final List<Long> progress = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile byte[] result;
+        volatile Exception error;
+
+        @Override
+        public void onProgress(String url, long bytesRead, long contentLength) {
+            progress.add(bytesRead);
+        }
+
+        @Override
+        public void onComplete(String url, byte[] result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(String url, Exception error) {
+            this.error = error;
+            done.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(7).nextBytes(_body);
+        _server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        _server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                _requests.incrementAndGet();
+                int active = _active.incrementAndGet();
+                while (true) {
+                    int max = _maxActive.get();
+                    if (active <= max || _maxActive.compareAndSet(max, active)) {
+                        break;
+                    }
+                }
+                try {
+                    String path = exchange.getRequestURI().getPath();
+                    if (path.startsWith("/missing")) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    if (path.startsWith("/slow")) {
+                        _release.await(10, TimeUnit.SECONDS);
+                    }
+                    exchange.sendResponseHeaders(200, _body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    for (int i = 0; i < _body.length; i += 8192) {
+                        out.write(_body, i, Math.min(8192, _body.length - i));
+                    }
+                    out.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    _active.decrementAndGet();
+                    exchange.close();
+                }
+            }
+        });
+        _serverExecutor = Executors.newCachedThreadPool();
+        _server.setExecutor(_serverExecutor);
+        _server.start();
+
+        _directory = _folder.newFolder("downloads");
+        _engine = new DownloadEngine<>(2, _directory, READ_ALL);
+    }
+
+    @After
+    public void tearDown() {
+        _release.countDown();
+        _engine.shutdown();
+        _server.stop(0);
+        _serverExecutor.shutdownNow();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + _server.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void download_returnsBodyAndDeletesTempFile() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        Future<byte[]> future = _engine.download(url("/image"), callback);
+
+        assertArrayEquals(_body, future.get(10, TimeUnit.SECONDS));
+        assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+        assertArrayEquals(_body, callback.result);
+        assertNull(callback.error);
+        assertEquals(0, _directory.list().length);
+        assertEquals(0, _engine.getInFlightCount());
+    }
+
+    @Test
+    public void download_sameUrlInFlight_sharesOneRequest() throws Exception {
+        _release = new CountDownLatch(1);
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        Future<byte[]> a = _engine.download(url("/slow"), first);
+        Future<byte[]> b = _engine.download(url("/slow"), second);
+        assertSame(a, b);
+        assertEquals(1, _engine.getInFlightCount());
+
+        _release.countDown();
+        assertArrayEquals(_body, a.get(10, TimeUnit.SECONDS));
+        assertTrue(first.done.await(10, TimeUnit.SECONDS));
+        assertTrue(second.done.await(10, TimeUnit.SECONDS));
+        assertArrayEquals(_body, first.result);
+        assertArrayEquals(_body, second.result);
+        assertEquals(1, _requests.get());
+    }
+
+    @Test
+    public void download_afterCompletion_startsOver() throws Exception {
+        _engine.download(url("/image"), null).get(10, TimeUnit.SECONDS);
+        _engine.download(url("/image"), null).get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, _requests.get());
+    }
+
+    @Test
+    public void download_manyUrls_respectsConcurrencyLimit() throws Exception {
+        _release = new CountDownLatch(1);
+        List<Future<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(_engine.download(url("/slow/" + i), null));
+        }
+        assertEquals(6, _engine.getInFlightCount());
+        // Let the first ones reach the server before releasing them
+        Thread.sleep(200);
+        _release.countDown();
+        for (Future<byte[]> future : futures) {
+            assertArrayEquals(_body, future.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(6, _requests.get());
+        assertTrue("at most 2 at once, saw " + _maxActive.get(), _maxActive.get() <= 2);
+    }
+
+    @Test
+    public void download_longInterval_reportsFinalProgressOnly() throws Exception {
+        _engine.setProgressInterval(TimeUnit.HOURS.toMillis(1));
+        RecordingCallback callback = new RecordingCallback();
+        _engine.download(url("/image"), callback).get(10, TimeUnit.SECONDS);
+        assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList((long) BODY_BYTES), callback.progress);
+    }
+
+    @Test
+    public void download_notFound_reportsError() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        Future<byte[]> future = _engine.download(url("/missing"), callback);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+        assertTrue(callback.error instanceof IOException);
+        assertNull(callback.result);
+        assertEquals(0, _directory.list().length);
+    }
+}
@@ -0,0 +1,50 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class HeadlessPainterTest {
+    private SourceSampler _sampler;
+
+    @Before
+    public void setUp() throws Exception {
+        _sampler = new SourceSampler();
+        int[] pixels = _sampler.obtainBuffer(300, 200);
+        for (int i = 0; i < 300 * 200; i++) {
+            pixels[i] = 0xff000000 | ((i % 300) << 8) | (i / 300);
+        }
+    }
+
+    @Test
+    public void paint_sameSeedSamePainting() throws Exception {
+        HeadlessPainter painter = new HeadlessPainter(_sampler, BrushType.CircleSplatter, 5, 50, 1f, 10, 42);
+        Raster first = painter.createRaster();
+        Raster second = painter.createRaster();
+        int dabs = painter.paint(first);
+        assertEquals(dabs, painter.paint(second));
+        assertArrayEquals(first.getPixels(), second.getPixels());
+
+        Raster other = painter.createRaster();
+        new HeadlessPainter(_sampler, BrushType.CircleSplatter, 5, 50, 1f, 10, 43).paint(other);
+        assertFalse(Arrays.equals(first.getPixels(), other.getPixels()));
+    }
+
+    @Test
+    public void paint_coversSourceArea() throws Exception {
+        HeadlessPainter painter = new HeadlessPainter(_sampler, BrushType.Square, 5, 255, 1f, 4, 7);
+        Raster painting = painter.createRaster();
+        assertEquals(300 + 2 * StrokeBuilder.SOURCE_OFFSET, painting.getWidth());
+        assertEquals(200 + 2 * StrokeBuilder.SOURCE_OFFSET, painting.getHeight());
+
+        // One dab per 4x4 cell over the source, and dense enough to cover it
+        int dabs = painter.paint(painting);
+        assertTrue(dabs > 300 * 200 / 16 * 9 / 10);
+        int offset = StrokeBuilder.SOURCE_OFFSET;
+        assertEquals(0xff, painting.getPixel(offset + 150, offset + 100) >>> 24);
+        assertEquals(0, painting.getPixel(0, 0));
+    }
+}
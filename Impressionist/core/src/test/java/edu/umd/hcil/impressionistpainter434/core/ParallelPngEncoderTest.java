@@ -0,0 +1,93 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class ParallelPngEncoderTest {
+    private final ExecutorService _executor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    @Test
+    public void combineAdler32_matchesWholeChecksum() {
+        byte[] bytes = new byte[100000];
+        new Random(5).nextBytes(bytes);
+        Adler32 whole = new Adler32();
+        whole.update(bytes, 0, bytes.length);
+
+        long combined = 1;
+        for (int offset = 0; offset < bytes.length; offset += 7777) {
+            int length = Math.min(7777, bytes.length - offset);
+            Adler32 part = new Adler32();
+            part.update(bytes, offset, length);
+            combined = ParallelPngEncoder.combineAdler32(combined, part.getValue(), length);
+        }
+        assertEquals(whole.getValue(), combined);
+    }
+
+    @Test
+    public void encode_decodesToTheSamePixels() throws Exception {
+        SourceSampler sampler = new SourceSampler();
+        int[] pixels = sampler.obtainBuffer(83, 161);
+        for (int i = 0; i < 83 * 161; i++) {
+            pixels[i] = 0xff000000 | ((i % 83) << 16) | (i / 83);
+        }
+        HeadlessPainter painter = new HeadlessPainter(sampler, BrushType.CircleSplatter, 5, 120, 1f, 6, 7);
+        Raster raster = painter.createRaster();
+        painter.paint(raster);
+
+        // Strips of one row, strips that don't divide the height, and a single strip
+        for (int stripHeight : new int[] {1, 16, 64, 500}) {
+            ParallelPngEncoder encoder = new ParallelPngEncoder(_executor, 3);
+            encoder.setStripHeight(stripHeight);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encoder.encode(raster, out);
+
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(raster.getWidth(), decoded.getWidth());
+            assertEquals(raster.getHeight(), decoded.getHeight());
+            for (int y = 0; y < raster.getHeight(); y++) {
+                for (int x = 0; x < raster.getWidth(); x++) {
+                    int expected = raster.getPixel(x, y);
+                    int actual = decoded.getRGB(x, y);
+                    // Fully transparent pixels may decode with any color
+                    if ((expected >>> 24) != 0 || (actual >>> 24) != 0) {
+                        assertEquals("strips of " + stripHeight + " at " + x + "," + y, expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void encode_sameBytesOnAnyThreadCount() throws Exception {
+        Raster raster = new Raster(64, 64);
+        raster.fillCircle(30, 30, 20, 0xc0336699);
+        ByteArrayOutputStream one = new ByteArrayOutputStream();
+        ByteArrayOutputStream three = new ByteArrayOutputStream();
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        ParallelPngEncoder encoder = new ParallelPngEncoder(single, 1);
+        encoder.setStripHeight(8);
+        encoder.encode(raster, one);
+        single.shutdown();
+        encoder = new ParallelPngEncoder(_executor, 3);
+        encoder.setStripHeight(8);
+        encoder.encode(raster, three);
+        assertArrayEquals(one.toByteArray(), three.toByteArray());
+    }
+}
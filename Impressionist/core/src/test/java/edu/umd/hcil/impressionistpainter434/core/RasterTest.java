@@ -0,0 +1,124 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RasterTest {
+
+    @Test
+    public void fillSpan_blendsSourceOver() throws Exception {
+        Raster raster = new Raster(4, 1);
+        raster.fillSpan(0, 0, 4, 0xff0000ff);
+        raster.fillSpan(0, 1, 3, 0x80ff0000);
+
+        assertEquals(0xff0000ff, raster.getPixel(0, 0));
+        int blended = raster.getPixel(1, 0);
+        assertEquals(0xff, blended >>> 24);
+        assertEquals(0x80, (blended >> 16) & 0xff);
+        assertEquals(0x7f, blended & 0xff);
+        assertEquals(0xff0000ff, raster.getPixel(3, 0));
+    }
+
+    @Test
+    public void fillSpan_overTransparentKeepsColor() throws Exception {
+        Raster raster = new Raster(1, 1);
+        raster.fillSpan(0, 0, 1, 0x4012abcd);
+        assertEquals(0x4012abcd, raster.getPixel(0, 0));
+    }
+
+    @Test
+    public void fillCircle_coversPixelCenters() throws Exception {
+        Raster raster = new Raster(10, 10);
+        raster.fillCircle(5, 5, 2, 0xffffffff);
+
+        assertEquals(0xffffffff, raster.getPixel(5, 5));
+        assertEquals(0xffffffff, raster.getPixel(3, 4));
+        assertEquals(0, raster.getPixel(3, 3));
+        assertEquals(0, raster.getPixel(7, 5));
+
+        int covered = 0;
+        for (int pixel : raster.getPixels()) {
+            if (pixel != 0) {
+                covered++;
+            }
+        }
+        assertEquals(12, covered);
+    }
+
+    @Test
+    public void fill_clipsToRaster() throws Exception {
+        Raster raster = new Raster(4, 4);
+        raster.fillCircle(0, 0, 10, 0xff00ff00);
+        raster.fillRect(-5, -5, 50, 50, 0xff00ff00);
+        assertEquals(0xff00ff00, raster.getPixel(3, 3));
+    }
+
+    @Test
+    public void drawRaster_matchesDrawingInPlace() throws Exception {
+        DabPainter painter = new DabPainter();
+        Raster whole = new Raster(64, 64);
+        painter.drawDab(whole, BrushType.CircleSplatter, 30.5f, 28.25f, 9, 0xc0336699);
+
+        // Same dab rendered into an offset layer, then composited
+        Raster layer = new Raster(40, 40);
+        painter.setOrigin(10, 10);
+        painter.drawDab(layer, BrushType.CircleSplatter, 30.5f, 28.25f, 9, 0xc0336699);
+        Raster composited = new Raster(64, 64);
+        composited.drawRaster(layer, 10, 10);
+
+        assertArrayEquals(whole.getPixels(), composited.getPixels());
+    }
+
+    @Test
+    public void drawLine_fillsRotatedBand() throws Exception {
+        Raster raster = new Raster(20, 20);
+        // Horizontal: rows 9 and 10 from x = 4 to 15
+        raster.drawLine(4, 10, 16, 10, 2, 0xffffffff);
+        assertEquals(0xffffffff, raster.getPixel(4, 9));
+        assertEquals(0xffffffff, raster.getPixel(15, 10));
+        assertEquals(0, raster.getPixel(16, 10));
+        assertEquals(0, raster.getPixel(10, 8));
+        assertEquals(0, raster.getPixel(10, 11));
+
+        // Diagonal: covers the pixels along it and nothing far off it
+        raster.clear();
+        raster.drawLine(2, 2, 18, 18, 2, 0xffffffff);
+        for (int i = 3; i < 17; i++) {
+            assertEquals(0xffffffff, raster.getPixel(i, i));
+        }
+        assertEquals(0, raster.getPixel(16, 3));
+        assertEquals(0, raster.getPixel(3, 16));
+    }
+
+    @Test
+    public void drawDab_linesFollowDirection() throws Exception {
+        DabPainter painter = new DabPainter();
+        Raster raster = new Raster(40, 40);
+        painter.drawDab(raster, BrushType.Line, 20, 20, 16, 0xffffffff, (float) (Math.PI / 2));
+        // 16 long, 4 wide, vertical
+        assertEquals(0xffffffff, raster.getPixel(20, 12));
+        assertEquals(0xffffffff, raster.getPixel(20, 27));
+        assertEquals(0, raster.getPixel(20, 29));
+        assertEquals(0, raster.getPixel(27, 20));
+    }
+
+    @Test
+    public void drawDab_staysInBounds() throws Exception {
+        DabPainter painter = new DabPainter();
+        float[] bounds = new float[4];
+        for (BrushType brushType : BrushType.values()) {
+            Raster raster = new Raster(100, 100);
+            painter.drawDab(raster, brushType, 40.5f, 41.5f, 20, 0xffffffff, (float) (Math.PI / 4));
+            DabPainter.getBounds(brushType, 40.5f, 41.5f, 20, bounds);
+            for (int y = 0; y < 100; y++) {
+                for (int x = 0; x < 100; x++) {
+                    if (raster.getPixel(x, y) != 0) {
+                        assertTrue(brushType + " at " + x + "," + y, x + 0.5f >= bounds[0] && x + 0.5f <= bounds[2]
+                                && y + 0.5f >= bounds[1] && y + 0.5f <= bounds[3]);
+                    }
+                }
+            }
+        }
+    }
+}
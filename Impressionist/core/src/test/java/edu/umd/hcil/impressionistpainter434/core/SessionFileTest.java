@@ -0,0 +1,241 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SessionFileTest {
+    private static final int TILE_BYTES = 64 * 64 * 4;
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    private static SessionFile.State newState() {
+        SessionFile.State state = new SessionFile.State();
+        state.imageUri = "content://media/external/images/media/42";
+        state.sourceWidth = 100;
+        state.sourceHeight = 60;
+        state.sampleSize = 2;
+        state.decodeConfig = "RGB_565";
+        state.width = 140;
+        state.height = 100;
+        state.tileSize = 64;
+        state.brushType = BrushType.CircleSplatter;
+        state.alpha = 50;
+        state.matrix[0] = 2;
+        state.matrix[4] = 2;
+        state.matrix[8] = 1;
+        return state;
+    }
+
+    private static byte[] tile(int seed) {
+        byte[] pixels = new byte[TILE_BYTES];
+        Random random = new Random(seed);
+        // Compressible, like paint
+        for (int i = 0; i < pixels.length; i += 64) {
+            Arrays.fill(pixels, i, i + 64, (byte) random.nextInt());
+        }
+        return pixels;
+    }
+
+    @Test
+    public void reopen_readsStateAndTiles() throws Exception {
+        File file = _folder.newFile("session.imps");
+        SessionFile session = SessionFile.create(file, newState());
+        assertEquals(6, session.getTileCount());
+        session.writeTile(0, tile(0), TILE_BYTES);
+        session.writeTile(5, tile(5), TILE_BYTES);
+        session.commit();
+        session.close();
+
+        SessionFile reopened = SessionFile.open(file);
+        SessionFile.State state = reopened.getState();
+        assertTrue(state.isSamePainting(newState()));
+        assertEquals(BrushType.CircleSplatter, state.brushType);
+        assertEquals(50, state.alpha);
+        assertEquals(2f, state.matrix[4], 0f);
+        assertEquals(2, state.sampleSize);
+        assertEquals("RGB_565", state.decodeConfig);
+
+        byte[] out = new byte[TILE_BYTES];
+        assertEquals(TILE_BYTES, reopened.readTile(0, out));
+        assertArrayEquals(tile(0), out);
+        assertEquals(TILE_BYTES, reopened.readTile(5, out));
+        assertArrayEquals(tile(5), out);
+        assertFalse(reopened.hasTile(1));
+        assertEquals(0, reopened.readTile(1, out));
+        reopened.close();
+    }
+
+    @Test
+    public void uncommittedWrites_areNotVisible() throws Exception {
+        File file = _folder.newFile("session.imps");
+        SessionFile session = SessionFile.create(file, newState());
+        session.writeTile(2, tile(2), TILE_BYTES);
+        session.commit();
+        session.writeTile(2, tile(3), TILE_BYTES);
+        session.clearTile(2);
+        session.writeTile(4, tile(4), TILE_BYTES);
+        session.close();
+
+        SessionFile reopened = SessionFile.open(file);
+        byte[] out = new byte[TILE_BYTES];
+        assertEquals(TILE_BYTES, reopened.readTile(2, out));
+        assertArrayEquals(tile(2), out);
+        assertFalse(reopened.hasTile(4));
+        reopened.close();
+    }
+
+    @Test
+    public void rewrites_areCompactedAway() throws Exception {
+        File file = _folder.newFile("session.imps");
+        SessionFile session = SessionFile.create(file, newState());
+        byte[] noise = new byte[TILE_BYTES];
+        Random random = new Random(1);
+        // 3MB of rewrites
+        for (int i = 0; i < 200; i++) {
+            // Incompressible, so that the dead blocks add up quickly
+            random.nextBytes(noise);
+            session.writeTile(i % 2, noise, TILE_BYTES);
+            session.commit();
+        }
+        assertTrue(session.getGarbageBytes() <= 1024 * 1024 + TILE_BYTES);
+        assertTrue(file.length() < 1024 * 1024 + 4 * TILE_BYTES);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        session.writeTile(3, tile(3), TILE_BYTES);
+        session.commit();
+        session.close();
+
+        SessionFile reopened = SessionFile.open(file);
+        byte[] out = new byte[TILE_BYTES];
+        reopened.readTile(1, out);
+        assertArrayEquals(noise, out);
+        reopened.readTile(3, out);
+        assertArrayEquals(tile(3), out);
+        reopened.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsDamagedHeader() throws Exception {
+        File file = _folder.newFile("session.imps");
+        SessionFile.create(file, newState()).close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(12);
+        raf.writeInt(12345);
+        raf.close();
+        SessionFile.open(file);
+    }
+
+    @Test
+    public void tornIndex_fallsBackToThePreviousCommit() throws Exception {
+        File file = _folder.newFile("session.imps");
+        SessionFile session = SessionFile.create(file, newState());
+        session.writeTile(0, tile(0), TILE_BYTES);
+        // Slot 0
+        session.commit();
+        session.writeTile(0, tile(1), TILE_BYTES);
+        // Slot 1
+        session.commit();
+        session.close();
+
+        // Half of slot 1's index made it to disk
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(2 * SessionFile.HEADER_SIZE + 6 * 16);
+        raf.writeLong(123456789L);
+        raf.close();
+
+        SessionFile reopened = SessionFile.open(file);
+        byte[] out = new byte[TILE_BYTES];
+        assertEquals(TILE_BYTES, reopened.readTile(0, out));
+        assertArrayEquals(tile(0), out);
+        reopened.close();
+    }
+
+    @Test
+    public void tornHeader_fallsBackToThePreviousCommit() throws Exception {
+        File file = _folder.newFile("session.imps");
+        SessionFile session = SessionFile.create(file, newState());
+        session.writeTile(0, tile(0), TILE_BYTES);
+        session.commit();
+        session.writeTile(0, tile(1), TILE_BYTES);
+        session.writeTile(1, tile(2), TILE_BYTES);
+        session.commit();
+        session.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(SessionFile.HEADER_SIZE + 12);
+        raf.writeInt(12345);
+        raf.close();
+
+        SessionFile reopened = SessionFile.open(file);
+        byte[] out = new byte[TILE_BYTES];
+        assertEquals(TILE_BYTES, reopened.readTile(0, out));
+        assertArrayEquals(tile(0), out);
+        assertFalse(reopened.hasTile(1));
+
+        // Saving again goes into the damaged slot, not over the good one
+        reopened.writeTile(1, tile(3), TILE_BYTES);
+        reopened.commit();
+        reopened.close();
+        reopened = SessionFile.open(file);
+        assertEquals(TILE_BYTES, reopened.readTile(1, out));
+        assertArrayEquals(tile(3), out);
+        reopened.close();
+    }
+
+    @Test
+    public void create_keepsTheOldSessionUntilItsFirstCommit() throws Exception {
+        File file = _folder.newFile("session.imps");
+        SessionFile session = SessionFile.create(file, newState());
+        session.writeTile(0, tile(0), TILE_BYTES);
+        session.commit();
+        session.close();
+
+        SessionFile.State other = newState();
+        other.imageUri = "content://other";
+        SessionFile replacement = SessionFile.create(file, other);
+        replacement.writeTile(0, tile(1), TILE_BYTES);
+        // Killed before the first commit
+        replacement.close();
+
+        SessionFile reopened = SessionFile.open(file);
+        assertTrue(reopened.getState().isSamePainting(newState()));
+        byte[] out = new byte[TILE_BYTES];
+        reopened.readTile(0, out);
+        assertArrayEquals(tile(0), out);
+        reopened.close();
+        assertEquals(1, _folder.getRoot().list().length);
+
+        replacement = SessionFile.create(file, other);
+        replacement.writeTile(0, tile(1), TILE_BYTES);
+        replacement.commit();
+        replacement.close();
+        reopened = SessionFile.open(file);
+        assertTrue(reopened.getState().isSamePainting(other));
+        reopened.readTile(0, out);
+        assertArrayEquals(tile(1), out);
+        reopened.close();
+        assertEquals(1, _folder.getRoot().list().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setState_rejectsAnotherPainting() throws Exception {
+        SessionFile session = SessionFile.create(_folder.newFile("session.imps"), newState());
+        SessionFile.State other = newState();
+        other.imageUri = "content://other";
+        try {
+            session.setState(other);
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SourceSamplerTest {
+
+    private static SourceSampler makeSampler(int width, int height) {
+        SourceSampler sampler = new SourceSampler();
+        int[] pixels = sampler.obtainBuffer(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = 0xff000000 | (x << 16) | (y << 8);
+            }
+        }
+        return sampler;
+    }
+
+    @Test
+    public void sample_returnsPixelAndClampsToEdges() throws Exception {
+        SourceSampler sampler = makeSampler(16, 8);
+        assertEquals(0xff000000 | (3 << 16) | (5 << 8), sampler.sample(3, 5));
+        assertEquals(0xff000000 | (15 << 16) | (7 << 8), sampler.sample(100, 100));
+        assertEquals(0xff000000, sampler.sample(-4, -4));
+        assertFalse(sampler.contains(16, 0));
+        assertTrue(sampler.contains(15, 7));
+    }
+
+    @Test
+    public void sampleAverage_averagesFootprint() throws Exception {
+        SourceSampler sampler = makeSampler(32, 32);
+        // Symmetric footprint around (10, 12) averages back to the center color
+        assertEquals(0xff000000 | (10 << 16) | (12 << 8), sampler.sampleAverage(10, 12, 2));
+        assertEquals(sampler.sample(4, 4), sampler.sampleAverage(4, 4, 0));
+    }
+
+    @Test
+    public void obtainBuffer_fitsTheImage() throws Exception {
+        SourceSampler sampler = new SourceSampler();
+        int[] first = sampler.obtainBuffer(64, 64);
+        int[] second = sampler.obtainBuffer(32, 16);
+        assertNotSame(first, second);
+        assertEquals(32 * 16, second.length);
+        assertEquals(32, sampler.getWidth());
+        sampler.clear();
+        assertTrue(sampler.isEmpty());
+        assertEquals(0, sampler.sample(0, 0));
+    }
+}
@@ -0,0 +1,70 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SplatterTest {
+
+    @Test
+    public void generate_sameDabSamePieces() {
+        float[] first = new float[3 * Splatter.COUNT];
+        float[] second = new float[3 * Splatter.COUNT];
+        new Splatter().generate(30.5f, 28.25f, 9, 0xc0336699, first);
+        new Splatter().generate(30.5f, 28.25f, 9, 0xc0336699, second);
+        assertArrayEquals(first, second, 0f);
+    }
+
+    @Test
+    public void generate_isAVariantMovedToTheDab() {
+        float[] pieces = new float[3 * Splatter.COUNT];
+        float[] offsets = new float[3 * Splatter.COUNT];
+        Splatter splatter = new Splatter();
+        splatter.generate(100, 200, 12, 0xff00ff00, pieces);
+        splatter.generateOffsets(Splatter.variantFor(100, 200, 12, 0xff00ff00), 12, offsets);
+        for (int i = 0; i < Splatter.COUNT; i++) {
+            assertEquals(offsets[3 * i] + 100, pieces[3 * i], 0f);
+            assertEquals(offsets[3 * i + 1] + 200, pieces[3 * i + 1], 0f);
+            assertEquals(offsets[3 * i + 2], pieces[3 * i + 2], 0f);
+        }
+    }
+
+    @Test
+    public void generateOffsets_staysWithinTheBrush() {
+        float[] offsets = new float[3 * Splatter.COUNT];
+        Splatter splatter = new Splatter();
+        for (int radius = 1; radius < 64; radius++) {
+            for (int variant = 0; variant < Splatter.VARIANTS; variant++) {
+                splatter.generateOffsets(variant, radius, offsets);
+                for (int i = 0; i < Splatter.COUNT; i++) {
+                    assertTrue(offsets[3 * i] >= 0 && offsets[3 * i] < radius);
+                    assertTrue(offsets[3 * i + 1] >= 0 && offsets[3 * i + 1] < radius);
+                    assertTrue(offsets[3 * i + 2] > 0 && offsets[3 * i + 2] <= radius);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void generateOffsets_zeroRadius() {
+        float[] offsets = new float[3 * Splatter.COUNT];
+        new Splatter().generateOffsets(3, 0, offsets);
+        for (float value : offsets) {
+            assertEquals(0f, value, 0f);
+        }
+    }
+
+    @Test
+    public void variantFor_spreadsNeighboringDabs() {
+        Set<Integer> variants = new HashSet<>();
+        for (int x = 0; x < 64; x++) {
+            int variant = Splatter.variantFor(x, 10, 8, 0xff808080);
+            assertTrue(variant >= 0 && variant < Splatter.VARIANTS);
+            variants.add(variant);
+        }
+        assertEquals(Splatter.VARIANTS, variants.size());
+    }
+}
@@ -0,0 +1,55 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SplitRandomTest {
+
+    @Test
+    public void sameSeed_sameSequence() {
+        SplitRandom a = new SplitRandom(42, 7);
+        SplitRandom b = new SplitRandom(0);
+        b.setSeed(42, 7);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(a.nextLong(), b.nextLong());
+        }
+    }
+
+    @Test
+    public void neighboringStreams_differ() {
+        SplitRandom a = new SplitRandom(42, 0);
+        SplitRandom b = new SplitRandom(42, 1);
+        long first = b.nextLong();
+        // Stream 1 must not be stream 0 shifted by a step or two
+        for (int i = 0; i < 4; i++) {
+            assertNotEquals(first, a.nextLong());
+        }
+    }
+
+    @Test
+    public void nextInt_staysInRange() {
+        SplitRandom random = new SplitRandom(1);
+        boolean[] seen = new boolean[10];
+        for (int i = 0; i < 1000; i++) {
+            int value = random.nextInt(10);
+            assertTrue(value >= 0 && value < 10);
+            seen[value] = true;
+
+            int ranged = random.nextInt(1, 3);
+            assertTrue(ranged >= 1 && ranged <= 3);
+
+            float f = random.nextFloat();
+            assertTrue(f >= 0 && f < 1);
+        }
+        for (boolean s : seen) {
+            assertTrue(s);
+        }
+        assertEquals(5, random.nextInt(5, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nextInt_rejectsEmptyRange() {
+        new SplitRandom(1).nextInt(0);
+    }
+}
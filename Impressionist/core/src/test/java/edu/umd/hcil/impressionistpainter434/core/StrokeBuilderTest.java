@@ -0,0 +1,137 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class StrokeBuilderTest {
+    private BrushDynamics _dynamics;
+    private SourceSampler _sampler;
+    private StrokeBuilder _stroke;
+    private DabBuffer _dabs;
+
+    @Before
+    public void setUp() throws Exception {
+        _dynamics = new BrushDynamics();
+        _dynamics.setMinRadius(8);
+        _sampler = new SourceSampler();
+        int[] pixels = _sampler.obtainBuffer(512, 512);
+        java.util.Arrays.fill(pixels, 0xff336699);
+        _stroke = new StrokeBuilder(_dynamics, _sampler);
+        _dabs = new DabBuffer(4);
+    }
+
+    @Test
+    public void addSample_spacesDabsEvenlyAlongPath() throws Exception {
+        _stroke.begin(100, 100, 0);
+        // One coarse sample 200px away: the dabs fill the gap at radius * spacing
+        _stroke.addSample(300, 100, 1000, _dabs);
+
+        int radius = _dynamics.radiusFor(_dynamics.getSpeed());
+        float spacing = radius * StrokeBuilder.DEFAULT_SPACING;
+        assertEquals((int) (200 / spacing) + 1, _dabs.size());
+        for (int i = 1; i < _dabs.size(); i++) {
+            assertEquals(spacing, _dabs.getX(i) - _dabs.getX(i - 1), 1e-3f);
+            assertEquals(100f, _dabs.getY(i), 1e-3f);
+        }
+        assertEquals(100f - radius, _dabs.getLeft(), 1e-3f);
+        assertEquals(_dabs.getX(_dabs.size() - 1) + radius, _dabs.getRight(), 1e-3f);
+    }
+
+    @Test
+    public void addSample_historicalSamplesMatchSingleSample() throws Exception {
+        _stroke.begin(100, 100, 0);
+        for (int i = 1; i <= 20; i++) {
+            _stroke.addSample(100 + i * 10, 100, i * 100, _dabs);
+        }
+        int batched = _dabs.size();
+
+        _dabs.clear();
+        _stroke.begin(100, 100, 0);
+        _stroke.addSample(300, 100, 2000, _dabs);
+
+        // Same path and speed, so the dabs don't depend on how the samples were batched
+        assertEquals(_dabs.size(), batched);
+    }
+
+    @Test
+    public void addSample_anglesFollowVelocity() throws Exception {
+        _stroke.begin(100, 100, 0);
+        for (int i = 1; i <= 10; i++) {
+            _stroke.addSample(100, 100 + i * 10, i * 16, _dabs);
+        }
+        assertTrue(_dabs.size() > 0);
+        assertEquals(Math.PI / 2, _dabs.getAngle(_dabs.size() - 1), 1e-3);
+
+        // Turning left: the direction swings towards -x, smoothly rather than at once
+        _dabs.clear();
+        _stroke.addSample(90, 200, 176, _dabs);
+        float turning = _stroke.getAngle();
+        assertTrue(turning > Math.PI / 2 && turning < Math.PI);
+        for (int i = 2; i <= 20; i++) {
+            _stroke.addSample(100 - i * 10, 200, 160 + i * 16, _dabs);
+        }
+        assertEquals(Math.PI, Math.abs(_stroke.getAngle()), 1e-2);
+    }
+
+    @Test
+    public void addDab_usesSourceColorAndBrushAlpha() throws Exception {
+        _stroke.addDab(50, 50, 0, false, _dabs);
+        _stroke.addDab(5, 5, 0, false, _dabs);
+        assertEquals(1, _dabs.size());
+        assertEquals((_dynamics.alphaFor(0) << 24) | 0x336699, _dabs.getColor(0));
+    }
+
+    @Test
+    public void inverseMatrix_mapsViewToPainting() throws Exception {
+        _stroke.setInverseMatrix(new float[] {2, 0, 10, 0, 2, 20, 0, 0, 1});
+        _stroke.addDab(50, 50, 0, false, _dabs);
+        assertEquals(110f, _dabs.getX(0), 1e-4f);
+        assertEquals(120f, _dabs.getY(0), 1e-4f);
+    }
+
+    /**
+     * Replays move events, including historical samples, through the stroke pipeline and
+     * checks that none of it allocates once the dab buffer has grown to size
+     */
+    @Test
+    public void moveEvents_doNotAllocate() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        _dynamics.setScale(1.5f);
+        int sink = replayMoves(5000);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        sink += replayMoves(5000);
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+
+        assertTrue(sink != 42);
+        assertEquals("bytes allocated by 5000 move events", 0, after - before);
+    }
+
+    private int replayMoves(int events) {
+        int sink = 0;
+        _stroke.begin(30, 30, 0);
+        long time = 0;
+        for (int e = 0; e < events; e++) {
+            _dabs.clear();
+            // Four historical samples plus the current one per event
+            for (int h = 0; h < 5; h++) {
+                time += 2;
+                int step = e * 5 + h;
+                _stroke.addSample(30 + (step * 3) % 450, 30 + (step * 7) % 450, time, _dabs);
+            }
+            sink += _dabs.size();
+        }
+        return sink;
+    }
+}
@@ -0,0 +1,179 @@
+package edu.umd.hcil.impressionistpainter434.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StrokeLogTest {
+
+    /**
+     * A "painting" that is just the list of dab colors drawn into it, in order
+     */
+    private static class ListPainting implements StrokeLog.Replayer<List<Integer>> {
+        List<Integer> dabs = new ArrayList<>();
+        int replayed = 0;
+        // Snapshots handed out and not released yet
+        int live = 0;
+
+        void draw(StrokeLog<List<Integer>> log, int color) {
+            dabs.add(color);
+            log.append(color, color, 1, color, 0, 0);
+        }
+
+        @Override
+        public void restore(List<Integer> snapshot) {
+            dabs = snapshot == null ? new ArrayList<Integer>() : new ArrayList<>(snapshot);
+        }
+
+        @Override
+        public void replay(float x, float y, int radius, int color, float angle, int brush) {
+            dabs.add(color);
+            replayed++;
+        }
+
+        @Override
+        public List<Integer> snapshot(List<Integer> reuse) {
+            if (reuse != null) {
+                discard(reuse);
+            }
+            live++;
+            return new ArrayList<>(dabs);
+        }
+
+        @Override
+        public void discard(List<Integer> snapshot) {
+            assertNotNull(snapshot);
+            live--;
+        }
+    }
+
+    private static void stroke(StrokeLog<List<Integer>> log, ListPainting painting, int first, int count) {
+        for (int i = 0; i < count; i++) {
+            painting.draw(log, first + i);
+        }
+        log.endStroke(painting);
+    }
+
+    @Test
+    public void undoRedo_restoresEarlierPaintings() throws Exception {
+        StrokeLog<List<Integer>> log = new StrokeLog<>(1024, 4, 4);
+        ListPainting painting = new ListPainting();
+        List<List<Integer>> states = new ArrayList<>();
+        states.add(new ArrayList<Integer>());
+        for (int s = 0; s < 10; s++) {
+            stroke(log, painting, s * 100, 3);
+            states.add(new ArrayList<>(painting.dabs));
+        }
+
+        for (int s = 9; s >= 0; s--) {
+            assertTrue(log.undo(painting));
+            assertEquals(states.get(s), painting.dabs);
+        }
+        assertFalse(log.canUndo());
+
+        for (int s = 1; s <= 10; s++) {
+            assertTrue(log.redo(painting));
+            assertEquals(states.get(s), painting.dabs);
+        }
+        assertFalse(log.redo(painting));
+    }
+
+    @Test
+    public void undo_onlyReplaysSinceNearestCheckpoint() throws Exception {
+        StrokeLog<List<Integer>> log = new StrokeLog<>(1024, 4, 4);
+        ListPainting painting = new ListPainting();
+        for (int s = 0; s < 10; s++) {
+            stroke(log, painting, s * 100, 5);
+        }
+
+        // Checkpoints at strokes 4 and 8, so undoing stroke 10 replays stroke 9 only
+        painting.replayed = 0;
+        assertTrue(log.undo(painting));
+        assertEquals(5, painting.replayed);
+    }
+
+    @Test
+    public void newStroke_discardsRedo() throws Exception {
+        StrokeLog<List<Integer>> log = new StrokeLog<>(1024, 4, 4);
+        ListPainting painting = new ListPainting();
+        stroke(log, painting, 0, 2);
+        stroke(log, painting, 10, 2);
+        assertTrue(log.undo(painting));
+        assertTrue(log.canRedo());
+
+        stroke(log, painting, 20, 2);
+        assertFalse(log.canRedo());
+        assertEquals(2, log.getStrokeCount());
+
+        assertTrue(log.undo(painting));
+        assertEquals(2, painting.dabs.size());
+        assertEquals(Integer.valueOf(1), painting.dabs.get(1));
+    }
+
+    @Test
+    public void history_isBoundedByCheckpoints() throws Exception {
+        StrokeLog<List<Integer>> log = new StrokeLog<>(1024, 2, 3);
+        ListPainting painting = new ListPainting();
+        for (int s = 0; s < 20; s++) {
+            stroke(log, painting, s * 100, 1);
+        }
+        assertEquals(3, log.getCheckpointCount());
+
+        // Only the strokes after the oldest kept checkpoint (stroke 16) can be undone
+        int undone = 0;
+        while (log.undo(painting)) {
+            undone++;
+        }
+        assertEquals(4, undone);
+        assertEquals(16, painting.dabs.size());
+    }
+
+    @Test
+    public void opaqueStroke_isUndoneThroughItsCheckpoint() throws Exception {
+        StrokeLog<List<Integer>> log = new StrokeLog<>(1024, 100, 4);
+        ListPainting painting = new ListPainting();
+        stroke(log, painting, 0, 2);
+
+        // Drawn without logging, like auto-paint
+        painting.dabs.add(500);
+        painting.dabs.add(501);
+        log.endOpaqueStroke(painting);
+        stroke(log, painting, 10, 1);
+
+        assertTrue(log.undo(painting));
+        assertTrue(log.undo(painting));
+        assertEquals(2, painting.dabs.size());
+
+        assertTrue(log.redo(painting));
+        assertEquals(4, painting.dabs.size());
+        assertTrue(log.redo(painting));
+        assertEquals(Integer.valueOf(10), painting.dabs.get(4));
+    }
+
+    @Test
+    public void droppedSnapshots_areReleased() throws Exception {
+        StrokeLog<List<Integer>> log = new StrokeLog<>(1024, 1, 3);
+        ListPainting painting = new ListPainting();
+        for (int s = 0; s < 6; s++) {
+            stroke(log, painting, s * 100, 1);
+        }
+        // Evicted ones were released, the 3 kept ones are live
+        assertEquals(3, log.getCheckpointCount());
+        assertEquals(3, painting.live);
+
+        // Discarding the checkpoint of the undone stroke releases it
+        assertTrue(log.undo(painting));
+        stroke(log, painting, 1000, 1);
+        assertEquals(3, painting.live);
+        assertTrue(log.undo(painting));
+        assertTrue(log.undo(painting));
+        stroke(log, painting, 2000, 1);
+        assertEquals(2, painting.live);
+
+        log.reset(painting);
+        assertEquals(0, painting.live);
+    }
+}
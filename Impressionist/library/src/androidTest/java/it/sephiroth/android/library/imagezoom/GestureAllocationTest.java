@@ -0,0 +1,177 @@
+package it.sephiroth.android.library.imagezoom;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays pinch, pan and fling traces through {@link ImageViewTouch} and counts what each frame
+ * allocates on the UI thread: every move event, and every step of the fling and zoom
+ * animations, each followed by the frame's {@link MatrixSnapshot}, delivered to a listener the
+ * way the app registers one. Each trace is replayed once to warm up first, so that lazily created objects
+ * (detectors' velocity trackers, pooled frame callbacks) aren't counted.
+ *
+ * Fingers going down or up are not counted: that is where the platform's gesture detectors and
+ * animators set up, once per gesture.
+ */
+public class GestureAllocationTest extends InstrumentationTestCase {
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 800;
+    // Long enough for any fling to come to rest
+    private static final int MAX_ANIMATION_FRAMES = 300;
+
+    private ImageViewTouch mView;
+    private Bitmap mBitmap;
+    private final List<String> mFailures = new ArrayList<>();
+    private int mCacheHits;
+    private int mCacheMisses;
+    private final Matrix mSnapshotMatrix = new Matrix();
+    private final Matrix mSnapshotInverse = new Matrix();
+    private int mSnapshotCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mBitmap = Bitmap.createBitmap(800, 600, Bitmap.Config.RGB_565);
+                mView = new ImageViewTouch(getInstrumentation().getTargetContext(), null);
+                mView.setMatrixSnapshotListener(new ImageViewTouch.OnMatrixSnapshotListener() {
+                    @Override
+                    public void onMatrixSnapshot(MatrixSnapshot snapshot) {
+                        // What the painting does with it
+                        snapshot.getMatrix(mSnapshotMatrix);
+                        snapshot.getInverse(mSnapshotInverse);
+                        mSnapshotCount++;
+                    }
+                });
+                layout();
+                mView.setImageBitmap(mBitmap);
+                // Lays out the new bitmap
+                layout();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mView.stopAllAnimations();
+                mView.dispose();
+                mBitmap.recycle();
+            }
+        });
+        super.tearDown();
+    }
+
+    private void layout() {
+        mView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        mView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    public void testGestureFrames_allocateNothing() {
+        // In the past, so the fling isn't mistaken for the end of the pinch
+        long start = SystemClock.uptimeMillis() - 60000;
+        final GestureTrace pinch = GestureTrace.pinch("pinch", start, WIDTH / 2, HEIGHT / 2, 100, 400, 30);
+        final GestureTrace pan = GestureTrace.drag("pan", pinch.getEndTime() + 1000, 300, 500, 200, 300, 30);
+        final GestureTrace fling = GestureTrace.drag("fling", pan.getEndTime() + 1000, 100, 400, 400, 400, 5);
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int pass = 0; pass < 2; pass++) {
+                    boolean counted = pass == 1;
+                    mView.resetMatrix();
+                    mView.getMatrixCache().resetCounts();
+                    replay(pinch, counted);
+                    replay(pan, counted);
+                    replay(fling, counted);
+                    stepAnimation("fling animation", counted);
+
+                    mView.zoomTo(mView.getMinScale(), 300);
+                    stepAnimation("zoom animation", counted);
+                }
+                if (mSnapshotCount == 0) {
+                    mFailures.add("no matrix snapshots");
+                }
+                mCacheHits = mView.getMatrixCache().getHitCount();
+                mCacheMisses = mView.getMatrixCache().getMissCount();
+            }
+        });
+        pinch.recycle();
+        pan.recycle();
+        fling.recycle();
+
+        assertTrue(mFailures.toString(), mFailures.isEmpty());
+        // Every frame asks for the scale and bitmap rect more than once per change of the matrix
+        assertTrue("hits: " + mCacheHits + ", misses: " + mCacheMisses, mCacheHits > mCacheMisses);
+    }
+
+    private void replay(GestureTrace trace, boolean counted) {
+        for (int i = 0; i < trace.size(); i++) {
+            if (!counted || !trace.isMove(i)) {
+                mView.onTouchEvent(trace.get(i));
+                continue;
+            }
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            mView.onTouchEvent(trace.get(i));
+            takeSnapshot();
+            Debug.stopAllocCounting();
+            check(trace.getName() + " event " + i, Debug.getThreadAllocCount());
+        }
+    }
+
+    /**
+     * Runs the view's animator frame by frame, here rather than on the Choreographer (which can't
+     * while this blocks the UI thread), until it comes to rest
+     */
+    private void stepAnimation(String name, boolean counted) {
+        MatrixAnimator animator = mView.mAnimator;
+        // Failures are collected, not thrown: this runs on the UI thread
+        if (!animator.isRunning()) {
+            mFailures.add(name + " did not start");
+            return;
+        }
+        Choreographer choreographer = Choreographer.getInstance();
+        for (int frame = 0; frame < MAX_ANIMATION_FRAMES && animator.isRunning(); frame++) {
+            // The animator reads the animation clock, let a frame's worth of it pass
+            SystemClock.sleep(GestureTrace.FRAME_MS);
+            choreographer.removeFrameCallback(animator);
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            animator.doFrame(System.nanoTime());
+            takeSnapshot();
+            Debug.stopAllocCounting();
+            if (counted) {
+                check(name + " frame " + frame, Debug.getThreadAllocCount());
+            }
+        }
+        animator.stop();
+    }
+
+    /**
+     * Delivers the frame's matrix snapshot now, as the Choreographer would before drawing
+     */
+    private void takeSnapshot() {
+        Choreographer.getInstance().removeFrameCallback(mView.mSnapshotCallback);
+        mView.mSnapshotCallback.doFrame(System.nanoTime());
+    }
+
+    private void check(String frame, int allocations) {
+        if (allocations != 0) {
+            mFailures.add(frame + ": " + allocations + " allocations");
+        }
+    }
+}
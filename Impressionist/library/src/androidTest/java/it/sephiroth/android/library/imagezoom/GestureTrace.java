@@ -0,0 +1,122 @@
+package it.sephiroth.android.library.imagezoom;
+
+import android.view.MotionEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A gesture as the touch events it was made of, at 60 events per second, replayable as
+ * {@link MotionEvent}s. Events are built up front so that replaying them allocates nothing.
+ */
+class GestureTrace {
+    static final long FRAME_MS = 16;
+
+    private final String mName;
+    private final List<MotionEvent> mEvents = new ArrayList<>();
+    private final long mDownTime;
+    private long mTime;
+
+    private final MotionEvent.PointerProperties[] mProperties = new MotionEvent.PointerProperties[2];
+    private final MotionEvent.PointerCoords[] mCoords = new MotionEvent.PointerCoords[2];
+
+    /**
+     * @param name     shown in failures
+     * @param downTime uptime of the first event, in milliseconds
+     */
+    GestureTrace(String name, long downTime) {
+        mName = name;
+        mDownTime = downTime;
+        mTime = downTime;
+        for (int i = 0; i < 2; i++) {
+            mProperties[i] = new MotionEvent.PointerProperties();
+            mProperties[i].id = i;
+            mProperties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            mCoords[i] = new MotionEvent.PointerCoords();
+            mCoords[i].pressure = 1;
+            mCoords[i].size = 1;
+        }
+    }
+
+    /**
+     * One finger dragged from (x0, y0) to (x1, y1) over the given number of frames, then lifted
+     */
+    static GestureTrace drag(String name, long downTime, float x0, float y0, float x1, float y1, int frames) {
+        GestureTrace trace = new GestureTrace(name, downTime);
+        trace.add(MotionEvent.ACTION_DOWN, 0, x0, y0);
+        for (int i = 1; i <= frames; i++) {
+            float t = (float) i / frames;
+            trace.add(MotionEvent.ACTION_MOVE, FRAME_MS, x0 + (x1 - x0) * t, y0 + (y1 - y0) * t);
+        }
+        trace.add(MotionEvent.ACTION_UP, FRAME_MS, x1, y1);
+        return trace;
+    }
+
+    /**
+     * Two fingers on either side of (cx, cy), spread from span0 to span1 apart over the given
+     * number of frames, then lifted
+     */
+    static GestureTrace pinch(String name, long downTime, float cx, float cy, float span0, float span1, int frames) {
+        GestureTrace trace = new GestureTrace(name, downTime);
+        float half = span0 / 2;
+        trace.add(MotionEvent.ACTION_DOWN, 0, cx - half, cy);
+        trace.add(MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), FRAME_MS,
+            cx - half, cy, cx + half, cy);
+        for (int i = 1; i <= frames; i++) {
+            half = (span0 + (span1 - span0) * i / frames) / 2;
+            trace.add(MotionEvent.ACTION_MOVE, FRAME_MS, cx - half, cy, cx + half, cy);
+        }
+        trace.add(MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), FRAME_MS,
+            cx - half, cy, cx + half, cy);
+        trace.add(MotionEvent.ACTION_UP, FRAME_MS, cx - half, cy);
+        return trace;
+    }
+
+    private void add(int action, long dt, float x, float y) {
+        add(action, dt, 1, x, y, 0, 0);
+    }
+
+    private void add(int action, long dt, float x0, float y0, float x1, float y1) {
+        add(action, dt, 2, x0, y0, x1, y1);
+    }
+
+    private void add(int action, long dt, int pointers, float x0, float y0, float x1, float y1) {
+        mTime += dt;
+        mCoords[0].x = x0;
+        mCoords[0].y = y0;
+        mCoords[1].x = x1;
+        mCoords[1].y = y1;
+        mEvents.add(MotionEvent.obtain(mDownTime, mTime, action, pointers, mProperties, mCoords,
+            0, 0, 1, 1, 0, 0, 0, 0));
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    int size() {
+        return mEvents.size();
+    }
+
+    MotionEvent get(int index) {
+        return mEvents.get(index);
+    }
+
+    /**
+     * Whether the event at index is a move, as opposed to a finger going down or up
+     */
+    boolean isMove(int index) {
+        return mEvents.get(index).getActionMasked() == MotionEvent.ACTION_MOVE;
+    }
+
+    long getEndTime() {
+        return mTime;
+    }
+
+    void recycle() {
+        for (MotionEvent event : mEvents) {
+            event.recycle();
+        }
+        mEvents.clear();
+    }
+}
@@ -0,0 +1,62 @@
+package it.sephiroth.android.library.imagezoom;
+
+import android.graphics.Matrix;
+
+import junit.framework.TestCase;
+
+/**
+ * The snapshot inverts matrices by hand, so that taking one allocates nothing; it must agree
+ * with {@link Matrix#invert}.
+ */
+public class MatrixSnapshotTest extends TestCase {
+
+    public void testInverse_matchesMatrixInvert() {
+        Matrix matrix = new Matrix();
+        matrix.setScale(2.5f, 2.5f);
+        matrix.postTranslate(-130, 42);
+        assertInverse(matrix);
+
+        matrix.setRotate(30, 100, 50);
+        matrix.postScale(0.3f, 0.7f);
+        assertInverse(matrix);
+
+        matrix.setValues(new float[] {1, 0.2f, 3, 0.1f, 2, -4, 0.001f, 0.002f, 1});
+        assertInverse(matrix);
+    }
+
+    public void testSingularMatrix_isNotInvertible() {
+        Matrix matrix = new Matrix();
+        matrix.setScale(0, 1);
+        MatrixSnapshot snapshot = new MatrixSnapshot(matrix, 0);
+        assertFalse(snapshot.isInvertible());
+
+        Matrix inverse = new Matrix();
+        snapshot.getInverse(inverse);
+        assertTrue(inverse.isIdentity());
+    }
+
+    public void testSet_reusesSnapshot() {
+        Matrix matrix = new Matrix();
+        matrix.setScale(3, 3);
+        MatrixSnapshot snapshot = new MatrixSnapshot(matrix, 1);
+        matrix.setScale(0.5f, 0.5f);
+        snapshot.set(matrix, 2);
+        assertEquals(0.5f, snapshot.getScale());
+        assertEquals(2, snapshot.getFrameTimeNanos());
+    }
+
+    private static void assertInverse(Matrix matrix) {
+        Matrix expected = new Matrix();
+        assertTrue(matrix.invert(expected));
+        float[] expectedValues = new float[9];
+        expected.getValues(expectedValues);
+
+        MatrixSnapshot snapshot = new MatrixSnapshot(matrix, 0);
+        assertTrue(snapshot.isInvertible());
+        float[] values = new float[9];
+        snapshot.getInverseValues(values);
+        for (int i = 0; i < 9; i++) {
+            assertEquals("value " + i, expectedValues[i], values[i], 1e-4f * Math.max(1, Math.abs(expectedValues[i])));
+        }
+    }
+}
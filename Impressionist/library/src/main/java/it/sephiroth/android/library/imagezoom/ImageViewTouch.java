@@ -9,6 +9,7 @@ import android.os.Build;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.GestureDetector.OnGestureListener;
 import android.view.MotionEvent;
@@ -32,9 +33,23 @@ public class ImageViewTouch extends ImageViewTouchBase {
     protected boolean mDoubleTapEnabled = true;
     protected boolean mScaleEnabled = true;
     protected boolean mScrollEnabled = true;
+    private final Rect mImageViewRect = new Rect();
     private OnImageViewTouchDoubleTapListener mDoubleTapListener;
     private OnImageViewTouchSingleTapListener mSingleTapListener;
     private OnImageUpdateListener mImageUpdateListener;
+    private OnMatrixSnapshotListener mMatrixSnapshotListener;
+    private Choreographer mChoreographer;
+    private boolean mSnapshotPending;
+    // Taken in turns, see MatrixSnapshot
+    private final MatrixSnapshot[] mSnapshots = {new MatrixSnapshot(), new MatrixSnapshot()};
+    private int mSnapshotIndex;
+    final Choreographer.FrameCallback mSnapshotCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mSnapshotPending = false;
+            fireOnMatrixSnapshot(frameTimeNanos);
+        }
+    };
 
     public ImageViewTouch(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -54,6 +69,7 @@ public class ImageViewTouch extends ImageViewTouchBase {
         mScaleDetector = new ScaleGestureDetector(getContext(), mScaleListener);
         mGestureDetector = new GestureDetector(getContext(), mGestureListener, null, true);
         mDoubleTapDirection = 1;
+        mChoreographer = Choreographer.getInstance();
         setQuickScaleEnabled(false);
     }
 
@@ -90,6 +106,18 @@ public class ImageViewTouch extends ImageViewTouchBase {
         mImageUpdateListener = listener;
     }
 
+    /**
+     * Unlike {@link #setImageUpdateListener(OnImageUpdateListener)}, which is called for every
+     * change of the matrix, the listener is called at most once per frame, with the matrix as it
+     * is at the end of all the changes made since the last frame (one pinch step alone scales,
+     * centers and translates it).
+     *
+     * @param listener
+     */
+    public void setMatrixSnapshotListener(OnMatrixSnapshotListener listener) {
+        mMatrixSnapshotListener = listener;
+    }
+
     public void setDoubleTapEnabled(boolean value) {
         mDoubleTapEnabled = value;
     }
@@ -199,22 +227,8 @@ public class ImageViewTouch extends ImageViewTouchBase {
                 Log.v(TAG, "diff: " + (e2.getY() - e1.getY()));
             }
 
-            final float scale = Math.min(Math.max(2f, getScale() / 2), 3.f);
-
-            float scaledDistanceX = ((velocityX) / mMaxFlingVelocity) * (getWidth() * scale);
-            float scaledDistanceY = ((velocityY) / mMaxFlingVelocity) * (getHeight() * scale);
-
-            if (DEBUG) {
-                Log.v(TAG, "scale: " + getScale() + ", scale_final: " + scale);
-                Log.v(TAG, "scaledDistanceX: " + scaledDistanceX);
-                Log.v(TAG, "scaledDistanceY: " + scaledDistanceY);
-            }
-
             mUserScaled = true;
-
-            double total = Math.sqrt(Math.pow(scaledDistanceX, 2) + Math.pow(scaledDistanceY, 2));
-
-            scrollBy(scaledDistanceX, scaledDistanceY, (long) Math.min(Math.max(300, total / 5), 800));
+            fling(velocityX, velocityY);
 
             postInvalidate();
             return true;
@@ -265,7 +279,7 @@ public class ImageViewTouch extends ImageViewTouchBase {
     public boolean canScroll(int direction) {
         RectF bitmapRect = getBitmapRect();
         updateRect(bitmapRect, mScrollPoint);
-        Rect imageViewRect = new Rect();
+        Rect imageViewRect = mImageViewRect;
         getGlobalVisibleRect(imageViewRect);
 
         if (null == bitmapRect) {
@@ -426,6 +440,22 @@ public class ImageViewTouch extends ImageViewTouchBase {
         }
     }
 
+    private void scheduleMatrixSnapshot() {
+        if (mMatrixSnapshotListener != null && !mSnapshotPending) {
+            mSnapshotPending = true;
+            mChoreographer.postFrameCallback(mSnapshotCallback);
+        }
+    }
+
+    private void fireOnMatrixSnapshot(long frameTimeNanos) {
+        if (mMatrixSnapshotListener != null) {
+            mSnapshotIndex ^= 1;
+            MatrixSnapshot snapshot = mSnapshots[mSnapshotIndex];
+            snapshot.set(getImageMatrix(), frameTimeNanos);
+            mMatrixSnapshotListener.onMatrixSnapshot(snapshot);
+        }
+    }
+
     public interface OnImageViewTouchDoubleTapListener {
         void onDoubleTap();
     }
@@ -438,9 +468,29 @@ public class ImageViewTouch extends ImageViewTouchBase {
         void onImageUpdated(Matrix matrix);
     }
 
+    public interface OnMatrixSnapshotListener {
+        /**
+         * Called on the UI thread, before the frame is drawn
+         *
+         * @param snapshot the image matrix at the end of the changes since the last frame. Reused
+         *                 after the next call, copy out what you keep.
+         */
+        void onMatrixSnapshot(MatrixSnapshot snapshot);
+    }
+
     @Override
     protected void onImageMatrixChanged() {
         super.onImageMatrixChanged();
         fireOnImageUpdated();
+        scheduleMatrixSnapshot();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if (mSnapshotPending) {
+            mSnapshotPending = false;
+            mChoreographer.removeFrameCallback(mSnapshotCallback);
+        }
+        super.onDetachedFromWindow();
     }
 }
@@ -1,8 +1,5 @@
 package it.sephiroth.android.library.imagezoom;
 
-import android.animation.Animator;
-import android.animation.AnimatorSet;
-import android.animation.ValueAnimator;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Configuration;
@@ -15,10 +12,10 @@ import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.ViewConfiguration;
-import android.view.animation.DecelerateInterpolator;
 import android.widget.ImageView;
 
 import it.sephiroth.android.library.imagezoom.graphics.FastBitmapDrawable;
+import it.sephiroth.android.library.imagezoom.graphics.TiledBitmapDrawable;
 import it.sephiroth.android.library.imagezoom.utils.IDisposable;
 
 /**
@@ -72,8 +69,10 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
     @SuppressWarnings ("checkstyle:staticvariablename")
     protected static boolean DEBUG = false;
     public static final float ZOOM_INVALID = -1f;
+    // Call invalidateMatrixCache() after changing either
     protected Matrix mBaseMatrix = new Matrix();
     protected Matrix mSuppMatrix = new Matrix();
+    protected final MatrixCache mMatrixCache = new MatrixCache();
     protected Matrix mNextMatrix;
     protected Runnable mLayoutRunnable = null;
     protected boolean mUserScaled = false;
@@ -97,7 +96,8 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
     protected PointF mScrollPoint = new PointF();
     protected RectF mViewPort = new RectF();
     protected RectF mViewPortOld = new RectF();
-    private Animator mCurrentAnimation;
+    protected MatrixAnimator mAnimator;
+    protected final Matrix mZoomMatrix = new Matrix();
     private OnDrawableChangeListener mDrawableChangeListener;
     private OnLayoutChangeListener mOnLayoutChangeListener;
 
@@ -131,6 +131,7 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
         mMinFlingVelocity = configuration.getScaledMinimumFlingVelocity();
         mMaxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
         mDefaultAnimationDuration = getResources().getInteger(android.R.integer.config_shortAnimTime);
+        mAnimator = new MatrixAnimator(context, this);
         setScaleType(ScaleType.MATRIX);
     }
 
@@ -219,6 +220,7 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
                 if (mBitmapChanged) {
                     mUserScaled = false;
                     mBaseMatrix.reset();
+                    invalidateMatrixCache();
                     if (!mMinZoomDefined) {
                         mMinZoom = ZOOM_INVALID;
                     }
@@ -236,6 +238,7 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
                 float oldMinScale = Math.min(1f, 1f / oldMatrixScale);
 
                 getProperBaseMatrix(drawable, mBaseMatrix, mViewPort);
+                invalidateMatrixCache();
 
                 float newMatrixScale = getScale(mBaseMatrix);
 
@@ -256,10 +259,12 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
 
                     if (mNextMatrix != null) {
                         mSuppMatrix.set(mNextMatrix);
+                        invalidateMatrixCache();
                         mNextMatrix = null;
                         scale = getScale();
                     } else {
                         mSuppMatrix.reset();
+                        invalidateMatrixCache();
                         scale = getDefaultScale(getDisplayType());
                     }
 
@@ -386,6 +391,7 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
             Log.i(TAG, "resetMatrix");
         }
         mSuppMatrix = new Matrix();
+        invalidateMatrixCache();
 
         float scale = getDefaultScale(getDisplayType());
         setImageMatrix(getImageViewMatrix());
@@ -475,6 +481,8 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
 
     protected void setImageDrawableInternal(final Drawable drawable, final Matrix initialMatrix, float minZoom, float maxZoom) {
         mBaseMatrix.reset();
+        invalidateMatrixCache();
+        releaseTiledDrawable(drawable);
         super.setImageDrawable(drawable);
 
         if (minZoom != ZOOM_INVALID && maxZoom != ZOOM_INVALID) {
@@ -525,6 +533,7 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
         } else {
             mBitmapRect.setEmpty();
         }
+        invalidateMatrixCache();
     }
 
     /**
@@ -537,6 +546,7 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
             Log.i(TAG, "onDrawableChanged");
             Log.v(TAG, "scale: " + getScale() + ", minScale: " + getMinScale());
         }
+        updateDisplayScale();
         fireOnDrawableChangeListener(drawable);
     }
 
@@ -646,7 +656,17 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
         return getImageViewMatrix(mSuppMatrix);
     }
 
+    /**
+     * Returns the base matrix followed by supportMatrix. Must not be modified.
+     *
+     * @param supportMatrix
+     * @return
+     */
     public Matrix getImageViewMatrix(Matrix supportMatrix) {
+        if (supportMatrix == mSuppMatrix) {
+            validateMatrixCache();
+            return mMatrixCache.getDisplayMatrix();
+        }
         mDisplayMatrix.set(mBaseMatrix);
         mDisplayMatrix.postConcat(supportMatrix);
         return mDisplayMatrix;
@@ -663,10 +683,22 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
 
         super.setImageMatrix(matrix);
         if (needUpdate) {
+            updateDisplayScale();
             onImageMatrixChanged();
         }
     }
 
+    /**
+     * Tells a {@link TiledBitmapDrawable} the scale of the image matrix, so that it draws the
+     * matching level
+     */
+    private void updateDisplayScale() {
+        Drawable drawable = getDrawable();
+        if (drawable instanceof TiledBitmapDrawable) {
+            ((TiledBitmapDrawable) drawable).setDisplayScale(getValue(getImageMatrix(), Matrix.MSCALE_X));
+        }
+    }
+
     /**
      * Called just after a new Matrix has been assigned.
      *
@@ -729,12 +761,24 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
     }
 
     protected RectF getBitmapRect(Matrix supportMatrix) {
+        if (supportMatrix == mSuppMatrix) {
+            validateMatrixCache();
+            mBitmapRectTmp.set(mMatrixCache.getBitmapRect());
+            return mBitmapRectTmp;
+        }
         Matrix m = getImageViewMatrix(supportMatrix);
         m.mapRect(mBitmapRectTmp, mBitmapRect);
         return mBitmapRectTmp;
     }
 
     protected float getScale(Matrix matrix) {
+        if (matrix == mSuppMatrix) {
+            validateMatrixCache();
+            return mMatrixCache.getScale();
+        } else if (matrix == mBaseMatrix) {
+            validateMatrixCache();
+            return mMatrixCache.getBaseScale();
+        }
         return getValue(matrix, Matrix.MSCALE_X);
     }
 
@@ -756,6 +800,48 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
         return getScale(mBaseMatrix);
     }
 
+    /**
+     * Returns the horizontal translation of the support matrix
+     *
+     * @return
+     */
+    public float getSupportTranslateX() {
+        validateMatrixCache();
+        return mMatrixCache.getTranslateX();
+    }
+
+    /**
+     * Returns the vertical translation of the support matrix
+     *
+     * @return
+     */
+    public float getSupportTranslateY() {
+        validateMatrixCache();
+        return mMatrixCache.getTranslateY();
+    }
+
+    /**
+     * Returns the cache of scale, bitmap rect and display matrix queries, e.g., for its hit and
+     * miss counts
+     *
+     * @return
+     */
+    public MatrixCache getMatrixCache() {
+        return mMatrixCache;
+    }
+
+    /**
+     * Must be called after changing {@link #mBaseMatrix}, {@link #mSuppMatrix} or the bitmap
+     * bounds, before querying them again
+     */
+    protected void invalidateMatrixCache() {
+        mMatrixCache.invalidate();
+    }
+
+    private void validateMatrixCache() {
+        mMatrixCache.validate(mBaseMatrix, mSuppMatrix, mBitmapRect);
+    }
+
     protected void center(boolean horizontal, boolean vertical) {
         final Drawable drawable = getDrawable();
         if (drawable == null) {
@@ -772,11 +858,11 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
     protected RectF getCenter(Matrix supportMatrix, boolean horizontal, boolean vertical) {
         final Drawable drawable = getDrawable();
 
+        mCenterRect.set(0, 0, 0, 0);
         if (drawable == null) {
-            return new RectF(0, 0, 0, 0);
+            return mCenterRect;
         }
 
-        mCenterRect.set(0, 0, 0, 0);
         RectF rect = getBitmapRect(supportMatrix);
         float height = rect.height();
         float width = rect.width();
@@ -806,12 +892,14 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
     protected void postTranslate(float deltaX, float deltaY) {
         if (deltaX != 0 || deltaY != 0) {
             mSuppMatrix.postTranslate(deltaX, deltaY);
+            invalidateMatrixCache();
             setImageMatrix(getImageViewMatrix());
         }
     }
 
     protected void postScale(float scale, float centerX, float centerY) {
         mSuppMatrix.postScale(scale, scale, centerX, centerY);
+        invalidateMatrixCache();
         setImageMatrix(getImageViewMatrix());
     }
 
@@ -897,71 +985,64 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
         }
     }
 
-    protected void stopAllAnimations() {
-        if (null != mCurrentAnimation) {
-            mCurrentAnimation.cancel();
-            mCurrentAnimation = null;
+    /**
+     * Scales the support matrix by deltaScale around (centerX, centerY) and translates it by
+     * (dx, dy), then centers the image and sets the image matrix, once. Used by
+     * {@link MatrixAnimator} to apply a whole frame of animation in one step.
+     *
+     * @param deltaScale
+     * @param centerX
+     * @param centerY
+     * @param dx
+     * @param dy
+     */
+    protected void transformBy(float deltaScale, float centerX, float centerY, float dx, float dy) {
+        if (deltaScale != 1) {
+            mSuppMatrix.postScale(deltaScale, deltaScale, centerX, centerY);
         }
-    }
-
-    protected void scrollBy(float distanceX, float distanceY, final long durationMs) {
-        final ValueAnimator anim1 = ValueAnimator.ofFloat(0, distanceX).setDuration(durationMs);
-        final ValueAnimator anim2 = ValueAnimator.ofFloat(0, distanceY).setDuration(durationMs);
-
-        stopAllAnimations();
-
-        mCurrentAnimation = new AnimatorSet();
-        ((AnimatorSet) mCurrentAnimation).playTogether(
-            anim1, anim2
-        );
-
-        mCurrentAnimation.setDuration(durationMs);
-        mCurrentAnimation.setInterpolator(new DecelerateInterpolator());
-        mCurrentAnimation.start();
-
-        anim2.addUpdateListener(
-            new ValueAnimator.AnimatorUpdateListener() {
-                float oldValueX = 0;
-                float oldValueY = 0;
-
-                @Override
-                public void onAnimationUpdate(final ValueAnimator animation) {
-                    float valueX = (Float) anim1.getAnimatedValue();
-                    float valueY = (Float) anim2.getAnimatedValue();
-                    panBy(valueX - oldValueX, valueY - oldValueY);
-                    oldValueX = valueX;
-                    oldValueY = valueY;
-                    postInvalidateOnAnimation();
-                }
+        if (dx != 0 || dy != 0) {
+            mSuppMatrix.postTranslate(dx, dy);
+        }
+        invalidateMatrixCache();
+        if (getDrawable() != null) {
+            RectF rect = getCenter(mSuppMatrix, true, true);
+            if (rect.left != 0 || rect.top != 0) {
+                mSuppMatrix.postTranslate(rect.left, rect.top);
+                invalidateMatrixCache();
             }
-        );
-
-        mCurrentAnimation.addListener(
-            new Animator.AnimatorListener() {
-                @Override
-                public void onAnimationStart(final Animator animation) {
-
-                }
-
-                @Override
-                public void onAnimationEnd(final Animator animation) {
-                    RectF centerRect = getCenter(mSuppMatrix, true, true);
-                    if (centerRect.left != 0 || centerRect.top != 0) {
-                        scrollBy(centerRect.left, centerRect.top);
-                    }
-                }
-
-                @Override
-                public void onAnimationCancel(final Animator animation) {
+        }
+        setImageMatrix(getImageViewMatrix());
+        if (deltaScale != 1) {
+            onZoom(getScale());
+        }
+    }
 
-                }
+    protected void stopAllAnimations() {
+        mAnimator.stop();
+    }
 
-                @Override
-                public void onAnimationRepeat(final Animator animation) {
+    protected void scrollBy(float distanceX, float distanceY, final long durationMs) {
+        mAnimator.scrollBy(distanceX, distanceY, durationMs);
+    }
 
-                }
-            }
-        );
+    /**
+     * Flings the image, stopping where its edges reach the edges of the view
+     *
+     * @param velocityX pixels per second
+     * @param velocityY pixels per second
+     */
+    protected void fling(float velocityX, float velocityY) {
+        RectF rect = getBitmapRect();
+        int minX = 0, maxX = 0, minY = 0, maxY = 0;
+        if (rect.width() > mViewPort.width()) {
+            minX = Math.round(Math.min(0, mViewPort.right - rect.right));
+            maxX = Math.round(Math.max(0, mViewPort.left - rect.left));
+        }
+        if (rect.height() > mViewPort.height()) {
+            minY = Math.round(Math.min(0, mViewPort.bottom - rect.bottom));
+            maxY = Math.round(Math.max(0, mViewPort.top - rect.top));
+        }
+        mAnimator.fling(velocityX, velocityY, minX, maxX, minY, maxY);
     }
 
     protected void zoomTo(float scale, float centerX, float centerY, final long durationMs) {
@@ -969,39 +1050,41 @@ public abstract class ImageViewTouchBase extends ImageView implements IDisposabl
             scale = getMaxScale();
         }
 
-        final float oldScale = getScale();
-
-        Matrix m = new Matrix(mSuppMatrix);
-        m.postScale(scale, scale, centerX, centerY);
-        RectF rect = getCenter(m, true, true);
+        mZoomMatrix.set(mSuppMatrix);
+        mZoomMatrix.postScale(scale, scale, centerX, centerY);
+        RectF rect = getCenter(mZoomMatrix, true, true);
 
-        final float finalScale = scale;
         final float destX = centerX + rect.left * scale;
         final float destY = centerY + rect.top * scale;
 
-        stopAllAnimations();
+        mAnimator.zoomTo(scale, destX, destY, durationMs);
+    }
 
-        ValueAnimator animation = ValueAnimator.ofFloat(oldScale, finalScale);
-        animation.setDuration(durationMs);
-        animation.setInterpolator(new DecelerateInterpolator(1.0f));
-        animation.addUpdateListener(
-            new ValueAnimator.AnimatorUpdateListener() {
-                @Override
-                public void onAnimationUpdate(final ValueAnimator animation) {
-                    float value = (Float) animation.getAnimatedValue();
-                    zoomTo(value, destX, destY);
-                    postInvalidateOnAnimation();
-                }
-            }
-        );
-        animation.start();
+    @Override
+    protected void onDetachedFromWindow() {
+        stopAllAnimations();
+        super.onDetachedFromWindow();
     }
 
     @Override
     public void dispose() {
+        releaseTiledDrawable(null);
         clear();
     }
 
+    /**
+     * Releases the current drawable, if it is a {@link TiledBitmapDrawable} that is being replaced
+     * by another one: nothing else stops its tiles from loading
+     *
+     * @param next the drawable that replaces it
+     */
+    private void releaseTiledDrawable(Drawable next) {
+        Drawable current = getDrawable();
+        if (current != next && current instanceof TiledBitmapDrawable) {
+            ((TiledBitmapDrawable) current).release();
+        }
+    }
+
     @Override
     protected void onDraw(final Canvas canvas) {
 
@@ -0,0 +1,173 @@
+package it.sephiroth.android.library.imagezoom;
+
+import android.content.Context;
+import android.view.Choreographer;
+import android.view.animation.AnimationUtils;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
+import android.widget.OverScroller;
+
+/**
+ * Animates the support matrix of an {@link ImageViewTouchBase}: flings and scrolls, with
+ * {@link OverScroller} physics, and zooms, possibly at the same time.
+ *
+ * One {@link Choreographer} frame callback drives everything. Each frame adds up the pan and the
+ * zoom step and hands them to {@link ImageViewTouchBase#transformBy}, so the matrix is changed,
+ * centered and set once per frame whatever is running. Nothing is allocated per animation or
+ * per frame.
+ *
+ * @author alessandro
+ */
+public class MatrixAnimator implements Choreographer.FrameCallback {
+    private final ImageViewTouchBase mView;
+    private final Choreographer mChoreographer;
+    private final OverScroller mScroller;
+    private final Interpolator mZoomInterpolator = new DecelerateInterpolator(1.0f);
+    private boolean mScheduled;
+
+    private boolean mScrolling;
+    private int mLastX, mLastY;
+
+    private boolean mZooming;
+    private long mZoomStartTime;
+    private long mZoomDuration;
+    private float mZoomFrom, mZoomTo;
+    private float mZoomCenterX, mZoomCenterY;
+
+    /**
+     * @param context
+     * @param view    animated on the UI thread
+     */
+    public MatrixAnimator(Context context, ImageViewTouchBase view) {
+        mView = view;
+        mChoreographer = Choreographer.getInstance();
+        mScroller = new OverScroller(context);
+    }
+
+    /**
+     * Pans with an initial velocity, slowing down the way scrolling lists do, and stopping at
+     * the given translation bounds
+     *
+     * @param velocityX pixels per second
+     * @param velocityY pixels per second
+     * @param minX      least translation from here, <= 0
+     * @param maxX      most translation from here, >= 0
+     * @param minY
+     * @param maxY
+     */
+    public void fling(float velocityX, float velocityY, int minX, int maxX, int minY, int maxY) {
+        mScroller.fling(0, 0, Math.round(velocityX), Math.round(velocityY), minX, maxX, minY, maxY);
+        startScroll();
+    }
+
+    /**
+     * Pans by (dx, dy) over durationMs
+     *
+     * @param dx
+     * @param dy
+     * @param durationMs
+     */
+    public void scrollBy(float dx, float dy, long durationMs) {
+        mScroller.startScroll(0, 0, Math.round(dx), Math.round(dy), (int) durationMs);
+        startScroll();
+    }
+
+    /**
+     * Zooms from the current scale to scale, around (centerX, centerY), over durationMs. Replaces
+     * a running zoom, not a running fling or scroll.
+     *
+     * @param scale
+     * @param centerX
+     * @param centerY
+     * @param durationMs
+     */
+    public void zoomTo(float scale, float centerX, float centerY, long durationMs) {
+        mZoomFrom = mView.getScale();
+        mZoomTo = scale;
+        mZoomCenterX = centerX;
+        mZoomCenterY = centerY;
+        mZoomStartTime = AnimationUtils.currentAnimationTimeMillis();
+        mZoomDuration = Math.max(1, durationMs);
+        mZooming = true;
+        schedule();
+    }
+
+    public boolean isRunning() {
+        return mScrolling || mZooming;
+    }
+
+    public boolean isScrolling() {
+        return mScrolling;
+    }
+
+    public boolean isZooming() {
+        return mZooming;
+    }
+
+    /**
+     * Stops the fling, scroll and zoom where they are
+     */
+    public void stop() {
+        mScroller.forceFinished(true);
+        mScrolling = false;
+        mZooming = false;
+        if (mScheduled) {
+            mScheduled = false;
+            mChoreographer.removeFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+
+        float dx = 0;
+        float dy = 0;
+        if (mScrolling) {
+            mScroller.computeScrollOffset();
+            int x = mScroller.getCurrX();
+            int y = mScroller.getCurrY();
+            dx = x - mLastX;
+            dy = y - mLastY;
+            mLastX = x;
+            mLastY = y;
+            mScrolling = !mScroller.isFinished();
+        }
+
+        float deltaScale = 1;
+        boolean zoomEnded = false;
+        if (mZooming) {
+            long elapsed = AnimationUtils.currentAnimationTimeMillis() - mZoomStartTime;
+            float t = Math.min(1f, (float) elapsed / mZoomDuration);
+            float scale = mZoomFrom + (mZoomTo - mZoomFrom) * mZoomInterpolator.getInterpolation(t);
+            deltaScale = scale / mView.getScale();
+            if (t >= 1f) {
+                mZooming = false;
+                zoomEnded = true;
+            }
+        }
+
+        mView.transformBy(deltaScale, mZoomCenterX, mZoomCenterY, dx, dy);
+
+        if (zoomEnded) {
+            mView.onZoomAnimationCompleted(mView.getScale());
+        }
+        if (isRunning()) {
+            schedule();
+        }
+    }
+
+    private void startScroll() {
+        mLastX = 0;
+        mLastY = 0;
+        mScrolling = true;
+        schedule();
+    }
+
+    private void schedule() {
+        if (!mScheduled) {
+            mScheduled = true;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+}
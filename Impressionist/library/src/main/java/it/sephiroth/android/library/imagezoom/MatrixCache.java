@@ -0,0 +1,115 @@
+package it.sephiroth.android.library.imagezoom;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+/**
+ * What {@link ImageViewTouchBase} derives from its base and support matrices: the display
+ * matrix, the bitmap rect in view coordinates, and the scales and translation. Computed once per
+ * change of the matrices, instead of with matrix products and {@link Matrix#getValues} on every
+ * query; a single pinch step asks for the scale and the bitmap rect several times.
+ *
+ * The view calls {@link #invalidate()} whenever it changes either matrix or the bitmap bounds.
+ * UI thread only.
+ *
+ * @author alessandro
+ */
+public class MatrixCache {
+    private int mVersion = 0;
+    private int mCachedVersion = -1;
+    private int mHits;
+    private int mMisses;
+
+    private final float[] mValues = new float[9];
+    private final Matrix mDisplayMatrix = new Matrix();
+    private final RectF mBitmapRect = new RectF();
+    private float mScale;
+    private float mTranslateX;
+    private float mTranslateY;
+    private float mBaseScale;
+
+    /**
+     * Marks everything as changed, to be computed again on the next query
+     */
+    public void invalidate() {
+        mVersion++;
+    }
+
+    /**
+     * Computes everything again if the matrices or bitmap bounds changed since the last call
+     *
+     * @param baseMatrix
+     * @param suppMatrix
+     * @param bitmapBounds the drawable bounds, in image coordinates
+     */
+    void validate(Matrix baseMatrix, Matrix suppMatrix, RectF bitmapBounds) {
+        if (mCachedVersion == mVersion) {
+            mHits++;
+            return;
+        }
+        mMisses++;
+        suppMatrix.getValues(mValues);
+        mScale = mValues[Matrix.MSCALE_X];
+        mTranslateX = mValues[Matrix.MTRANS_X];
+        mTranslateY = mValues[Matrix.MTRANS_Y];
+        baseMatrix.getValues(mValues);
+        mBaseScale = mValues[Matrix.MSCALE_X];
+        mDisplayMatrix.set(baseMatrix);
+        mDisplayMatrix.postConcat(suppMatrix);
+        mDisplayMatrix.mapRect(mBitmapRect, bitmapBounds);
+        mCachedVersion = mVersion;
+    }
+
+    /**
+     * The base matrix followed by the support matrix. Must not be modified.
+     */
+    Matrix getDisplayMatrix() {
+        return mDisplayMatrix;
+    }
+
+    /**
+     * The bitmap bounds mapped by the display matrix. Must not be modified.
+     */
+    RectF getBitmapRect() {
+        return mBitmapRect;
+    }
+
+    float getScale() {
+        return mScale;
+    }
+
+    float getTranslateX() {
+        return mTranslateX;
+    }
+
+    float getTranslateY() {
+        return mTranslateY;
+    }
+
+    float getBaseScale() {
+        return mBaseScale;
+    }
+
+    /**
+     * Returns how many queries were answered from the cache
+     *
+     * @return
+     */
+    public int getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Returns how many queries had to compute the cache again
+     *
+     * @return
+     */
+    public int getMissCount() {
+        return mMisses;
+    }
+
+    public void resetCounts() {
+        mHits = 0;
+        mMisses = 0;
+    }
+}
@@ -0,0 +1,129 @@
+package it.sephiroth.android.library.imagezoom;
+
+import android.graphics.Matrix;
+
+/**
+ * Copy of an image matrix, its inverse and its scale, taken once per frame by
+ * {@link ImageViewTouch} and handed to its {@link ImageViewTouch.OnMatrixSnapshotListener}.
+ * Listeners read what they need from it instead of inverting the matrix themselves.
+ *
+ * The view takes turns between two snapshots, so that a frame allocates nothing: a snapshot
+ * stays the same until the listener is called again, and is then reused for the frame after.
+ * Listeners copy out what they keep.
+ *
+ * @author alessandro
+ */
+public final class MatrixSnapshot {
+    // Determinants this close to 0 are taken as not invertible, like Matrix.invert does
+    private static final double NEARLY_ZERO = 1.0 / (1L << 36);
+
+    private final float[] mValues = new float[9];
+    private final float[] mInverseValues = new float[9];
+    private boolean mInvertible;
+    private long mFrameTimeNanos;
+
+    MatrixSnapshot() {
+        set(null, 0);
+    }
+
+    /**
+     * @param matrix         image to view matrix, copied
+     * @param frameTimeNanos the frame the snapshot was taken for, or 0
+     */
+    public MatrixSnapshot(Matrix matrix, long frameTimeNanos) {
+        set(matrix, frameTimeNanos);
+    }
+
+    /**
+     * Takes the snapshot again, inverting the matrix in place
+     *
+     * @param matrix         null for identity
+     * @param frameTimeNanos
+     */
+    void set(Matrix matrix, long frameTimeNanos) {
+        float[] m = mValues;
+        if (matrix != null) {
+            matrix.getValues(m);
+        } else {
+            m[0] = m[4] = m[8] = 1;
+            m[1] = m[2] = m[3] = m[5] = m[6] = m[7] = 0;
+        }
+        mFrameTimeNanos = frameTimeNanos;
+
+        // Cofactors of the 3x3 matrix, which also covers perspective
+        double c0 = (double) m[4] * m[8] - (double) m[5] * m[7];
+        double c1 = (double) m[5] * m[6] - (double) m[3] * m[8];
+        double c2 = (double) m[3] * m[7] - (double) m[4] * m[6];
+        double det = m[0] * c0 + m[1] * c1 + m[2] * c2;
+        float[] inv = mInverseValues;
+        mInvertible = Math.abs(det) > NEARLY_ZERO;
+        if (!mInvertible) {
+            inv[0] = inv[4] = inv[8] = 1;
+            inv[1] = inv[2] = inv[3] = inv[5] = inv[6] = inv[7] = 0;
+            return;
+        }
+        double scale = 1.0 / det;
+        inv[0] = (float) (c0 * scale);
+        inv[1] = (float) (((double) m[2] * m[7] - (double) m[1] * m[8]) * scale);
+        inv[2] = (float) (((double) m[1] * m[5] - (double) m[2] * m[4]) * scale);
+        inv[3] = (float) (c1 * scale);
+        inv[4] = (float) (((double) m[0] * m[8] - (double) m[2] * m[6]) * scale);
+        inv[5] = (float) (((double) m[2] * m[3] - (double) m[0] * m[5]) * scale);
+        inv[6] = (float) (c2 * scale);
+        inv[7] = (float) (((double) m[1] * m[6] - (double) m[0] * m[7]) * scale);
+        inv[8] = (float) (((double) m[0] * m[4] - (double) m[1] * m[3]) * scale);
+    }
+
+    /**
+     * Sets out to the image to view matrix
+     *
+     * @param out
+     */
+    public void getMatrix(Matrix out) {
+        out.setValues(mValues);
+    }
+
+    /**
+     * Sets out to the view to image matrix, identity if the matrix wasn't invertible
+     *
+     * @param out
+     */
+    public void getInverse(Matrix out) {
+        out.setValues(mInverseValues);
+    }
+
+    /**
+     * Copies the 9 values of the image to view matrix into out
+     *
+     * @param out
+     */
+    public void getValues(float[] out) {
+        System.arraycopy(mValues, 0, out, 0, 9);
+    }
+
+    /**
+     * Copies the 9 values of the view to image matrix into out
+     *
+     * @param out
+     */
+    public void getInverseValues(float[] out) {
+        System.arraycopy(mInverseValues, 0, out, 0, 9);
+    }
+
+    public boolean isInvertible() {
+        return mInvertible;
+    }
+
+    /**
+     * Returns the image to view scale (the view never rotates or skews the image)
+     *
+     * @return
+     */
+    public float getScale() {
+        return mValues[Matrix.MSCALE_X];
+    }
+
+    public long getFrameTimeNanos() {
+        return mFrameTimeNanos;
+    }
+}
@@ -0,0 +1,94 @@
+package it.sephiroth.android.library.imagezoom.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link TileProvider} that decodes tiles out of an encoded image (JPEG or PNG) with a
+ * {@link BitmapRegionDecoder}, so that only the part of the image being shown is ever in
+ * memory. The top level fits in a single tile.
+ *
+ * @author alessandro
+ */
+public class RegionTileProvider implements TileProvider {
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private final BitmapRegionDecoder mDecoder;
+    private final int mTileSize;
+    private final int mLevelCount;
+    // Only used on the loading thread
+    private final Rect mRegion = new Rect();
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+
+    /**
+     * @param is       the encoded image, read entirely; not closed
+     * @param tileSize
+     * @throws IOException if the image can't be decoded
+     */
+    public RegionTileProvider(InputStream is, int tileSize) throws IOException {
+        mDecoder = BitmapRegionDecoder.newInstance(is, false);
+        mTileSize = tileSize;
+
+        int levels = 1;
+        int size = Math.max(mDecoder.getWidth(), mDecoder.getHeight());
+        while (size > tileSize) {
+            size = (size + 1) / 2;
+            levels++;
+        }
+        mLevelCount = levels;
+        mOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+    }
+
+    @Override
+    public int getWidth() {
+        return mDecoder.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mDecoder.getHeight();
+    }
+
+    @Override
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    @Override
+    public int getLevelCount() {
+        return mLevelCount;
+    }
+
+    /**
+     * Sets the config tiles are decoded to, RGB_565 by default. Call before drawing.
+     *
+     * @param config
+     */
+    public void setPreferredConfig(Bitmap.Config config) {
+        mOptions.inPreferredConfig = config;
+    }
+
+    @Override
+    public Bitmap loadTile(int level, int column, int row) {
+        // A tile covers tileSize << level image pixels
+        int span = mTileSize << level;
+        mRegion.set(column * span, row * span, (column + 1) * span, (row + 1) * span);
+        if (mDecoder.isRecycled() || !mRegion.intersect(0, 0, getWidth(), getHeight())) {
+            return null;
+        }
+        mOptions.inSampleSize = 1 << level;
+        return mDecoder.decodeRegion(mRegion, mOptions);
+    }
+
+    /**
+     * Frees the decoder. Tiles can't be loaded anymore.
+     */
+    public void recycle() {
+        mDecoder.recycle();
+    }
+}
@@ -0,0 +1,118 @@
+package it.sephiroth.android.library.imagezoom.graphics;
+
+/**
+ * Least recently used order of the tiles loaded by a {@link TiledBitmapDrawable}, bounded in
+ * bytes. The entries are linked from most to least recently used, so that touching and evicting
+ * a tile allocates nothing; looking entries up by key is left to the caller's map.
+ * Not thread safe.
+ *
+ * @author alessandro
+ */
+final class TileLru<V> {
+
+    static final class Entry<V> {
+        final long key;
+        final V value;
+        final long bytes;
+        Entry<V> newer;
+        Entry<V> older;
+
+        Entry(long key, V value, long bytes) {
+            this.key = key;
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long mMaxBytes;
+    private Entry<V> mNewest;
+    private Entry<V> mOldest;
+    private long mBytes;
+
+    TileLru(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Adds entry as the most recently used
+     */
+    void add(Entry<V> entry) {
+        link(entry);
+        mBytes += entry.bytes;
+    }
+
+    /**
+     * Marks entry as the most recently used
+     */
+    void touch(Entry<V> entry) {
+        if (entry != mNewest) {
+            unlink(entry);
+            link(entry);
+        }
+    }
+
+    void remove(Entry<V> entry) {
+        unlink(entry);
+        mBytes -= entry.bytes;
+    }
+
+    /**
+     * Removes and returns the least recently used entry if the entries take more than the
+     * maximum, unless it is keep
+     *
+     * @return null if nothing has to be evicted
+     */
+    Entry<V> evict(Entry<V> keep) {
+        if (mBytes <= mMaxBytes || mOldest == null || mOldest == keep) {
+            return null;
+        }
+        Entry<V> evicted = mOldest;
+        remove(evicted);
+        return evicted;
+    }
+
+    Entry<V> getNewest() {
+        return mNewest;
+    }
+
+    Entry<V> getOldest() {
+        return mOldest;
+    }
+
+    long getBytes() {
+        return mBytes;
+    }
+
+    void clear() {
+        mNewest = null;
+        mOldest = null;
+        mBytes = 0;
+    }
+
+    private void link(Entry<V> entry) {
+        entry.newer = null;
+        entry.older = mNewest;
+        if (mNewest != null) {
+            mNewest.newer = entry;
+        }
+        mNewest = entry;
+        if (mOldest == null) {
+            mOldest = entry;
+        }
+    }
+
+    private void unlink(Entry<V> entry) {
+        if (entry.newer != null) {
+            entry.newer.older = entry.older;
+        } else {
+            mNewest = entry.older;
+        }
+        if (entry.older != null) {
+            entry.older.newer = entry.newer;
+        } else {
+            mOldest = entry.newer;
+        }
+        entry.newer = null;
+        entry.older = null;
+    }
+}
@@ -0,0 +1,41 @@
+package it.sephiroth.android.library.imagezoom.graphics;
+
+import android.graphics.Bitmap;
+
+/**
+ * Source of the tiles of an image pyramid, drawn by {@link TiledBitmapDrawable}.
+ * Level 0 is the image at full resolution, and every level above it is half the size of the one
+ * below. At every level the image is cut into square tiles of {@link #getTileSize()} pixels,
+ * except for the last row and column, which may be smaller.
+ *
+ * @author alessandro
+ */
+public interface TileProvider {
+
+    /**
+     * Width of the image at full resolution
+     */
+    int getWidth();
+
+    /**
+     * Height of the image at full resolution
+     */
+    int getHeight();
+
+    int getTileSize();
+
+    /**
+     * Number of levels, at least 1
+     */
+    int getLevelCount();
+
+    /**
+     * Called on a background thread, one tile at a time
+     *
+     * @param level
+     * @param column
+     * @param row
+     * @return the tile, at most getTileSize() pixels wide and high, or null if it can't be loaded
+     */
+    Bitmap loadTile(int level, int column, int row);
+}
@@ -0,0 +1,414 @@
+package it.sephiroth.android.library.imagezoom.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LongSparseArray;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import it.sephiroth.android.library.imagezoom.ImageViewTouchBase;
+
+/**
+ * Drawable for images too big to decode whole, drawn from the tiles of a {@link TileProvider}
+ * pyramid instead of from one bitmap.
+ *
+ * Every draw picks the level that matches the display scale, see {@link #setDisplayScale(float)}
+ * ({@link ImageViewTouchBase} sets it from its image matrix), and only draws the tiles of that
+ * level that intersect the clip. Tiles that aren't loaded yet are requested from a background
+ * thread, and meanwhile their area is drawn from the nearest coarser level that is loaded, or
+ * from the preview bitmap. Requests for tiles that scrolled out of view before their turn came
+ * are dropped. All drawables share one loading thread, which stops when it has been idle for a
+ * while.
+ *
+ * Loaded tiles are kept in a least recently used cache bounded in bytes, see {@link TileLru}. Evicted tiles aren't
+ * recycled: a hardware canvas may still be drawing them. Drawing loaded tiles allocates nothing;
+ * tiles are looked up by primitive keys and the visible range is written in place.
+ *
+ * @author alessandro
+ */
+public class TiledBitmapDrawable extends Drawable implements IBitmapDrawable {
+    public static final long DEFAULT_MAX_CACHE_BYTES = 24 * 1024 * 1024;
+
+    private static final long LOADER_KEEP_ALIVE_MS = 2000;
+    private static ThreadPoolExecutor sExecutor;
+
+    private final TileProvider mProvider;
+    private final Bitmap mPreview;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTileSize;
+    private final int mLevelCount;
+
+    protected Paint mPaint;
+
+    // UI thread only
+    private final LongSparseArray<TileLru.Entry<Bitmap>> mTiles = new LongSparseArray<>();
+    private final TileLru<Bitmap> mLru;
+    private final LongSparseArray<Boolean> mPending = new LongSparseArray<>();
+    // Also read by the loading thread, to skip the requests of a released drawable
+    private volatile boolean mReleased;
+    private float mDisplayScale = Float.NaN;
+
+    // The tiles the last draw needed, read by the loading thread to drop stale requests
+    private final Visible mVisible = new Visible();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Scratch objects for draw
+    private final Rect mClip = new Rect();
+    private final RectF mImageClip = new RectF();
+    private final Rect mSrc = new Rect();
+    private final RectF mDst = new RectF();
+
+    /**
+     * A range of tiles of one level, inclusive. Written in place by the UI thread and read by the
+     * loading thread: the writer makes the sequence odd while it writes, and readers retry until
+     * they see the same even sequence before and after reading.
+     */
+    private static final class Visible {
+        private volatile int sequence;
+        private volatile int level = -1;
+        private volatile int left, top, right, bottom;
+
+        /**
+         * UI thread only
+         */
+        void set(int level, int left, int top, int right, int bottom) {
+            if (this.level == level && this.left == left && this.top == top && this.right == right
+                && this.bottom == bottom) {
+                return;
+            }
+            sequence++;
+            this.level = level;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            sequence++;
+        }
+
+        boolean contains(int level, int column, int row) {
+            while (true) {
+                final int before = sequence;
+                if ((before & 1) == 0) {
+                    boolean contains = this.level == level && column >= left && column <= right && row >= top
+                        && row <= bottom;
+                    if (sequence == before) {
+                        return contains;
+                    }
+                }
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * @param provider
+     * @param preview  the whole image at low resolution, drawn where no tile is loaded yet, and
+     *                 returned by {@link #getBitmap()}; may be null
+     */
+    public TiledBitmapDrawable(TileProvider provider, Bitmap preview) {
+        this(provider, preview, DEFAULT_MAX_CACHE_BYTES);
+    }
+
+    /**
+     * @param provider
+     * @param preview       may be null
+     * @param maxCacheBytes memory for loaded tiles
+     */
+    public TiledBitmapDrawable(TileProvider provider, Bitmap preview, long maxCacheBytes) {
+        mProvider = provider;
+        mPreview = preview;
+        mWidth = provider.getWidth();
+        mHeight = provider.getHeight();
+        mTileSize = provider.getTileSize();
+        mLevelCount = provider.getLevelCount();
+        mLru = new TileLru<>(maxCacheBytes);
+
+        mPaint = new Paint();
+        mPaint.setFilterBitmap(true);
+    }
+
+    /**
+     * One loader for every drawable: region decoders decode one region at a time anyway
+     */
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(1, 1, LOADER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "TiledBitmapDrawable");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Rect bounds = getBounds();
+        if (mReleased || mWidth <= 0 || mHeight <= 0) {
+            return;
+        }
+        // Image pixels to drawable bounds
+        final float scaleX = bounds.isEmpty() ? 1f : (float) bounds.width() / mWidth;
+        final float scaleY = bounds.isEmpty() ? 1f : (float) bounds.height() / mHeight;
+        final float originX = bounds.isEmpty() ? 0 : bounds.left;
+        final float originY = bounds.isEmpty() ? 0 : bounds.top;
+
+        if (!canvas.getClipBounds(mClip)) {
+            return;
+        }
+        mImageClip.set((mClip.left - originX) / scaleX, (mClip.top - originY) / scaleY,
+            (mClip.right - originX) / scaleX, (mClip.bottom - originY) / scaleY);
+        if (!mImageClip.intersect(0, 0, mWidth, mHeight)) {
+            return;
+        }
+
+        final int level = chooseLevel(mDisplayScale * scaleX, mLevelCount);
+        final int span = mTileSize << level;
+        final int left = (int) (mImageClip.left / span);
+        final int top = (int) (mImageClip.top / span);
+        final int right = (int) Math.ceil(mImageClip.right / span) - 1;
+        final int bottom = (int) Math.ceil(mImageClip.bottom / span) - 1;
+
+        mVisible.set(level, left, top, right, bottom);
+
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                // The tile's area, in drawable coordinates
+                float x0 = column * span;
+                float y0 = row * span;
+                float x1 = Math.min(mWidth, x0 + span);
+                float y1 = Math.min(mHeight, y0 + span);
+                mDst.set(originX + x0 * scaleX, originY + y0 * scaleY, originX + x1 * scaleX, originY + y1 * scaleY);
+
+                Bitmap tile = getTile(key(level, column, row));
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, mDst, mPaint);
+                } else {
+                    request(level, column, row);
+                    drawPlaceholder(canvas, level, x0, y0, x1, y1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the scale the drawable is shown at, e.g., the scale of an ImageView's image matrix.
+     * Until it is set, the coarsest level is drawn.
+     *
+     * @param scale screen pixels per drawable bounds pixel
+     */
+    public void setDisplayScale(float scale) {
+        mDisplayScale = Math.abs(scale);
+    }
+
+    public float getDisplayScale() {
+        return mDisplayScale;
+    }
+
+    /**
+     * The coarsest level with at least as many pixels as the screen
+     *
+     * @param scale      screen pixels per image pixel, NaN if unknown
+     * @param levelCount
+     */
+    static int chooseLevel(float scale, int levelCount) {
+        if (!(scale > 0)) {
+            return levelCount - 1;
+        }
+        int level = 0;
+        while (level < levelCount - 1 && scale * (1 << (level + 1)) <= 1f) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Draws the image area (x0, y0, x1, y1), which is mDst on the canvas, from a coarser tile, or
+     * from the preview
+     */
+    private void drawPlaceholder(Canvas canvas, int level, float x0, float y0, float x1, float y1) {
+        for (int coarse = level + 1; coarse < mLevelCount; coarse++) {
+            int span = mTileSize << coarse;
+            int column = (int) (x0 / span);
+            int row = (int) (y0 / span);
+            Bitmap tile = getTile(key(coarse, column, row));
+            if (tile != null) {
+                // The area, in the coarse tile's pixels
+                int shift = coarse;
+                int originX = column * span;
+                int originY = row * span;
+                mSrc.set(((int) x0 - originX) >> shift, ((int) y0 - originY) >> shift,
+                    (int) Math.ceil((x1 - originX) / (1 << shift)), (int) Math.ceil((y1 - originY) / (1 << shift)));
+                mSrc.right = Math.min(mSrc.right, tile.getWidth());
+                mSrc.bottom = Math.min(mSrc.bottom, tile.getHeight());
+                canvas.drawBitmap(tile, mSrc, mDst, mPaint);
+                return;
+            }
+        }
+        if (mPreview != null && !mPreview.isRecycled()) {
+            float previewScaleX = (float) mPreview.getWidth() / mWidth;
+            float previewScaleY = (float) mPreview.getHeight() / mHeight;
+            mSrc.set((int) (x0 * previewScaleX), (int) (y0 * previewScaleY),
+                (int) Math.ceil(x1 * previewScaleX), (int) Math.ceil(y1 * previewScaleY));
+            canvas.drawBitmap(mPreview, mSrc, mDst, mPaint);
+        }
+    }
+
+    private void request(final int level, final int column, final int row) {
+        final long key = key(level, column, row);
+        if (mPending.get(key) != null) {
+            return;
+        }
+        mPending.put(key, Boolean.TRUE);
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap tile = !mReleased && mVisible.contains(level, column, row)
+                    ? mProvider.loadTile(level, column, row) : null;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPending.delete(key);
+                        if (tile != null && !mReleased) {
+                            putTile(key, tile);
+                            invalidateSelf();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the loaded tile for key, marking it as most recently used
+     *
+     * @return null if the tile isn't loaded
+     */
+    private Bitmap getTile(long key) {
+        TileLru.Entry<Bitmap> entry = mTiles.get(key);
+        if (entry == null) {
+            return null;
+        }
+        mLru.touch(entry);
+        return entry.value;
+    }
+
+    private void putTile(long key, Bitmap tile) {
+        TileLru.Entry<Bitmap> previous = mTiles.get(key);
+        if (previous != null) {
+            mLru.remove(previous);
+        }
+        TileLru.Entry<Bitmap> entry = new TileLru.Entry<>(key, tile, (long) tile.getRowBytes() * tile.getHeight());
+        mTiles.put(key, entry);
+        mLru.add(entry);
+        // Always keep the tile that was just loaded
+        TileLru.Entry<Bitmap> evicted;
+        while ((evicted = mLru.evict(entry)) != null) {
+            mTiles.delete(evicted.key);
+        }
+    }
+
+    /**
+     * Packs a tile address into a key: 8 bits of level, then 28 bits each of column and row
+     */
+    static long key(int level, int column, int row) {
+        return ((long) level << 56) | ((long) column << 28) | row;
+    }
+
+    /**
+     * Stops loading tiles and drops the loaded ones. The drawable draws nothing afterwards.
+     * The provider is left alone. An {@link ImageViewTouchBase} calls this when the drawable is
+     * replaced or the view is disposed. May be called more than once.
+     */
+    public void release() {
+        mReleased = true;
+        mTiles.clear();
+        mLru.clear();
+        mPending.clear();
+    }
+
+    public boolean isReleased() {
+        return mReleased;
+    }
+
+    /**
+     * Returns the number of bytes used by loaded tiles
+     *
+     * @return
+     */
+    public long getCacheBytes() {
+        return mLru.getBytes();
+    }
+
+    public TileProvider getTileProvider() {
+        return mProvider;
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        mPaint.setColorFilter(cf);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getMinimumWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getMinimumHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the preview, the whole image at low resolution
+     *
+     * @return may be null
+     */
+    @Override
+    public Bitmap getBitmap() {
+        return mPreview;
+    }
+
+    public Paint getPaint() {
+        return mPaint;
+    }
+}
@@ -0,0 +1,83 @@
+package it.sephiroth.android.library.imagezoom.graphics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TileLruTest {
+
+    private static TileLru.Entry<String> entry(long key) {
+        return new TileLru.Entry<>(key, "tile" + key, 10);
+    }
+
+    @Test
+    public void evict_takesTheLeastRecentlyAddedFirst() throws Exception {
+        TileLru<String> lru = new TileLru<>(20);
+        TileLru.Entry<String> a = entry(1);
+        TileLru.Entry<String> b = entry(2);
+        TileLru.Entry<String> c = entry(3);
+        lru.add(a);
+        lru.add(b);
+        assertNull(lru.evict(b));
+
+        lru.add(c);
+        assertEquals(30, lru.getBytes());
+        assertSame(a, lru.evict(c));
+        assertNull(lru.evict(c));
+        assertEquals(20, lru.getBytes());
+        assertSame(c, lru.getNewest());
+        assertSame(b, lru.getOldest());
+    }
+
+    @Test
+    public void touch_makesAnEntryTheMostRecentlyUsed() throws Exception {
+        TileLru<String> lru = new TileLru<>(20);
+        TileLru.Entry<String> a = entry(1);
+        TileLru.Entry<String> b = entry(2);
+        TileLru.Entry<String> c = entry(3);
+        lru.add(a);
+        lru.add(b);
+        lru.touch(a);
+        lru.touch(a);
+        assertSame(a, lru.getNewest());
+
+        lru.add(c);
+        assertSame(b, lru.evict(c));
+        assertNull(lru.evict(c));
+        assertSame(a, lru.getOldest());
+    }
+
+    @Test
+    public void evict_keepsTheGivenEntryEvenOverBudget() throws Exception {
+        TileLru<String> lru = new TileLru<>(5);
+        TileLru.Entry<String> a = entry(1);
+        TileLru.Entry<String> b = entry(2);
+        lru.add(a);
+        lru.add(b);
+        assertSame(a, lru.evict(b));
+        assertNull(lru.evict(b));
+        assertSame(b, lru.getNewest());
+        assertSame(b, lru.getOldest());
+        assertEquals(10, lru.getBytes());
+    }
+
+    @Test
+    public void remove_unlinksFromTheMiddle() throws Exception {
+        TileLru<String> lru = new TileLru<>(100);
+        TileLru.Entry<String> a = entry(1);
+        TileLru.Entry<String> b = entry(2);
+        TileLru.Entry<String> c = entry(3);
+        lru.add(a);
+        lru.add(b);
+        lru.add(c);
+        lru.remove(b);
+        assertEquals(20, lru.getBytes());
+        assertSame(c, a.newer);
+        assertSame(a, c.older);
+
+        lru.clear();
+        assertNull(lru.getNewest());
+        assertNull(lru.getOldest());
+        assertEquals(0, lru.getBytes());
+    }
+}
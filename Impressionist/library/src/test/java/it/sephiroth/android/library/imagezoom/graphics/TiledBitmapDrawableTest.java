@@ -0,0 +1,51 @@
+package it.sephiroth.android.library.imagezoom.graphics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TiledBitmapDrawableTest {
+
+    @Test
+    public void chooseLevel_keepsAtLeastOneImagePixelPerScreenPixel() throws Exception {
+        assertEquals(0, TiledBitmapDrawable.chooseLevel(4f, 5));
+        assertEquals(0, TiledBitmapDrawable.chooseLevel(1f, 5));
+        assertEquals(0, TiledBitmapDrawable.chooseLevel(0.6f, 5));
+        assertEquals(1, TiledBitmapDrawable.chooseLevel(0.5f, 5));
+        assertEquals(1, TiledBitmapDrawable.chooseLevel(0.3f, 5));
+        assertEquals(2, TiledBitmapDrawable.chooseLevel(0.25f, 5));
+    }
+
+    @Test
+    public void chooseLevel_stopsAtTheTopLevel() throws Exception {
+        assertEquals(4, TiledBitmapDrawable.chooseLevel(0.001f, 5));
+        assertEquals(0, TiledBitmapDrawable.chooseLevel(0.001f, 1));
+    }
+
+    @Test
+    public void chooseLevel_unknownScaleDrawsTheCoarsestLevel() throws Exception {
+        assertEquals(4, TiledBitmapDrawable.chooseLevel(Float.NaN, 5));
+        assertEquals(4, TiledBitmapDrawable.chooseLevel(0f, 5));
+    }
+
+    @Test
+    public void key_packsLevelColumnAndRow() throws Exception {
+        assertEquals(0L, TiledBitmapDrawable.key(0, 0, 0));
+        assertEquals(1L, TiledBitmapDrawable.key(0, 0, 1));
+        assertEquals(1L << 28, TiledBitmapDrawable.key(0, 1, 0));
+        assertEquals(1L << 56, TiledBitmapDrawable.key(1, 0, 0));
+
+        final int max = (1 << 28) - 1;
+        long key = TiledBitmapDrawable.key(15, max, max);
+        assertEquals(15, key >>> 56);
+        assertEquals(max, (key >>> 28) & max);
+        assertEquals(max, key & max);
+    }
+
+    @Test
+    public void key_isDistinctPerTile() throws Exception {
+        assertNotEquals(TiledBitmapDrawable.key(0, 1, 2), TiledBitmapDrawable.key(0, 2, 1));
+        assertNotEquals(TiledBitmapDrawable.key(1, 0, 0), TiledBitmapDrawable.key(0, 0, 0));
+        assertNotEquals(TiledBitmapDrawable.key(0, (1 << 28) - 1, 0), TiledBitmapDrawable.key(1, 0, 0));
+    }
+}